@@ -6,6 +6,7 @@ import com.google.appengine.api.taskqueue.RetryOptions;
 import com.google.appengine.api.taskqueue.TaskOptions;
 import org.wahlzeit.model.Photo;
 
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Logger;
 
 import static com.google.appengine.api.taskqueue.RetryOptions.Builder.withTaskRetryLimit;
@@ -19,6 +20,22 @@ public class AsyncTaskExecutor {
 
 	private static final Logger log = Logger.getLogger(AsyncTaskExecutor.class.getName());
 
+	/**
+	 * Queue for processing uploads, see queue.xml
+	 */
+	public static final String UPLOAD_QUEUE_NAME = "upload";
+
+	/**
+	 * The statistics of the upload queue are fetched at most once per interval, as fetching them is a remote call
+	 */
+	public static final long QUEUE_STATISTICS_INTERVAL = 5 * 1000; // = 5 s
+
+	/**
+	 *
+	 */
+	protected static volatile int noQueuedUploads = 0;
+	protected static final AtomicLong queueStatisticsTime = new AtomicLong();
+
 	/**
 	 * @methodtype command
 	 *
@@ -30,4 +47,46 @@ public class AsyncTaskExecutor {
 		RetryOptions retryOptions = withTaskRetryLimit(3);
 		queue.add(TaskOptions.Builder.withUrl("/persistPhoto").param(Photo.ID, photoId).retryOptions(retryOptions));
 	}
+
+	/**
+	 * @methodtype command
+	 *
+	 * Starts a task in the default queue that flushes the WriteBehindQueue if that is due after the delay in ms.
+	 */
+	public static void flushWritesAsync(long delay) {
+		Queue queue = QueueFactory.getDefaultQueue();
+		queue.add(TaskOptions.Builder.withUrl("/flushWrites").countdownMillis(delay));
+	}
+
+	/**
+	 * @methodtype command
+	 *
+	 * Starts a task in the upload queue to process the uploaded photo with the specified ID, see UploadPipeline.
+	 */
+	public static void processPhotoAsync(String photoId) {
+		log.config("Calling async push task to process PhotoId " + photoId);
+		Queue queue = QueueFactory.getQueue(UPLOAD_QUEUE_NAME);
+		RetryOptions retryOptions = withTaskRetryLimit(3);
+		queue.add(TaskOptions.Builder.withUrl("/processPhoto").param(Photo.ID, photoId).retryOptions(retryOptions));
+		noQueuedUploads++; // counts own tasks until the next statistics, which need not be exact
+	}
+
+	/**
+	 * @methodtype get
+	 *
+	 * Returns the number of tasks in the upload queue as of the last queue statistics. Only the first call after
+	 * QUEUE_STATISTICS_INTERVAL fetches new statistics; if that fails, the last number is kept.
+	 */
+	public static int getNoQueuedUploads() {
+		long now = System.currentTimeMillis();
+		long lastTime = queueStatisticsTime.get();
+		if ((now - lastTime >= QUEUE_STATISTICS_INTERVAL) && queueStatisticsTime.compareAndSet(lastTime, now)) {
+			try {
+				noQueuedUploads = QueueFactory.getQueue(UPLOAD_QUEUE_NAME).fetchStatistics().getNumTasks();
+			} catch (RuntimeException e) {
+				log.warning("Could not fetch statistics of upload queue: " + e.getMessage());
+			}
+		}
+		return noQueuedUploads;
+	}
 }
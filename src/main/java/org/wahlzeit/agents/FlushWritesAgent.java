@@ -0,0 +1,33 @@
+package org.wahlzeit.agents;
+
+import org.wahlzeit.services.LogBuilder;
+import org.wahlzeit.services.WriteBehindQueue;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Servlet to flush the <code>WriteBehindQueue</code> when no request has done so in time.
+ * Like <code>PersistPhotoAgent</code>, it is called by a task and not implemented as a Handler.
+ */
+public class FlushWritesAgent extends HttpServlet {
+
+	private static final Logger log = Logger.getLogger(FlushWritesAgent.class.getName());
+
+	/**
+	 * @methodtype command
+	 */
+	protected void doPost(HttpServletRequest request, HttpServletResponse response)
+			throws ServletException, IOException {
+
+		WriteBehindQueue queue = WriteBehindQueue.getInstance();
+		LogBuilder.createSystemMessage(log, Level.CONFIG).addParameter("Write-behind: queued objects", queue.getSize()).log();
+		queue.flushIfDue();
+		response.setStatus(HttpServletResponse.SC_OK);
+	}
+}
@@ -17,6 +17,7 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
@@ -47,12 +48,12 @@ public class NotifyUsersAboutPraiseAgent extends Agent {
 			if (photo != null && photo.isVisible() && photo.hasNewPraise()) {
 				String ownerId = photo.getOwnerId();
 				if (ownerId != null) {
-					log.config(LogBuilder.createSystemMessage().addParameter("ownerId", ownerId).toString());
+					LogBuilder.createSystemMessage(log, Level.CONFIG).addParameter("ownerId", ownerId).log();
 					if (ownerIdPhotosMap.containsKey(ownerId)) {
-						log.config(LogBuilder.createSystemMessage().addAction("add to existing owner").toString());
+						LogBuilder.createSystemMessage(log, Level.CONFIG).addAction("add to existing owner").log();
 						arrayListOfPhotos = ownerIdPhotosMap.get(ownerId);
 					} else {
-						log.config(LogBuilder.createSystemMessage().addAction("add to new owner").toString());
+						LogBuilder.createSystemMessage(log, Level.CONFIG).addAction("add to new owner").log();
 						arrayListOfPhotos = new ArrayList<Photo>();
 					}
 					arrayListOfPhotos.add(photo);
@@ -63,8 +64,8 @@ public class NotifyUsersAboutPraiseAgent extends Agent {
 			}
 		}
 
-		log.config(LogBuilder.createSystemMessage().addAction("notify owner")
-				.addParameter("number of user to notify", ownerIdPhotosMap.size()).toString());
+		LogBuilder.createSystemMessage(log, Level.CONFIG).addAction("notify owner")
+				.addParameter("number of user to notify", ownerIdPhotosMap.size()).log();
 
 		for (String ownerId : ownerIdPhotosMap.keySet()) {
 			notifyOwner(ownerId, ownerIdPhotosMap.get(ownerId));
@@ -86,8 +87,8 @@ public class NotifyUsersAboutPraiseAgent extends Agent {
 
 		String emailBody = cfg.getNotifyAboutPraiseEmailBody() + "\n\n";
 
-		log.config(LogBuilder.createSystemMessage().addAction("sending email")
-				.addParameter("recipient", to.asString()).toString());
+		LogBuilder.createSystemMessage(log, Level.CONFIG).addAction("sending email")
+				.addParameter("recipient", to.asString()).log();
 
 		for (Photo current : allPhotosOfUser) {
 			String id = current.getId().asString();
@@ -97,8 +98,8 @@ public class NotifyUsersAboutPraiseAgent extends Agent {
 			String link = "https://" + appId + ".appspot.com/" + id + ".html\n";
 			emailBody += link;
 
-			log.config(LogBuilder.createSystemMessage().addParameter("appid", appId)
-					.addParameter("link", link).toString());
+			LogBuilder.createSystemMessage(log, Level.CONFIG).addParameter("appid", appId)
+					.addParameter("link", link).log();
 
 		}
 		emailBody += "\n";
@@ -0,0 +1,52 @@
+package org.wahlzeit.agents;
+
+import org.wahlzeit.model.Photo;
+import org.wahlzeit.model.PhotoId;
+import org.wahlzeit.model.UploadPipeline;
+import org.wahlzeit.services.LogBuilder;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Servlet to process uploaded Photos in the background, see <code>UploadPipeline</code>.
+ * Like <code>PersistPhotoAgent</code>, it is called by a task and not implemented as a Handler.
+ */
+public class ProcessPhotoAgent extends HttpServlet {
+
+	private static final Logger log = Logger.getLogger(ProcessPhotoAgent.class.getName());
+
+	/**
+	 * @methodtype command
+	 */
+	protected void doPost(HttpServletRequest request, HttpServletResponse response)
+			throws ServletException, IOException {
+
+		String id = request.getParameter(Photo.ID);
+		LogBuilder.createSystemMessage(log, Level.CONFIG).addParameter("Try to process PhotoId", id).log();
+		if (id == null || "".equals(id)) {
+			response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+			return;
+		}
+
+		try {
+			if (!UploadPipeline.getInstance().process(PhotoId.getIdFromString(id))) {
+				// neither the photo nor its staged original will show up by retrying
+				log.warning(LogBuilder.createSystemMessage().addParameter("No staged upload for PhotoId", id).toString());
+			}
+		} catch (Exception e) {
+			// the original is still staged, so let the task be retried
+			log.warning(LogBuilder.createSystemMessage().
+					addParameter("PhotoId", id).
+					addException("Processing upload failed", e).toString());
+			response.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+			return;
+		}
+		response.setStatus(HttpServletResponse.SC_OK);
+	}
+}
@@ -27,6 +27,7 @@ import javax.servlet.ServletContext;
 import javax.servlet.ServletContextEvent;
 import javax.servlet.ServletContextListener;
 import java.io.File;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
@@ -46,14 +47,14 @@ public class Wahlzeit implements ServletContextListener {
 			// configures logging
 			String contextPath = sc.getContextPath();
 			System.setProperty("contextPath", contextPath);
-			log.config(LogBuilder.createSystemMessage().
-					addParameter("System property context path", contextPath).toString());
+			LogBuilder.createSystemMessage(log, Level.CONFIG).
+					addParameter("System property context path", contextPath).log();
 
 			// determines file system root path to resources
 			File dummyFile = new File(sc.getRealPath("dummy.txt"));
 			String rootDir = dummyFile.getParent();
-			log.config(LogBuilder.createSystemMessage().
-					addParameter("Root directory", rootDir).toString());
+			LogBuilder.createSystemMessage(log, Level.CONFIG).
+					addParameter("Root directory", rootDir).log();
 
 			ServiceMain.getInstance().startUp(true, rootDir);
 		} catch (Exception ex) {
@@ -32,9 +32,11 @@ import org.wahlzeit.services.LogBuilder;
 import org.wahlzeit.services.SysConfig;
 import org.wahlzeit.utils.HtmlUtil;
 import org.wahlzeit.utils.StringUtil;
+import org.wahlzeit.webparts.FragmentCache;
 import org.wahlzeit.webparts.WebPart;
 import org.wahlzeit.webparts.WebPartTemplate;
 import org.wahlzeit.webparts.WebPartTemplateService;
+import org.wahlzeit.webparts.Writable;
 
 import java.io.File;
 import java.util.Map;
@@ -75,10 +77,93 @@ public abstract class AbstractWebPartHandler implements WebPartHandler {
 	 */
 	protected final WebPart createWebPart(UserSession us, String name) {
 		WebPartTemplateService wpts = WebPartTemplateService.getInstance();
-		WebPartTemplate tmpl = wpts.getTemplate(us.getClient().getLanguageConfiguration().getLanguageCode(), name);
+		WebPartTemplate tmpl = wpts.getTemplate(getLanguageCode(us), name);
 		return new WebPart(tmpl);
 	}
 
+	/**
+	 * @methodtype get
+	 *
+	 * Returns the cached rendering of the template for the cache key, or null if there is none, see FragmentCache.
+	 */
+	protected final Writable getCachedWebPart(UserSession us, String name, String cacheKey) {
+		WebPartTemplate tmpl = WebPartTemplateService.getInstance().getTemplate(getLanguageCode(us), name);
+		if (tmpl == null) {
+			return null;
+		}
+		return FragmentCache.getInstance().get(tmpl, getLanguageCode(us), cacheKey);
+	}
+
+	/**
+	 * @methodtype get
+	 *
+	 * Returns the stamp of the model objects a web part shows, see FragmentCacheInvalidator; to be taken before the
+	 * part is built and passed to cacheWebPart().
+	 */
+	protected final FragmentCache.Stamp getFragmentStamp(String... dependencies) {
+		return FragmentCache.getInstance().getStamp(dependencies);
+	}
+
+	/**
+	 * @methodtype command
+	 *
+	 * Renders and caches the part for the cache key, unless the objects of the stamp have changed since. Returns the
+	 * rendered part.
+	 */
+	protected final Writable cacheWebPart(UserSession us, WebPart part, String cacheKey, FragmentCache.Stamp stamp) {
+		if (part.getTemplate() == null) {
+			return part;
+		}
+		return FragmentCache.getInstance().put(part, getLanguageCode(us), cacheKey, stamp);
+	}
+
+	/**
+	 * @methodtype command
+	 *
+	 * Renders and caches a part that shows no model objects.
+	 */
+	protected final Writable cacheWebPart(UserSession us, WebPart part, String cacheKey) {
+		return cacheWebPart(us, part, cacheKey, getFragmentStamp());
+	}
+
+	/**
+	 * @methodtype factory
+	 *
+	 * Returns the web part of the handler, from the fragment cache if the handler has a cache key for it.
+	 */
+	protected final Writable makeCachedWebPart(UserSession us, WebPartHandler handler) {
+		if (handler instanceof AbstractWebPartHandler) {
+			AbstractWebPartHandler partHandler = (AbstractWebPartHandler) handler;
+			String cacheKey = partHandler.getFragmentCacheKey(us);
+			if (cacheKey != null) {
+				Writable result = getCachedWebPart(us, partHandler.tmplName, cacheKey);
+				if (result == null) {
+					result = cacheWebPart(us, handler.makeWebPart(us), cacheKey);
+				}
+				return result;
+			}
+		}
+
+		return handler.makeWebPart(us);
+	}
+
+	/**
+	 * @methodtype get
+	 *
+	 * Returns what the web part of this handler depends on besides template and language, or null if it is not to be
+	 * cached. Only web parts that depend on no model objects can declare a cache key here.
+	 */
+	protected String getFragmentCacheKey(UserSession us) {
+		return null;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	protected String getLanguageCode(UserSession us) {
+		return us.getClient().getLanguageConfiguration().getLanguageCode();
+	}
+
 	/**
 	 *
 	 */
@@ -34,6 +34,7 @@ import org.wahlzeit.utils.StringUtil;
 import org.wahlzeit.webparts.WebPart;
 
 import java.util.Map;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
@@ -106,9 +107,9 @@ public class AdminUserProfileFormHandler extends AbstractWebFormHandler {
 		user = um.getUserById(userId);
 		us.setSavedArg("userId", userId);
 
-		log.info(LogBuilder.createUserMessage().
+		LogBuilder.createUserMessage(log, Level.INFO).
 				addAction("AdminUserProfile").
-				addParameter("User ID", user.getId()).toString());
+				addParameter("User ID", user.getId()).log();
 
 		us.setMessage(us.getClient().getLanguageConfiguration().getProfileUpdateSucceeded());
 
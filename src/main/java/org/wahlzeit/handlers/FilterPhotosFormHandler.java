@@ -29,6 +29,7 @@ import org.wahlzeit.utils.StringUtil;
 import org.wahlzeit.webparts.WebPart;
 
 import java.util.Map;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
@@ -56,6 +57,17 @@ public class FilterPhotosFormHandler extends AbstractWebFormHandler {
 		part.maskAndAddString(PhotoFilter.TAGS, filter.getTags().asString());
 	}
 
+	/**
+	 * The form only shows the filter of the session. The user name is prefixed with its length, as it may contain the
+	 * separator, so no two filters share a key.
+	 */
+	@Override
+	protected String getFragmentCacheKey(UserSession us) {
+		PhotoFilter filter = us.getPhotoFilter();
+		String userName = filter.getUserName();
+		return userName.length() + ":" + userName + "#" + filter.getTags().asString();
+	}
+
 	/**
 	 *
 	 */
@@ -72,9 +84,9 @@ public class FilterPhotosFormHandler extends AbstractWebFormHandler {
 			filter.setTags(new Tags(tags));
 		}
 
-		log.info(LogBuilder.createUserMessage().
+		LogBuilder.createUserMessage(log, Level.INFO).
 				addAction("Filter Photos").
-				addParameter("Tags", filter.getTags().asString()).toString());
+				addParameter("Tags", filter.getTags().asString()).log();
 
 
 		return PartUtil.SHOW_PHOTO_PAGE_NAME;
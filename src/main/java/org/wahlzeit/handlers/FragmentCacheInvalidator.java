@@ -0,0 +1,61 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.wahlzeit.handlers;
+
+import org.wahlzeit.model.Client;
+import org.wahlzeit.model.Photo;
+import org.wahlzeit.services.ObjectChangeListener;
+import org.wahlzeit.services.ObjectManager;
+import org.wahlzeit.services.Persistent;
+import org.wahlzeit.webparts.FragmentCache;
+
+/**
+ * The FragmentCacheInvalidator drops the cached fragments that show a photo or client when it changes.
+ */
+public class FragmentCacheInvalidator implements ObjectChangeListener {
+
+	/**
+	 * @methodtype conversion
+	 */
+	public static String asDependency(Photo photo) {
+		return "photo:" + photo.getId().asString();
+	}
+
+	/**
+	 * @methodtype conversion
+	 */
+	public static String asClientDependency(String clientId) {
+		return "client:" + clientId;
+	}
+
+	/**
+	 *
+	 */
+	public void objectChanged(ObjectManager manager, Persistent object) {
+		if (object instanceof Photo) {
+			FragmentCache.getInstance().invalidate(asDependency((Photo) object));
+		} else if (object instanceof Client) {
+			FragmentCache.getInstance().invalidate(asClientDependency(((Client) object).getId()));
+		}
+	}
+
+}
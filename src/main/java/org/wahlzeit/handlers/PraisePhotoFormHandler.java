@@ -25,12 +25,14 @@ import org.wahlzeit.model.Client;
 import org.wahlzeit.model.Photo;
 import org.wahlzeit.model.PhotoId;
 import org.wahlzeit.model.PhotoManager;
+import org.wahlzeit.model.UserManager;
 import org.wahlzeit.model.UserSession;
 import org.wahlzeit.services.LogBuilder;
 import org.wahlzeit.utils.StringUtil;
 import org.wahlzeit.webparts.WebPart;
 
 import java.util.Map;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 
@@ -84,11 +86,13 @@ public class PraisePhotoFormHandler extends AbstractWebFormHandler {
 				photo.addToPraise(value);
 				client.addPraisedPhotoId(photo.getId());
 				us.addProcessedPhoto(photo);
+				PhotoManager.getInstance().savePhotoLater(photo);
+				UserManager.getInstance().saveClientLater(client);
 				wasPraised = true;
 			}
 		}
 
-		log.info(LogBuilder.createUserMessage().addAction(wasPraised ? "PraisePhoto" : "SkipPhoto").toString());
+		LogBuilder.createUserMessage(log, Level.INFO).addAction(wasPraised ? "PraisePhoto" : "SkipPhoto").log();
 
 		return PartUtil.SHOW_PHOTO_PAGE_NAME;
 	}
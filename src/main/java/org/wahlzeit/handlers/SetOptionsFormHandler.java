@@ -30,6 +30,7 @@ import org.wahlzeit.services.LogBuilder;
 import org.wahlzeit.webparts.WebPart;
 
 import java.util.Map;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
@@ -79,10 +80,10 @@ public class SetOptionsFormHandler extends AbstractWebFormHandler {
 		PhotoSize photoValue = PhotoSize.getFromString(photoSize);
 		client.setPhotoSize(photoValue);
 
-		log.info(LogBuilder.createUserMessage().
+		LogBuilder.createUserMessage(log, Level.INFO).
 				addAction("Set options").
 				addParameter("language", language).
-				addParameter("photo size", photoSize).toString());
+				addParameter("photo size", photoSize).log();
 
 		ModelConfig config = us.getClient().getLanguageConfiguration();
 		String msg1 = config.getOptionsWereSet();
@@ -33,6 +33,7 @@ import org.wahlzeit.webparts.WebPart;
 import org.wahlzeit.webparts.Writable;
 
 import java.util.Map;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
@@ -158,7 +159,7 @@ public class ShowAdminPageHandler extends AbstractWebPageHandler implements WebF
 	 *
 	 */
 	protected String performSaveAllRequest(UserSession us) {
-		log.info(LogBuilder.createSystemMessage().addAction("save all objects").toString());
+		LogBuilder.createSystemMessage(log, Level.INFO).addAction("save all objects").log();
 
 		try {
 			ServiceMain.getInstance().saveAll();
@@ -174,7 +175,7 @@ public class ShowAdminPageHandler extends AbstractWebPageHandler implements WebF
 	 *
 	 */
 	protected String performShutdownRequest(UserSession us) {
-		log.info(LogBuilder.createSystemMessage().addAction("shutting system down").toString());
+		LogBuilder.createSystemMessage(log, Level.INFO).addAction("shutting system down").log();
 		try {
 			ServiceMain.getInstance().requestStop();
 		} catch (Exception ex) {
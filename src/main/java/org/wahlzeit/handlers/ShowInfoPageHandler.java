@@ -23,6 +23,7 @@ package org.wahlzeit.handlers;
 import org.wahlzeit.model.AccessRights;
 import org.wahlzeit.model.UserSession;
 import org.wahlzeit.webparts.WebPart;
+import org.wahlzeit.webparts.Writable;
 
 
 /**
@@ -47,7 +48,11 @@ public class ShowInfoPageHandler extends AbstractWebPageHandler {
 	 *
 	 */
 	protected void makeWebPageBody(UserSession us, WebPart page) {
-		page.addWritable("info", createWebPart(us, infoTmplName));
+		Writable info = getCachedWebPart(us, infoTmplName, "");
+		if (info == null) {
+			info = cacheWebPart(us, createWebPart(us, infoTmplName), "");
+		}
+		page.addWritable("info", info);
 	}
 
 }
@@ -30,6 +30,7 @@ import org.wahlzeit.model.PhotoSize;
 import org.wahlzeit.model.Tags;
 import org.wahlzeit.model.UserSession;
 import org.wahlzeit.utils.HtmlUtil;
+import org.wahlzeit.webparts.FragmentCache;
 import org.wahlzeit.webparts.WebPart;
 import org.wahlzeit.webparts.Writable;
 import org.wahlzeit.webparts.WritableList;
@@ -128,14 +129,14 @@ public class ShowPhotoPageHandler extends AbstractWebPageHandler implements WebF
 		if (lastPraisedPhoto != null) {
 			parts.append(makePriorPhotoInfo(us, lastPraisedPhoto));
 		} else {
-			parts.append(createWebPart(us, PartUtil.BLURP_INFO_FILE));
+			parts.append(makeStaticInfo(us, PartUtil.BLURP_INFO_FILE));
 		}
 
 		WebFormHandler handler = getFormHandler(PartUtil.FILTER_PHOTOS_FORM_NAME);
-		Writable filterPhotos = handler.makeWebPart(us);
+		Writable filterPhotos = makeCachedWebPart(us, handler);
 		parts.append(filterPhotos);
 
-		parts.append(createWebPart(us, PartUtil.LINKS_INFO_FILE));
+		parts.append(makeStaticInfo(us, PartUtil.LINKS_INFO_FILE));
 
 		page.addWritable("sidebar", parts);
 	}
@@ -177,8 +178,15 @@ public class ShowPhotoPageHandler extends AbstractWebPageHandler implements WebF
 		PhotoId photoId = us.getPhotoId();
 		Photo photo = PhotoManager.getInstance().getPhoto(photoId);
 
-		WebPart caption = createWebPart(us, PartUtil.CAPTION_INFO_FILE);
-		caption.addString(Photo.CAPTION, getPhotoCaption(us, photo));
+		// the caption only shows the owner
+		String ownerId = photo.getOwnerId();
+		Writable caption = getCachedWebPart(us, PartUtil.CAPTION_INFO_FILE, ownerId);
+		if (caption == null) {
+			FragmentCache.Stamp stamp = getFragmentStamp(FragmentCacheInvalidator.asClientDependency(ownerId));
+			WebPart part = createWebPart(us, PartUtil.CAPTION_INFO_FILE);
+			part.addString(Photo.CAPTION, getPhotoCaption(us, photo));
+			caption = cacheWebPart(us, part, ownerId, stamp);
+		}
 		page.addWritable(Photo.CAPTION, caption);
 	}
 
@@ -215,13 +223,34 @@ public class ShowPhotoPageHandler extends AbstractWebPageHandler implements WebF
 	/**
 	 *
 	 */
-	protected WebPart makePriorPhotoInfo(UserSession us, Photo lastPraisedPhoto) {
+	protected Writable makePriorPhotoInfo(UserSession us, Photo lastPraisedPhoto) {
+		String photoId = lastPraisedPhoto.getId().asString();
+		Writable cached = getCachedWebPart(us, PartUtil.PHOTO_INFO_FILE, photoId);
+		if (cached != null) {
+			return cached;
+		}
+
+		FragmentCache.Stamp stamp = getFragmentStamp(FragmentCacheInvalidator.asDependency(lastPraisedPhoto),
+				FragmentCacheInvalidator.asClientDependency(lastPraisedPhoto.getOwnerId()));
 		WebPart result = createWebPart(us, PartUtil.PHOTO_INFO_FILE);
 
 		result.addString(Photo.PRAISE, lastPraisedPhoto.getPraiseAsString(us.getClient().getLanguageConfiguration()));
 		result.addString(Photo.THUMB, getPhotoThumb(us, lastPraisedPhoto));
 		result.addString(Photo.CAPTION, getPhotoCaption(us, lastPraisedPhoto));
 
+		return cacheWebPart(us, result, photoId, stamp);
+	}
+
+	/**
+	 * @methodtype factory
+	 *
+	 * Returns an info part that only shows its template, rendered once per language.
+	 */
+	protected Writable makeStaticInfo(UserSession us, String name) {
+		Writable result = getCachedWebPart(us, name, "");
+		if (result == null) {
+			result = cacheWebPart(us, createWebPart(us, name), "");
+		}
 		return result;
 	}
 
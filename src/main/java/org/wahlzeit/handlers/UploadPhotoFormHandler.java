@@ -27,6 +27,7 @@ import org.wahlzeit.model.ModelConfig;
 import org.wahlzeit.model.Photo;
 import org.wahlzeit.model.PhotoManager;
 import org.wahlzeit.model.Tags;
+import org.wahlzeit.model.UploadPipeline;
 import org.wahlzeit.model.User;
 import org.wahlzeit.model.UserSession;
 import org.wahlzeit.services.LogBuilder;
@@ -34,6 +35,7 @@ import org.wahlzeit.utils.StringUtil;
 import org.wahlzeit.webparts.WebPart;
 
 import java.util.Map;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
@@ -77,23 +79,29 @@ public class UploadPhotoFormHandler extends AbstractWebFormHandler {
 			String fileName = us.getAsString(args, "fileName");
 			User user = (User) us.getClient();
 			Image uploadedImage = user.getUploadedImage();
-			Photo photo = pm.createPhoto(fileName, uploadedImage);
+			user.setUploadedImage(null); // the upload pipeline stages the image from here on
+			Photo photo = pm.createProcessingPhoto(fileName, uploadedImage);
 
 			user.addPhoto(photo);
 
 			photo.setTags(new Tags(tags));
 
-			log.config(LogBuilder.createUserMessage().
+			LogBuilder.createUserMessage(log, Level.CONFIG).
 					addAction("Upload Photo").
 					addParameter("Photo", photo.getId().asString()).
-					addParameter("tags", photo.getTags().asString()).toString());
+					addParameter("tags", photo.getTags().asString()).log();
+
+			UploadPipeline pipeline = UploadPipeline.getInstance();
+			if (pipeline.accept(photo, uploadedImage, AsyncTaskExecutor.getNoQueuedUploads())) {
+				LogBuilder.createSystemMessage(log, Level.CONFIG).
+						addAction("Calling async task to process Photo").
+						addParameter("ID", photo.getId().asString()).log();
+				AsyncTaskExecutor.processPhotoAsync(photo.getId().asString());
+			} else {
+				pipeline.process(photo, uploadedImage);
+			}
 
 			us.setTwoLineMessage(config.getPhotoUploadSucceeded(), config.getKeepGoing());
-			log.config(LogBuilder.createSystemMessage().
-					addAction("Calling async task to save Photo").
-					addParameter("ID", photo.getId().asString()).toString());
-
-			AsyncTaskExecutor.savePhotoAsync(photo.getId().asString());
 		} catch (Exception ex) {
 			log.warning(LogBuilder.createSystemMessage().addException("uploading photo failed", ex).toString());
 			us.setMessage(config.getPhotoUploadFailed());
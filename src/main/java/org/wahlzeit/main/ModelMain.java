@@ -29,10 +29,13 @@ import org.wahlzeit.model.UserManager;
 import org.wahlzeit.model.persistence.DatastoreAdapter;
 import org.wahlzeit.model.persistence.ImageStorage;
 import org.wahlzeit.services.LogBuilder;
+import org.wahlzeit.services.WriteBehindQueue;
+import org.wahlzeit.services.WriteResult;
 
 import java.io.File;
 import java.io.FileFilter;
 import java.io.IOException;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
@@ -49,21 +52,44 @@ public abstract class ModelMain extends AbstractMain {
 		super.startUp(rootDir);
 		log.info("AbstractMain.startUp completed");
 
-		log.config(LogBuilder.createSystemMessage().addAction("load image storage").toString());
+		LogBuilder.createSystemMessage(log, Level.CONFIG).addAction("load image storage").log();
 		//GcsAdapter.Builder gcsAdapterBuilder = new GcsAdapter.Builder();
 		ImageStorage.setInstance(new DatastoreAdapter());
 
-		log.config(LogBuilder.createSystemMessage().addAction("load globals").toString());
-		GlobalsManager.getInstance().loadGlobals();
+		LogBuilder.createSystemMessage(log, Level.CONFIG).addAction("init PhotoFactory").log();
+		PhotoFactory.initialize();
 
-		log.config(LogBuilder.createSystemMessage().addAction("load user").toString());
-		UserManager.getInstance().init();
+		loadModel(new StartUpLoader());
+	}
 
-		log.config(LogBuilder.createSystemMessage().addAction("init PhotoFactory").toString());
-		PhotoFactory.initialize();
+	/**
+	 * Globals are loaded first, as they set the id counters for users and photos. Users and photos do not depend on
+	 * each other and are loaded concurrently.
+	 */
+	protected void loadModel(StartUpLoader loader) throws Exception {
+		loader.runPhase("load globals", new Runnable() {
+			@Override
+			public void run() {
+				GlobalsManager.getInstance().loadGlobals();
+			}
+		});
 
-		log.config(LogBuilder.createSystemMessage().addAction("load Photos").toString());
-		PhotoManager.getInstance().init();
+		loader.addPhase("load users", new Runnable() {
+			@Override
+			public void run() {
+				UserManager.getInstance().init();
+			}
+		});
+		loader.addPhase("load photos", new Runnable() {
+			@Override
+			public void run() {
+				PhotoManager.getInstance().init();
+			}
+		});
+		loader.runPhases();
+
+		LogBuilder.createSystemMessage(log, Level.INFO).
+				addParameter("start up times in ms", loader.asString()).log();
 	}
 
 
@@ -71,6 +97,7 @@ public abstract class ModelMain extends AbstractMain {
 	 *
 	 */
 	protected void shutDown() throws Exception {
+		WriteBehindQueue.getInstance().flush();
 		saveAll();
 
 		super.shutDown();
@@ -81,8 +108,13 @@ public abstract class ModelMain extends AbstractMain {
 	 */
 	public void saveAll() throws IOException{
 		PhotoCaseManager.getInstance().savePhotoCases();
-		PhotoManager.getInstance().savePhotos();
-		UserManager.getInstance().saveClients();
+
+		// write photos and clients in batches and let their writes overlap
+		WriteResult photosResult = PhotoManager.getInstance().savePhotosAsync();
+		WriteResult clientsResult = UserManager.getInstance().saveClientsAsync();
+		photosResult.now();
+		clientsResult.now();
+
 		GlobalsManager.getInstance().saveGlobals();
 	}
 
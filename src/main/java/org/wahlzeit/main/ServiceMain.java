@@ -25,12 +25,15 @@ import org.wahlzeit.model.AccessRights;
 import org.wahlzeit.model.EnglishModelConfig;
 import org.wahlzeit.model.GermanModelConfig;
 import org.wahlzeit.model.LanguageConfigs;
+import org.wahlzeit.model.PhotoManager;
+import org.wahlzeit.model.UserManager;
 import org.wahlzeit.services.ConfigDir;
 import org.wahlzeit.services.Language;
 import org.wahlzeit.services.LogBuilder;
 import org.wahlzeit.services.SysConfig;
 import org.wahlzeit.webparts.WebPartTemplateService;
 
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
@@ -91,19 +94,19 @@ public class ServiceMain extends ModelMain {
 	public void startUp(boolean inProduction, String rootDir) throws Exception {
 		isInProduction = inProduction;
 
-		log.config(LogBuilder.createSystemMessage().addAction("Start up ModelMain").toString());
+		LogBuilder.createSystemMessage(log, Level.CONFIG).addAction("Start up ModelMain").log();
 		super.startUp(rootDir);
 
-		log.config(LogBuilder.createSystemMessage().addAction("Configure WebPartTemplateService").toString());
+		LogBuilder.createSystemMessage(log, Level.CONFIG).addAction("Configure WebPartTemplateService").log();
 		configureWebPartTemplateService();
 
-		log.config(LogBuilder.createSystemMessage().addAction("Configure WebPartHandler").toString());
+		LogBuilder.createSystemMessage(log, Level.CONFIG).addAction("Configure WebPartHandler").log();
 		configureWebPartHandlers();
 
-		log.config(LogBuilder.createSystemMessage().addAction("Configure LanguageModels").toString());
+		LogBuilder.createSystemMessage(log, Level.CONFIG).addAction("Configure LanguageModels").log();
 		configureLanguageModels();
 
-		log.config(LogBuilder.createSystemMessage().addMessage("StartUp complete.").toString());
+		LogBuilder.createSystemMessage(log, Level.CONFIG).addMessage("StartUp complete.").log();
 	}
 
 	/**
@@ -112,6 +115,7 @@ public class ServiceMain extends ModelMain {
 	public void configureWebPartTemplateService() {
 		ConfigDir templatesDir = SysConfig.getTemplatesDir();
 		WebPartTemplateService.getInstance().setTemplatesDir(templatesDir);
+		WebPartTemplateService.getInstance().preloadTemplates();
 	}
 
 	/**
@@ -203,6 +207,11 @@ public class ServiceMain extends ModelMain {
 		manager.addWebPartHandler(PartUtil.SHOW_ADMIN_MENU_FORM_NAME, temp);
 		manager.addWebPartHandler(PartUtil.ADMIN_USER_PROFILE_FORM_NAME, new AdminUserProfileFormHandler());
 		manager.addWebPartHandler(PartUtil.ADMIN_USER_PHOTO_FORM_NAME, new AdminUserPhotoFormHandler());
+
+		// cached fragments that show photos or users are dropped when those change
+		FragmentCacheInvalidator invalidator = new FragmentCacheInvalidator();
+		PhotoManager.getInstance().addChangeListener(invalidator);
+		UserManager.getInstance().addChangeListener(invalidator);
 	}
 
 	/**
@@ -220,6 +229,9 @@ public class ServiceMain extends ModelMain {
 		//AgentManager am = AgentManager.getInstance();
 		//am.stopAllThreads();
 
+		LogBuilder.createSystemMessage(log, Level.INFO).
+				addParameter("template times", WebPartTemplateService.getInstance().getTimesAsString()).log();
+
 		super.shutDown();
 	}
 
@@ -0,0 +1,158 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.main;
+
+import com.google.appengine.api.ThreadManager;
+import com.google.apphosting.api.ApiProxy;
+import org.wahlzeit.services.LogBuilder;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A StartUpLoader runs the phases of loading the model at startup and takes their times. Phases that do not depend on
+ * each other are added first and then run concurrently.
+ */
+public class StartUpLoader {
+
+	private static final Logger log = Logger.getLogger(StartUpLoader.class.getName());
+
+	/**
+	 * Phases to be run concurrently by the next call of runPhases()
+	 */
+	protected final Map<String, Runnable> phases = new LinkedHashMap<String, Runnable>();
+
+	/**
+	 * Time in milliseconds each phase took
+	 */
+	protected final Map<String, Long> phaseTimes = Collections.synchronizedMap(new LinkedHashMap<String, Long>());
+
+	/**
+	 *
+	 */
+	public StartUpLoader() {
+		// do nothing
+	}
+
+	/**
+	 * @methodtype set
+	 */
+	public void addPhase(String name, Runnable phase) {
+		phases.put(name, phase);
+	}
+
+	/**
+	 * @methodtype command
+	 *
+	 * Runs the phase in the current thread and takes its time.
+	 */
+	public void runPhase(String name, Runnable phase) {
+		LogBuilder.createSystemMessage(log, Level.CONFIG).addAction(name).log();
+
+		long startTime = System.currentTimeMillis();
+		phase.run();
+		long phaseTime = System.currentTimeMillis() - startTime;
+		phaseTimes.put(name, phaseTime);
+
+		LogBuilder.createSystemMessage(log, Level.INFO).
+				addParameter("start up phase", name).
+				addParameter("time in ms", String.valueOf(phaseTime)).log();
+	}
+
+	/**
+	 * @methodtype command
+	 *
+	 * Runs all added phases concurrently and waits for them to finish. The first failure is rethrown.
+	 */
+	public void runPhases() throws Exception {
+		if (phases.isEmpty()) {
+			return;
+		}
+
+		ExecutorService executor = Executors.newFixedThreadPool(phases.size(), getThreadFactory());
+		try {
+			Map<String, Future<?>> futures = new LinkedHashMap<String, Future<?>>();
+			for (final Map.Entry<String, Runnable> phase : phases.entrySet()) {
+				futures.put(phase.getKey(), executor.submit(new Runnable() {
+					@Override
+					public void run() {
+						runPhase(phase.getKey(), phase.getValue());
+					}
+				}));
+			}
+
+			for (Map.Entry<String, Future<?>> future : futures.entrySet()) {
+				try {
+					future.getValue().get();
+				} catch (ExecutionException e) {
+					log.warning(LogBuilder.createSystemMessage().
+							addParameter("start up phase", future.getKey()).
+							addException("Start up phase failed", e.getCause()).toString());
+					if (e.getCause() instanceof Exception) {
+						throw (Exception) e.getCause();
+					}
+					throw e;
+				}
+			}
+		} finally {
+			executor.shutdown();
+			phases.clear();
+		}
+	}
+
+	/**
+	 * @methodtype get
+	 *
+	 * Google App Engine only allows threads bound to the current request; tools run outside of it use plain threads.
+	 */
+	protected ThreadFactory getThreadFactory() {
+		if (ApiProxy.getCurrentEnvironment() != null) {
+			return ThreadManager.currentRequestThreadFactory();
+		} else {
+			return Executors.defaultThreadFactory();
+		}
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public Map<String, Long> getPhaseTimes() {
+		synchronized (phaseTimes) {
+			return new LinkedHashMap<String, Long>(phaseTimes);
+		}
+	}
+
+	/**
+	 * @methodtype conversion
+	 */
+	public String asString() {
+		return getPhaseTimes().toString();
+	}
+
+}
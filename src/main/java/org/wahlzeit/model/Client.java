@@ -142,6 +142,16 @@ public abstract class Client implements Serializable, Persistent {
 		UserManager.getInstance().changeNickname(this.nickName, nickName);
 		this.nickName = nickName;
 		incWriteCount();
+		UserManager.getInstance().clientChanged(this);
+	}
+
+	/**
+	 * @methodtype boolean-query
+	 *
+	 * Ephemeral clients are only held in memory and never written to the datastore, see GuestStore.
+	 */
+	public boolean isEphemeral() {
+		return false;
 	}
 
 	/**
@@ -207,6 +217,20 @@ public abstract class Client implements Serializable, Persistent {
 		writeCount = 0;
 	}
 
+	/**
+	 *
+	 */
+	public int getWriteCount() {
+		return writeCount;
+	}
+
+	/**
+	 *
+	 */
+	public void decWriteCount(int count) {
+		writeCount = Math.max(0, writeCount - count);
+	}
+
 	/**
 	 *
 	 */
@@ -2,11 +2,15 @@ package org.wahlzeit.model;
 
 import org.wahlzeit.services.LogBuilder;
 import org.wahlzeit.services.ObjectManager;
-
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
+import org.wahlzeit.services.WriteResult;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
@@ -21,16 +25,19 @@ public abstract class ClientManager extends ObjectManager {
 	/**
 	 *
 	 */
-	protected static Long lastClientId = 0L;
+	protected static final AtomicLong lastClientId = new AtomicLong();
 
 	/**
-	 * Maps IDs to user
+	 * Maps IDs to user; all maps are concurrent, as every request may add or remove clients
 	 */
-	protected Map<String, Client> idClientMap = new HashMap<String, Client>();
+	protected final ConcurrentMap<String, Client> idClientMap = new ConcurrentHashMap<String, Client>();
 
-	protected HashMap<String, Client> httpSessionIdToClientMap = new HashMap<String, Client>();
+	protected final ConcurrentMap<String, Client> httpSessionIdToClientMap = new ConcurrentHashMap<String, Client>();
 
-	protected List<String> listOfUsedNicknames = new ArrayList<String>();
+	/**
+	 * Nicknames are claimed atomically by adding them, see claimNickname()
+	 */
+	protected final Set<String> usedNicknames = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
 
 
 	// add methods -----------------------------------------------------------------------------------------------------
@@ -42,9 +49,20 @@ public abstract class ClientManager extends ObjectManager {
 	public void addClient(Client client) throws IllegalArgumentException {
 		assertIsNonNullArgument(client);
 		assertIsUnknownClientAsIllegalArgument(client);
-		assertNicknameIsNotUsed(client.getNickName());
+		if (client.isEphemeral()) {
+			// guest nicknames are their unique IDs, so they are not claimed
+			if (doAddClient(client) != client) {
+				throw new IllegalArgumentException(client.getId() + "is already known");
+			}
+			return;
+		}
+
+		claimNickname(client.getNickName());
 
-		doAddClient(client);
+		if (doAddClient(client) != client) {
+			releaseNickname(client.getNickName());
+			throw new IllegalArgumentException(client.getId() + "is already known");
+		}
 	}
 
 	/**
@@ -60,20 +78,61 @@ public abstract class ClientManager extends ObjectManager {
 	 * @methodtype assertion
 	 */
 	protected void assertNicknameIsNotUsed(String nickName) {
-		if (listOfUsedNicknames.contains(nickName)) {
+		if (isNicknameUsed(nickName)) {
+			throw new IllegalArgumentException("Nickname " + nickName + " is already used.");
+		}
+	}
+
+	/**
+	 * @methodtype boolean-query
+	 */
+	public boolean isNicknameUsed(String nickName) {
+		return usedNicknames.contains(nickName);
+	}
+
+	/**
+	 * @methodtype command
+	 *
+	 * Marks the nickname as used; of several threads claiming the same nickname only one succeeds.
+	 */
+	protected void claimNickname(String nickName) throws IllegalArgumentException {
+		assertIsNonNullArgument(nickName, "nickname");
+		if (!usedNicknames.add(nickName)) {
 			throw new IllegalArgumentException("Nickname " + nickName + " is already used.");
 		}
 	}
 
+	/**
+	 * @methodtype command
+	 */
+	protected void releaseNickname(String nickName) {
+		if (nickName != null) {
+			usedNicknames.remove(nickName);
+		}
+	}
+
 	/**
 	 * @methodtype set
 	 * @methodproperty primitive
+	 *
+	 * Returns the client now known by the client's ID, which is another client if one was added concurrently.
 	 */
-	protected void doAddClient(Client client) {
-		idClientMap.put(client.getId(), client);
+	protected Client doAddClient(Client client) {
+		if (client.isEphemeral()) {
+			return GuestStore.getInstance().add(client);
+		}
+
+		Client result = idClientMap.putIfAbsent(client.getId(), client);
+		if (result != null) {
+			return result;
+		}
+
+		if (client.getNickName() != null) {
+			usedNicknames.add(client.getNickName());
+		}
 		writeObject(client);
-		listOfUsedNicknames.add(client.getNickName());
-		log.config(LogBuilder.createSystemMessage().addParameter("Added new user", client.getId()).toString());
+		LogBuilder.createSystemMessage(log, Level.CONFIG).addParameter("Added new user", client.getId()).log();
+		return client;
 	}
 
 	/**
@@ -104,7 +163,11 @@ public abstract class ClientManager extends ObjectManager {
 	 * @methodproperty primitive
 	 */
 	protected Client doGetClientById(String name) {
-		return idClientMap.get(name);
+		Client result = idClientMap.get(name);
+		if (result == null) {
+			result = GuestStore.getInstance().get(name);
+		}
+		return result;
 	}
 
 	/**
@@ -113,7 +176,6 @@ public abstract class ClientManager extends ObjectManager {
 	public void addHttpSessionIdToClientMapping(String httpSessionId, Client client) {
 		assertIsNonNullArgument(httpSessionId);
 		assertIsNonNullArgument(client);
-		assert !httpSessionIdToClientMap.containsKey(httpSessionId);
 
 		doAddHttpSessionIdToClientMapping(httpSessionId, client);
 
@@ -124,11 +186,19 @@ public abstract class ClientManager extends ObjectManager {
 	 * @methodtype set
 	 */
 	public void doAddHttpSessionIdToClientMapping(String httpSessionId, Client client) {
-		httpSessionIdToClientMap.put(httpSessionId, client);
+		if (client.isEphemeral()) {
+			// guests are dropped by the GuestStore, so their sessions need no cleanup
+			client.setHttpSessionId(httpSessionId);
+			return;
+		}
+
+		Client previousClient = httpSessionIdToClientMap.putIfAbsent(httpSessionId, client);
+		assert previousClient == null;
+
 		client.setHttpSessionId(httpSessionId);
-		log.config(LogBuilder.createSystemMessage().
+		LogBuilder.createSystemMessage(log, Level.CONFIG).
 				addParameter("client name", client.getNickName()).
-				addParameter("httpSessionId", httpSessionId).toString());
+				addParameter("httpSessionId", httpSessionId).log();
 	}
 
 
@@ -138,7 +208,20 @@ public abstract class ClientManager extends ObjectManager {
 	 * @methodtype command
 	 */
 	public void saveClient(Client client) {
-		updateObject(client);
+		if (!client.isEphemeral()) {
+			updateObject(client);
+		}
+	}
+
+	/**
+	 * @methodtype command
+	 *
+	 * Saves the client with the next flush of the write-behind queue.
+	 */
+	public void saveClientLater(Client client) {
+		if (!client.isEphemeral()) {
+			updateObjectLater(client);
+		}
 	}
 
 
@@ -157,7 +240,32 @@ public abstract class ClientManager extends ObjectManager {
 	 * @methodtype command
 	 */
 	public void saveClients() {
-		updateObjects(idClientMap.values());
+		saveClientsAsync().now();
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	public void saveClients(Collection<? extends Client> clients) {
+		updateObjects(clients);
+	}
+
+	/**
+	 * @methodtype command
+	 *
+	 * Starts writing all dirty clients in batches; call now() on the result to wait for the writes to complete.
+	 */
+	public WriteResult saveClientsAsync() {
+		return updateObjectsAsync(idClientMap.values());
+	}
+
+	/**
+	 * @methodtype command
+	 *
+	 * Starts writing the dirty ones of the clients; call now() on the result to wait for the writes to complete.
+	 */
+	public WriteResult saveClientsAsync(Collection<? extends Client> clients) {
+		return updateObjectsAsync(clients);
 	}
 
 
@@ -167,21 +275,21 @@ public abstract class ClientManager extends ObjectManager {
 	 * @methodtype get
 	 */
 	public Long getLastClientId() {
-		return lastClientId;
+		return lastClientId.get();
 	}
 
 	/**
 	 * @methodtype set
 	 */
-	public synchronized void setLastClientId(Long newId) {
-		lastClientId = newId;
+	public void setLastClientId(Long newId) {
+		lastClientId.set(newId);
 	}
 
 	/**
 	 * @methodtype get
 	 */
-	public synchronized Long getNextClientId() {
-		return ++lastClientId;
+	public Long getNextClientId() {
+		return lastClientId.incrementAndGet();
 	}
 
 
@@ -191,6 +299,11 @@ public abstract class ClientManager extends ObjectManager {
 	 * @methodtype set
 	 */
 	public void removeClient(Client client) {
+		if (client.isEphemeral()) {
+			GuestStore.getInstance().remove(client.getId());
+			return;
+		}
+
 		saveClient(client);
 		idClientMap.remove(client.getId());
 	}
@@ -201,7 +314,13 @@ public abstract class ClientManager extends ObjectManager {
 	 */
 	public void deleteClient(Client client) {
 		assertIsNonNullArgument(client);
-		assert idClientMap.containsValue(client);
+		if (client.isEphemeral()) {
+			client.removeHttpSessionId();
+			GuestStore.getInstance().remove(client.getId());
+			return;
+		}
+
+		assert idClientMap.get(client.getId()) == client;
 
 		removeHttpSessionIdToClientMapping(client.getHttpSessionId());
 		doDeleteClient(client);
@@ -213,10 +332,14 @@ public abstract class ClientManager extends ObjectManager {
 	 * @methodtype set
 	 */
 	private void removeHttpSessionIdToClientMapping(String httpSessionId) {
-		Client client = httpSessionIdToClientMap.get(httpSessionId);
-		client.removeHttpSessionId();
+		if (httpSessionId == null) {
+			return;
+		}
 
-		httpSessionIdToClientMap.remove(httpSessionId);
+		Client client = httpSessionIdToClientMap.remove(httpSessionId);
+		if (client != null) {
+			client.removeHttpSessionId();
+		}
 	}
 
 	/**
@@ -225,6 +348,7 @@ public abstract class ClientManager extends ObjectManager {
 	 */
 	protected void doDeleteClient(Client client) {
 		idClientMap.remove(client.getId());
+		releaseNickname(client.getNickName());
 		deleteObject(client);
 	}
 
@@ -243,9 +367,16 @@ public abstract class ClientManager extends ObjectManager {
 	 * @methodtype set
 	 */
 	public void changeNickname(String oldNickName, String newNickName) throws IllegalArgumentException {
-		assertNicknameIsNotUsed(newNickName);
+		claimNickname(newNickName);
+		releaseNickname(oldNickName);
+	}
 
-		listOfUsedNicknames.remove(oldNickName);
-		listOfUsedNicknames.add(newNickName);
+	/**
+	 * @methodtype command
+	 *
+	 * Called when something shown about a client changed, e.g. its nickname; tells the change listeners.
+	 */
+	public void clientChanged(Client client) {
+		fireObjectChanged(client);
 	}
 }
@@ -50,4 +50,27 @@ public class Guest extends Client {
 		String userId = GUEST_PREFIX + UserManager.getInstance().getNextClientId();
 		initialize(userId, userId, EmailAddress.EMPTY, AccessRights.GUEST, previousClient);
 	}
+
+	/**
+	 * Creates the guest again under its ID, e.g. after it was dropped from the GuestStore while its session lived on.
+	 */
+	protected Guest(String userId) {
+		assert isGuestId(userId);
+		initialize(userId, userId, EmailAddress.EMPTY, AccessRights.GUEST, null);
+	}
+
+	/**
+	 * @methodtype boolean-query
+	 */
+	public static boolean isGuestId(String id) {
+		return (id != null) && id.startsWith(GUEST_PREFIX);
+	}
+
+	/**
+	 * Guests are not persisted, see GuestStore.
+	 */
+	@Override
+	public boolean isEphemeral() {
+		return true;
+	}
 }
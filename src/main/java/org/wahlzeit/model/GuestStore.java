@@ -0,0 +1,194 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.model;
+
+import org.wahlzeit.services.LogBuilder;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A GuestStore holds the guests of current sessions in memory only; guests are never written to the datastore. It is
+ * bounded by the number of guests and drops guests that have not been used for maxIdleTime ms, least recently used
+ * ones first. A guest worth keeping is materialized by logging in, which creates a persistent user from it.
+ */
+public class GuestStore {
+
+	private static final Logger log = Logger.getLogger(GuestStore.class.getName());
+
+	/**
+	 * System properties to configure the maximum number of guests and their idle time, see appengine-web.xml
+	 */
+	public static final String MAX_SIZE_PROPERTY = "org.wahlzeit.guestStore.maxSize";
+	public static final String MAX_IDLE_TIME_PROPERTY = "org.wahlzeit.guestStore.maxIdleTime";
+
+	/**
+	 *
+	 */
+	public static final int DEFAULT_MAX_SIZE = 10000;
+	public static final long DEFAULT_MAX_IDLE_TIME = 3 * 60 * 60 * 1000; // = 3 h, the session timeout
+
+	/**
+	 *
+	 */
+	protected static final GuestStore instance = new GuestStore(
+			Integer.getInteger(MAX_SIZE_PROPERTY, DEFAULT_MAX_SIZE),
+			Long.getLong(MAX_IDLE_TIME_PROPERTY, DEFAULT_MAX_IDLE_TIME));
+
+	/**
+	 * Access-ordered, so iteration starts with the least recently used guest; guarded by itself
+	 */
+	protected final Map<String, Entry> guests = new LinkedHashMap<String, Entry>(64, 0.75f, true);
+
+	/**
+	 *
+	 */
+	protected final int maxSize;
+	protected final long maxIdleTime;
+
+	/**
+	 *
+	 */
+	public GuestStore(int myMaxSize, long myMaxIdleTime) {
+		maxSize = Math.max(1, myMaxSize);
+		maxIdleTime = myMaxIdleTime;
+	}
+
+	/**
+	 *
+	 */
+	public static GuestStore getInstance() {
+		return instance;
+	}
+
+	/**
+	 * @methodtype get
+	 *
+	 * Returns the guest, or null if it is unknown or has expired.
+	 */
+	public Client get(String id) {
+		long now = System.currentTimeMillis();
+		synchronized (guests) {
+			Entry entry = guests.get(id);
+			if (entry == null) {
+				return null;
+			}
+
+			if (entry.isExpired(now, maxIdleTime)) {
+				guests.remove(id);
+				return null;
+			}
+
+			entry.lastAccessTime = now;
+			return entry.guest;
+		}
+	}
+
+	/**
+	 * @methodtype command
+	 *
+	 * Adds the guest, unless one with the same ID is known; returns the guest now known by that ID.
+	 */
+	public Client add(Client guest) {
+		long now = System.currentTimeMillis();
+		synchronized (guests) {
+			Entry entry = guests.get(guest.getId());
+			if ((entry != null) && !entry.isExpired(now, maxIdleTime)) {
+				entry.lastAccessTime = now;
+				return entry.guest;
+			}
+
+			guests.put(guest.getId(), new Entry(guest, now));
+			doEvict(now);
+		}
+
+		return guest;
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	public void remove(String id) {
+		synchronized (guests) {
+			guests.remove(id);
+		}
+	}
+
+	/**
+	 * @methodtype command
+	 * @methodproperty primitive
+	 *
+	 * Drops expired guests and, while the store is too large, the least recently used ones; caller must hold the lock.
+	 */
+	protected void doEvict(long now) {
+		int noEvicted = 0;
+		Iterator<Entry> i = guests.values().iterator();
+		while (i.hasNext()) {
+			Entry eldest = i.next();
+			if ((guests.size() <= maxSize) && !eldest.isExpired(now, maxIdleTime)) {
+				break;
+			}
+			i.remove();
+			noEvicted++;
+		}
+
+		if (noEvicted > 0) {
+			LogBuilder.createSystemMessage(log, Level.CONFIG).addParameter("Dropped number of guests", noEvicted).log();
+		}
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public int getSize() {
+		synchronized (guests) {
+			return guests.size();
+		}
+	}
+
+	/**
+	 * A guest with the time it was last used
+	 */
+	protected static class Entry {
+
+		protected final Client guest;
+		protected long lastAccessTime;
+
+		/**
+		 *
+		 */
+		protected Entry(Client myGuest, long myLastAccessTime) {
+			guest = myGuest;
+			lastAccessTime = myLastAccessTime;
+		}
+
+		/**
+		 * @methodtype boolean-query
+		 */
+		protected boolean isExpired(long now, long maxIdleTime) {
+			return (now - lastAccessTime) > maxIdleTime;
+		}
+	}
+
+}
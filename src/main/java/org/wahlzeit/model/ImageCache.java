@@ -0,0 +1,304 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.model;
+
+import com.google.appengine.api.images.Image;
+import org.wahlzeit.services.LogBuilder;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * An ImageCache holds the scaled images of photos in memory. It is bounded by the number of image bytes it holds
+ * (its weight) and evicts the least recently used images first. Photo (meta) data is not affected by evictions, it
+ * stays with the PhotoManager.
+ */
+public class ImageCache {
+
+	private static final Logger log = Logger.getLogger(ImageCache.class.getName());
+
+	/**
+	 * System property to configure the maximum weight in bytes, see appengine-web.xml
+	 */
+	public static final String MAX_WEIGHT_PROPERTY = "org.wahlzeit.imageCache.maxWeight";
+
+	/**
+	 *
+	 */
+	public static final long DEFAULT_MAX_WEIGHT = 32 * 1024 * 1024; // = 32 MB
+
+	/**
+	 *
+	 */
+	protected static final ImageCache instance = new ImageCache(Long.getLong(MAX_WEIGHT_PROPERTY, DEFAULT_MAX_WEIGHT));
+
+	/**
+	 * Access-ordered, so iteration starts with the least recently used image; guarded by itself
+	 */
+	protected final Map<ImageKey, Image> images = new LinkedHashMap<ImageKey, Image>(64, 0.75f, true);
+
+	/**
+	 *
+	 */
+	protected long maxWeight;
+	protected long weight = 0;
+
+	/**
+	 *
+	 */
+	protected final AtomicLong hitCount = new AtomicLong();
+	protected final AtomicLong missCount = new AtomicLong();
+	protected final AtomicLong evictionCount = new AtomicLong();
+
+	/**
+	 *
+	 */
+	public ImageCache(long myMaxWeight) {
+		assertIsValidMaxWeight(myMaxWeight);
+		maxWeight = myMaxWeight;
+	}
+
+	/**
+	 *
+	 */
+	public static ImageCache getInstance() {
+		return instance;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public Image get(PhotoId photoId, PhotoSize photoSize) {
+		Image result;
+		synchronized (images) {
+			result = images.get(new ImageKey(photoId, photoSize));
+		}
+
+		if (result != null) {
+			hitCount.incrementAndGet();
+		} else {
+			missCount.incrementAndGet();
+		}
+
+		return result;
+	}
+
+	/**
+	 * @methodtype command
+	 *
+	 * Images that are heavier than the whole cache are not cached at all; an image cached before for the photo and size
+	 * is removed then, so it is not served in place of the new one.
+	 */
+	public void put(PhotoId photoId, PhotoSize photoSize, Image image) {
+		assertIsNonNullImage(image);
+
+		long imageWeight = getWeight(image);
+		if (imageWeight > maxWeight) {
+			synchronized (images) {
+				Image previous = images.remove(new ImageKey(photoId, photoSize));
+				if (previous != null) {
+					weight -= getWeight(previous);
+				}
+			}
+			LogBuilder.createSystemMessage(log, Level.CONFIG).
+					addParameter("Image too heavy to cache", photoId.asString()).
+					addParameter("size", photoSize.asString()).log();
+			return;
+		}
+
+		synchronized (images) {
+			Image previous = images.put(new ImageKey(photoId, photoSize), image);
+			if (previous != null) {
+				weight -= getWeight(previous);
+			}
+			weight += imageWeight;
+			doEvict();
+		}
+	}
+
+	/**
+	 * @methodtype command
+	 *
+	 * Removes all sizes of the photo from the cache.
+	 */
+	public void remove(PhotoId photoId) {
+		synchronized (images) {
+			for (PhotoSize photoSize : PhotoSize.values()) {
+				Image previous = images.remove(new ImageKey(photoId, photoSize));
+				if (previous != null) {
+					weight -= getWeight(previous);
+				}
+			}
+		}
+	}
+
+	/**
+	 * @methodtype command
+	 * @methodproperty primitive
+	 *
+	 * Evicts least recently used images until the cache is within its maximum weight; caller must hold the lock.
+	 */
+	protected void doEvict() {
+		Iterator<Map.Entry<ImageKey, Image>> i = images.entrySet().iterator();
+		while ((weight > maxWeight) && i.hasNext()) {
+			Map.Entry<ImageKey, Image> eldest = i.next();
+			weight -= getWeight(eldest.getValue());
+			i.remove();
+			evictionCount.incrementAndGet();
+		}
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	protected static long getWeight(Image image) {
+		byte[] imageData = image.getImageData();
+		return (imageData != null) ? imageData.length : 0;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public long getMaxWeight() {
+		synchronized (images) {
+			return maxWeight;
+		}
+	}
+
+	/**
+	 * @methodtype set
+	 */
+	public void setMaxWeight(long newMaxWeight) {
+		assertIsValidMaxWeight(newMaxWeight);
+		synchronized (images) {
+			maxWeight = newMaxWeight;
+			doEvict();
+		}
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public long getWeight() {
+		synchronized (images) {
+			return weight;
+		}
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public int getSize() {
+		synchronized (images) {
+			return images.size();
+		}
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public long getHitCount() {
+		return hitCount.get();
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public long getMissCount() {
+		return missCount.get();
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public long getEvictionCount() {
+		return evictionCount.get();
+	}
+
+	/**
+	 * @methodtype conversion
+	 */
+	public String asString() {
+		return "images: " + getSize() + ", weight: " + getWeight() + "/" + getMaxWeight() +
+				", hits: " + getHitCount() + ", misses: " + getMissCount() + ", evictions: " + getEvictionCount();
+	}
+
+	/**
+	 * @methodtype assertion
+	 */
+	protected static void assertIsValidMaxWeight(long maxWeight) {
+		if (maxWeight < 0) {
+			throw new IllegalArgumentException("maximum weight must not be negative: " + maxWeight);
+		}
+	}
+
+	/**
+	 * @methodtype assertion
+	 */
+	protected static void assertIsNonNullImage(Image image) {
+		if (image == null) {
+			throw new IllegalArgumentException("Image = null!");
+		}
+	}
+
+	/**
+	 * Key of one image in the cache, made of the photo id and the photo size.
+	 */
+	protected static class ImageKey {
+
+		protected final int photoId;
+		protected final int photoSize;
+
+		/**
+		 *
+		 */
+		protected ImageKey(PhotoId myPhotoId, PhotoSize myPhotoSize) {
+			photoId = myPhotoId.asInt();
+			photoSize = myPhotoSize.asInt();
+		}
+
+		/**
+		 *
+		 */
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof ImageKey)) {
+				return false;
+			}
+
+			ImageKey other = (ImageKey) o;
+			return (other.photoId == photoId) && (other.photoSize == photoSize);
+		}
+
+		/**
+		 *
+		 */
+		@Override
+		public int hashCode() {
+			return photoId * 8 + photoSize;
+		}
+	}
+
+}
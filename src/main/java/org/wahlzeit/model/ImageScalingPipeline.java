@@ -0,0 +1,182 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.model;
+
+import com.google.appengine.api.ThreadManager;
+import com.google.appengine.api.images.Image;
+import com.google.apphosting.api.ApiProxy;
+import org.wahlzeit.model.processing.ImageProcessor;
+import org.wahlzeit.services.LogBuilder;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * An ImageScalingPipeline scales a source image to all photo sizes it is large enough for. Instead of scaling each
+ * size from the (large) source, a size is scaled from the size two steps larger, if there is one. This makes two
+ * cascades, e.g. EXTRA_LARGE - MEDIUM - EXTRA_SMALL and LARGE - SMALL - THUMB, which run in parallel, while each step
+ * still shrinks by a factor of two or more for good quality.
+ */
+public class ImageScalingPipeline {
+
+	private static final Logger log = Logger.getLogger(ImageScalingPipeline.class.getName());
+
+	/**
+	 * System property to configure the number of threads scaling the images of one photo, see appengine-web.xml
+	 */
+	public static final String NO_THREADS_PROPERTY = "org.wahlzeit.imageScalingPipeline.noThreads";
+
+	/**
+	 *
+	 */
+	public static final int DEFAULT_NO_THREADS = 2;
+
+	/**
+	 * Number of larger sizes to skip when choosing the image a size is scaled from
+	 */
+	protected static final int CASCADE_STEP = 2;
+
+	/**
+	 *
+	 */
+	protected final ImageProcessor imageProcessor;
+	protected final int noThreads;
+
+	/**
+	 *
+	 */
+	public ImageScalingPipeline() {
+		this(ImageProcessor.getInstance(), Integer.getInteger(NO_THREADS_PROPERTY, DEFAULT_NO_THREADS));
+	}
+
+	/**
+	 *
+	 */
+	public ImageScalingPipeline(ImageProcessor myImageProcessor, int myNoThreads) {
+		imageProcessor = myImageProcessor;
+		noThreads = Math.max(1, myNoThreads);
+	}
+
+	/**
+	 * @methodtype command
+	 *
+	 * Returns the scaled images for all sizes that fit into the source. The source is not modified.
+	 */
+	public Map<PhotoSize, Image> scale(final Image source) throws Exception {
+		final int sourceWidth = source.getWidth();
+		final int sourceHeight = source.getHeight();
+
+		// largest sizes first, so each size is submitted after the size it is scaled from
+		List<PhotoSize> sizes = new ArrayList<PhotoSize>();
+		PhotoSize[] allSizes = PhotoSize.values();
+		for (int i = allSizes.length - 1; i >= 0; i--) {
+			if (!allSizes[i].isWiderAndHigher(sourceWidth, sourceHeight)) {
+				sizes.add(allSizes[i]);
+			}
+		}
+
+		Map<PhotoSize, Image> result = new EnumMap<PhotoSize, Image>(PhotoSize.class);
+		if (sizes.isEmpty()) {
+			return result;
+		}
+
+		long startTime = System.currentTimeMillis();
+		ExecutorService executor = Executors.newFixedThreadPool(Math.min(noThreads, sizes.size()), getThreadFactory());
+		try {
+			Map<PhotoSize, Future<Image>> futures = new EnumMap<PhotoSize, Future<Image>>(PhotoSize.class);
+			for (int i = 0; i < sizes.size(); i++) {
+				final PhotoSize size = sizes.get(i);
+				final Future<Image> parent = (i >= CASCADE_STEP) ? futures.get(sizes.get(i - CASCADE_STEP)) : null;
+				futures.put(size, executor.submit(new Callable<Image>() {
+					@Override
+					public Image call() throws Exception {
+						Image parentImage = (parent != null) ? parent.get() : source;
+						return scaleImage(parentImage, size, sourceWidth, sourceHeight);
+					}
+				}));
+			}
+
+			for (Map.Entry<PhotoSize, Future<Image>> future : futures.entrySet()) {
+				result.put(future.getKey(), getResult(future.getValue()));
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+
+		LogBuilder.createSystemMessage(log, Level.CONFIG).
+				addParameter("Scaled image to number of sizes", result.size()).
+				addParameter("time in ms", String.valueOf(System.currentTimeMillis() - startTime)).log();
+		return result;
+	}
+
+	/**
+	 * @methodtype factory
+	 *
+	 * Scales the image to the size the source would have in the photo size.
+	 */
+	protected Image scaleImage(Image parent, PhotoSize size, int sourceWidth, int sourceHeight) throws IOException {
+		int targetWidth = size.calcAdjustedWidth(sourceWidth, sourceHeight);
+		int targetHeight = size.calcAdjustedHeight(sourceWidth, sourceHeight);
+		Image result = imageProcessor.resize(parent, targetWidth, targetHeight);
+
+		LogBuilder.createSystemMessage(log, Level.CONFIG).addParameter("Scaled image to size", size.asString()).log();
+		return result;
+	}
+
+	/**
+	 * @methodtype helper
+	 */
+	protected Image getResult(Future<Image> future) throws Exception {
+		try {
+			return future.get();
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof Exception) {
+				throw (Exception) e.getCause();
+			}
+			throw e;
+		}
+	}
+
+	/**
+	 * @methodtype get
+	 *
+	 * Scaling runs within the upload request, so on Google App Engine its threads are bound to that request.
+	 */
+	protected ThreadFactory getThreadFactory() {
+		if (ApiProxy.getCurrentEnvironment() != null) {
+			return ThreadManager.currentRequestThreadFactory();
+		} else {
+			return Executors.defaultThreadFactory();
+		}
+	}
+
+}
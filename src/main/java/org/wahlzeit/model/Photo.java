@@ -20,12 +20,12 @@
 
 package org.wahlzeit.model;
 
-import com.google.api.client.util.ArrayMap;
 import com.google.appengine.api.datastore.Key;
 import com.google.appengine.api.images.Image;
 import com.googlecode.objectify.annotation.Entity;
 import com.googlecode.objectify.annotation.Id;
 import com.googlecode.objectify.annotation.Ignore;
+import com.googlecode.objectify.annotation.Index;
 import com.googlecode.objectify.annotation.Parent;
 import com.googlecode.objectify.annotation.Serialize;
 import org.wahlzeit.services.DataObject;
@@ -33,6 +33,8 @@ import org.wahlzeit.services.EmailAddress;
 import org.wahlzeit.services.Language;
 import org.wahlzeit.services.ObjectManager;
 
+import java.util.Collections;
+import java.util.EnumMap;
 import java.util.Map;
 
 /**
@@ -60,6 +62,11 @@ public class Photo extends DataObject {
 	public static final String IS_INVISIBLE = "isInvisible";
 	public static final String UPLOADED_ON = "uploadedOn";
 
+	/**
+	 * Datastore property of the photo id, indexed to load single photos, see PhotoFactory.loadPhoto()
+	 */
+	public static final String ID_VALUE = "id.value";
+
 	/**
 	 *
 	 */
@@ -68,6 +75,7 @@ public class Photo extends DataObject {
 	public static final int MAX_THUMB_PHOTO_WIDTH = 105;
 	public static final int MAX_THUMB_PHOTO_HEIGHT = 150;
 
+	@Index
 	protected PhotoId id = null;
 
 	/**
@@ -84,9 +92,11 @@ public class Photo extends DataObject {
 	/**
 	 * Each photo can be viewed in different sizes (XS, S, M, L, XL)
 	 * Images are pre-computed in these sizes to optimize bandwidth when requested.
+	 * Only images that have not been persisted yet are held here, all others are kept in the ImageCache.
 	 */
 	@Ignore
-	transient protected Map<PhotoSize, Image> images = new ArrayMap<PhotoSize, Image>();
+	transient protected Map<PhotoSize, Image> images =
+			Collections.synchronizedMap(new EnumMap<PhotoSize, Image>(PhotoSize.class));
 	
 	/**
 	 *
@@ -111,6 +121,11 @@ public class Photo extends DataObject {
 	 *
 	 */
 	protected PhotoStatus status = PhotoStatus.VISIBLE;
+
+	/**
+	 * True while an upload of the photo is still being scaled and stored, see UploadPipeline
+	 */
+	protected boolean isProcessing = false;
 	
 	/**
 	 *
@@ -159,16 +174,43 @@ public class Photo extends DataObject {
 	 * @methodtype get
 	 */
 	public Image getImage(PhotoSize photoSize) {
+		Image result = images.get(photoSize);
+		if ((result == null) && hasPhotoSize(photoSize)) {
+			result = PhotoManager.getInstance().getImage(id, photoSize);
+		}
+		return result;
+	}
+
+	/**
+	 * @methodtype get
+	 *
+	 * Returns the image only if the photo still holds it, i.e. it has not been persisted yet.
+	 */
+	public Image getUnsavedImage(PhotoSize photoSize) {
 		return images.get(photoSize);
 	}
 
 	/**
 	 * @methodtype set
+	 *
+	 * The image is held by the photo until it has been persisted, see {@link #releaseImage(PhotoSize)}.
 	 */
 	public void setImage(PhotoSize photoSize, Image image) {
 		this.images.put(photoSize, image);
 	}
 
+	/**
+	 * @methodtype command
+	 *
+	 * Hands a persisted image over to the ImageCache, so the photo no longer pins it in memory.
+	 */
+	public void releaseImage(PhotoSize photoSize) {
+		Image image = images.remove(photoSize);
+		if (image != null) {
+			ImageCache.getInstance().put(id, photoSize, image);
+		}
+	}
+
 	/**
 	 * @methodtype get
 	 */
@@ -364,6 +406,7 @@ public class Photo extends DataObject {
 		praiseSum += value;
 		noVotes += 1;
 		incWriteCount();
+		PhotoManager.getInstance().photoChanged(this);
 	}
 
 	/**
@@ -373,6 +416,48 @@ public class Photo extends DataObject {
 		return status.isDisplayable();
 	}
 
+	/**
+	 * @methodtype boolean-query
+	 *
+	 * Returns whether the photo may be shown to other users: it is visible and its upload has been processed.
+	 */
+	public boolean isDisplayable() {
+		return isVisible() && !isProcessing;
+	}
+
+	/**
+	 * @methodtype boolean-query
+	 */
+	public boolean isProcessing() {
+		return isProcessing;
+	}
+
+	/**
+	 * @methodtype set
+	 */
+	public void setProcessing(boolean newProcessing) {
+		boolean wasDisplayable = isDisplayable();
+		isProcessing = newProcessing;
+		incWriteCount();
+		if (wasDisplayable != isDisplayable()) {
+			PhotoManager.getInstance().photoVisibilityChanged(this);
+		}
+	}
+
+	/**
+	 * @methodtype set
+	 *
+	 * Takes over that the upload has been processed and stored elsewhere, e.g. by another instance; unlike
+	 * setProcessing(), the photo does not need to be written for it.
+	 */
+	protected void setProcessed() {
+		boolean wasDisplayable = isDisplayable();
+		isProcessing = false;
+		if (wasDisplayable != isDisplayable()) {
+			PhotoManager.getInstance().photoVisibilityChanged(this);
+		}
+	}
+
 	/**
 	 * @methodtype get
 	 */
@@ -384,8 +469,12 @@ public class Photo extends DataObject {
 	 * @methodtype set
 	 */
 	public void setStatus(PhotoStatus newStatus) {
+		boolean wasVisible = isVisible();
 		status = newStatus;
 		incWriteCount();
+		if (wasVisible != isVisible()) {
+			PhotoManager.getInstance().photoVisibilityChanged(this);
+		}
 	}
 
 	/**
@@ -21,7 +21,10 @@
 package org.wahlzeit.model;
 
 import org.wahlzeit.services.LogBuilder;
+import org.wahlzeit.services.ObjectManager;
+import org.wahlzeit.services.OfyService;
 
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
@@ -54,7 +57,7 @@ public class PhotoFactory {
 	 */
 	public static synchronized PhotoFactory getInstance() {
 		if (instance == null) {
-			log.config(LogBuilder.createSystemMessage().addAction("setting generic PhotoFactory").toString());
+			LogBuilder.createSystemMessage(log, Level.CONFIG).addAction("setting generic PhotoFactory").log();
 			setInstance(new PhotoFactory());
 		}
 
@@ -87,19 +90,12 @@ public class PhotoFactory {
 	}
 
 	/**
-	 * Loads a photo. The Java object is loaded from the Google Datastore, the Images in all sizes are loaded from the
-	 * Google Cloud storage.
+	 * Loads a photo from the Google Datastore, or returns null if there is none with that id. The query is an ancestor
+	 * query, so it sees the latest write. The images are loaded on demand, see PhotoManager.getImage().
 	 */
 	public Photo loadPhoto(PhotoId id) {
-	   /* Photo result =
-                OfyService.ofy().load().type(Photo.class).ancestor(KeyFactory.createKey("Application", "Wahlzeit")).filter(Photo.ID, id).first().now();
-        for (PhotoSize size : PhotoSize.values()) {
-            GcsFilename gcsFilename = new GcsFilename("picturebucket", filename);
-
-
-
-        }*/
-		return null;
+		return OfyService.ofy().load().type(Photo.class).ancestor(ObjectManager.applicationRootKey).
+				filter(Photo.ID_VALUE, id.asInt()).first().now();
 	}
 
 
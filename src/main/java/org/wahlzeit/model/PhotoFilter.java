@@ -22,23 +22,41 @@ package org.wahlzeit.model;
 
 import org.wahlzeit.services.LogBuilder;
 import org.wahlzeit.utils.StringUtil;
+import org.wahlzeit.utils.VarIntUtil;
 
+import java.io.IOException;
+import java.io.InvalidClassException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
 import java.util.ArrayList;
-import java.util.Collection;
-import java.util.LinkedList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Random;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
  * A class to specify a photo filter.
  * A photo filter captures selection ("filtering") criteria for photos.
+ *
+ * A photo filter is stored with its session, so it is serialized in a compact form of its own, see writeObject().
  */
 public class PhotoFilter implements Serializable {
 
 	private static Logger log = Logger.getLogger(PhotoFilter.class.getName());
 
+	/**
+	 *
+	 */
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * Version of the serialized form, written first so later versions can still read it
+	 */
+	protected static final int FORMAT_VERSION = 2;
+
 	/**
 	 *
 	 */
@@ -48,20 +66,28 @@ public class PhotoFilter implements Serializable {
 	/**
 	 *
 	 */
-	protected String userName = "";
-	protected Tags tags = Tags.EMPTY_TAGS;
+	protected transient String userName = "";
+	protected transient Tags tags = Tags.EMPTY_TAGS;
 
 	/**
 	 *
 	 */
-	protected List<PhotoId> displayablePhotoIds;
-	protected List<PhotoId> processedPhotoIds = new LinkedList<PhotoId>();
-	protected List<PhotoId> skippedPhotoIds = new LinkedList<PhotoId>();
+	protected transient List<PhotoId> displayablePhotoIds;
+	protected transient Map<PhotoId, Integer> displayablePositions;
+	protected transient boolean isDisplayableValid = false;
+	protected transient int displayableVersion = 0;
+	protected transient PhotoIdSet processedPhotoIds = new PhotoIdSet();
+	protected transient PhotoIdSet skippedPhotoIds = new PhotoIdSet();
+
+	/**
+	 * Counts changes, so a SessionState can tell whether the filter needs to be stored again
+	 */
+	protected transient int modificationCount = 0;
 
 	/**
 	 *
 	 */
-	protected Random randomNumber = new Random(System.currentTimeMillis());
+	protected transient Random randomNumber = new Random(System.currentTimeMillis());
 
 	/**
 	 *
@@ -83,8 +109,9 @@ public class PhotoFilter implements Serializable {
 	public void clear() {
 		setUserName("");
 		setTags(Tags.EMPTY_TAGS);
-		displayablePhotoIds.clear();
+		resetDisplayablePhotoIds();
 		processedPhotoIds.clear();
+		setModified();
 	}
 
 	/**
@@ -93,6 +120,7 @@ public class PhotoFilter implements Serializable {
 	public void setUserName(String newUserName) {
 		userName = newUserName;
 		resetDisplayablePhotoIds();
+		setModified();
 	}
 
 	/**
@@ -108,6 +136,7 @@ public class PhotoFilter implements Serializable {
 	public void setTags(Tags newTags) {
 		tags = newTags;
 		resetDisplayablePhotoIds();
+		setModified();
 	}
 
 	/**
@@ -140,20 +169,41 @@ public class PhotoFilter implements Serializable {
 	 * @methodtype command
 	 */
 	public void generateDisplayablePhotoIds() {
-		displayablePhotoIds = getFilteredPhotoIds();
+		int version = PhotoManager.getInstance().getDisplayableVersion();
+		setDisplayablePhotoIds(getFilteredPhotoIds());
+		displayableVersion = version;
+		isDisplayableValid = true;
+		setModified();
 	}
 
 	/**
-	 * Get a random photo that has not been rated. If possible avoid skipped photos.
+	 * @methodtype command
+	 *
+	 * Regenerates the displayable photo ids only if the filter or the visibility of photos changed since the last time,
+	 * or if all of them have been used up.
+	 */
+	public void updateDisplayablePhotoIds() {
+		if (!isDisplayableValid || (displayableVersion != PhotoManager.getInstance().getDisplayableVersion())) {
+			generateDisplayablePhotoIds();
+		}
+	}
+
+	/**
+	 * Get a random photo that has not been rated. If possible avoid skipped photos. Photos that are no longer
+	 * displayable are dropped from the displayable photo ids as they are drawn.
 	 */
 	public PhotoId getRandomDisplayablePhotoId() {
-		if (!displayablePhotoIds.isEmpty()) {
-			int size = displayablePhotoIds.size();
-			int index = ((randomNumber.nextInt() % size) + size) / 2;
-			return displayablePhotoIds.get(index);
-		} else {
-			return PhotoId.NULL_ID;
+		while (!displayablePhotoIds.isEmpty()) {
+			int index = randomNumber.nextInt(displayablePhotoIds.size());
+			PhotoId result = displayablePhotoIds.get(index);
+			Photo photo = PhotoManager.getInstance().getPhoto(result);
+			if ((photo != null) && photo.isDisplayable()) {
+				return result;
+			}
+			removeDisplayablePhotoId(result);
 		}
+
+		return PhotoId.NULL_ID;
 	}
 
 	/**
@@ -167,7 +217,11 @@ public class PhotoFilter implements Serializable {
 	 *
 	 */
 	public void setDisplayablePhotoIds(List<PhotoId> newPhotoIds) {
-		displayablePhotoIds = newPhotoIds;
+		displayablePhotoIds = new ArrayList<PhotoId>(newPhotoIds);
+		displayablePositions = new HashMap<PhotoId, Integer>();
+		for (int i = 0; i < displayablePhotoIds.size(); i++) {
+			displayablePositions.put(displayablePhotoIds.get(i), i);
+		}
 	}
 
 	/**
@@ -175,12 +229,38 @@ public class PhotoFilter implements Serializable {
 	 */
 	public void resetDisplayablePhotoIds() {
 		displayablePhotoIds = new ArrayList<PhotoId>();
+		displayablePositions = new HashMap<PhotoId, Integer>();
+		isDisplayableValid = false;
 	}
 
 	/**
+	 * @methodtype command
 	 *
+	 * Removes the photo id in constant time by moving the last displayable photo id into its place.
 	 */
-	public List<PhotoId> getProcessedPhotoIds() {
+	protected void removeDisplayablePhotoId(PhotoId photoId) {
+		Integer index = displayablePositions.remove(photoId);
+		if (index == null) {
+			return;
+		}
+
+		int lastIndex = displayablePhotoIds.size() - 1;
+		PhotoId last = displayablePhotoIds.remove(lastIndex);
+		if (index != lastIndex) {
+			displayablePhotoIds.set(index, last);
+			displayablePositions.put(last, index);
+		}
+
+		if (displayablePhotoIds.isEmpty()) {
+			isDisplayableValid = false;
+		}
+		setModified();
+	}
+
+	/**
+	 *
+	 */
+	public PhotoIdSet getProcessedPhotoIds() {
 		return processedPhotoIds;
 	}
 
@@ -188,10 +268,6 @@ public class PhotoFilter implements Serializable {
 	 *
 	 */
 	public boolean isProcessedPhotoId(PhotoId photoId) {
-		log.info("photoId: " + photoId.asString());
-		for (PhotoId id : processedPhotoIds) {
-			log.info("Processed id: " + id.asString());
-		}
 		return processedPhotoIds.contains(photoId);
 	}
 
@@ -202,33 +278,47 @@ public class PhotoFilter implements Serializable {
 		PhotoId photoId = photo.getId();
 		processedPhotoIds.add(photoId);
 		skippedPhotoIds.remove(photoId);
-		if (displayablePhotoIds != null) {
-			displayablePhotoIds.remove(photoId);
-		}
+		removeDisplayablePhotoId(photoId);
+		setModified();
 	}
 
 
 	/**
 	 * @methodtype get
 	 */
-	public List<PhotoId> getSkippedPhotoIds() {
+	public PhotoIdSet getSkippedPhotoIds() {
 		return skippedPhotoIds;
 	}
 
 	/**
 	 * @methodtype set
 	 */
-	public void setSkippedPhotoIds(List<PhotoId> skippedPhotoIds) {
+	public void setSkippedPhotoIds(PhotoIdSet skippedPhotoIds) {
 		this.skippedPhotoIds = skippedPhotoIds;
+		setModified();
 	}
 
 	/**
 	 * @methodtype set
 	 */
 	public void addSkippedPhotoId(PhotoId skippedPhotoId) {
-		if (!skippedPhotoIds.contains(skippedPhotoId)) {
-			skippedPhotoIds.add(skippedPhotoId);
-		}
+		skippedPhotoIds.add(skippedPhotoId);
+		removeDisplayablePhotoId(skippedPhotoId);
+		setModified();
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public int getModificationCount() {
+		return modificationCount;
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	protected void setModified() {
+		modificationCount++;
 	}
 
 	/**
@@ -236,44 +326,98 @@ public class PhotoFilter implements Serializable {
 	 */
 	protected List<PhotoId> getFilteredPhotoIds() {
 		// get all tags that match the filter conditions
-		List<PhotoId> result = new LinkedList<PhotoId>();
+		List<PhotoId> result = new ArrayList<PhotoId>();
 		int noFilterConditions = getFilterConditions().size();
-		log.config(LogBuilder.createSystemMessage().
-				addParameter("Number of filter conditions", String.valueOf(noFilterConditions)).toString());
+		LogBuilder.createSystemMessage(log, Level.CONFIG).
+				addParameter("Number of filter conditions", String.valueOf(noFilterConditions)).log();
 
-		Collection<PhotoId> candidates;
+		PhotoIdSet candidates = new PhotoIdSet();
 		if (noFilterConditions == 0) {
-			candidates = PhotoManager.getInstance().getPhotoCache().keySet();
-		} else {
-			List<Tag> tags = new LinkedList<Tag>();
-			candidates = new LinkedList<PhotoId>();
-			for (String condition : getFilterConditions()) {
-				PhotoManager.getInstance().addTagsThatMatchCondition(tags, condition);
-			}
-			// get the list of all photo ids that correspond to the tags
-			for (Tag tag : tags) {
-				candidates.add(PhotoId.getIdFromString(tag.getPhotoId()));
+			for (PhotoId photoId : PhotoManager.getInstance().getPhotoCache().keySet()) {
+				candidates.add(photoId);
 			}
+		} else {
+			// get the ids of all photos that match any condition from the in-memory tag index
+			candidates = new PhotoIdSet(PhotoManager.getInstance().getPhotoIdsThatMatchAnyCondition(getFilterConditions()));
 		}
 
 		int newPhotos = 0;
-		for (PhotoId candidateId : candidates) {
-			Photo photoCandidate = PhotoManager.getInstance().getPhoto(candidateId);
-			if (!processedPhotoIds.contains(candidateId) && !skippedPhotoIds.contains(candidateId) &&
-					photoCandidate.isVisible()) {
-				result.add(candidateId);
+		for (int candidateId : candidates.andNot(processedPhotoIds).andNot(skippedPhotoIds).asArray()) {
+			PhotoId photoId = PhotoId.getIdFromInt(candidateId);
+			Photo photoCandidate = PhotoManager.getInstance().getPhoto(photoId);
+			if (photoCandidate.isDisplayable()) {
+				result.add(photoId);
 				++newPhotos;
 			}
 		}
 		int skippedPhotos = skippedPhotoIds.size();
 		if (newPhotos == 0 && skippedPhotos > 0) {
-			result.addAll(skippedPhotoIds);
+			for (int skippedId : skippedPhotoIds.asArray()) {
+				result.add(PhotoId.getIdFromInt(skippedId));
+			}
 			newPhotos = skippedPhotos;
 		}
 
-		log.config(LogBuilder.createSystemMessage().addParameter("Number of photos to show", newPhotos)
-				.toString());
+		LogBuilder.createSystemMessage(log, Level.CONFIG).addParameter("Number of photos to show", newPhotos)
+				.log();
 
 		return result;
 	}
+
+	/**
+	 * Writes a format version, the user name, the tags as a table of strings, and the processed and skipped photo ids
+	 * as variable-length gaps between sorted ids, so most ids take one byte. The displayable photo ids are not written:
+	 * the version they were generated for is only known to the instance that generated them, and the session may be
+	 * read by another one, so they are generated again after reading.
+	 */
+	private void writeObject(ObjectOutputStream out) throws IOException {
+		out.defaultWriteObject();
+		VarIntUtil.writeVarInt(out, FORMAT_VERSION);
+
+		out.writeUTF(userName);
+		out.writeChar(tags.getSeparator());
+		String[] tagTable = tags.asArray();
+		VarIntUtil.writeVarInt(out, tagTable.length);
+		for (String tag : tagTable) {
+			out.writeUTF(tag);
+		}
+
+		VarIntUtil.writeDeltas(out, processedPhotoIds.asArray());
+		VarIntUtil.writeDeltas(out, skippedPhotoIds.asArray());
+	}
+
+	/**
+	 * Reads the current format and the previous one, which also holds the displayable photo ids; these are dropped.
+	 */
+	private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+		in.defaultReadObject();
+		int formatVersion = VarIntUtil.readVarInt(in);
+		if ((formatVersion != FORMAT_VERSION) && (formatVersion != 1)) {
+			throw new InvalidClassException(PhotoFilter.class.getName(), "unknown format version " + formatVersion);
+		}
+
+		userName = in.readUTF();
+		char separator = in.readChar();
+		int noTags = VarIntUtil.readVarInt(in);
+		StringBuilder tagString = new StringBuilder();
+		for (int i = 0; i < noTags; i++) {
+			if (i > 0) {
+				tagString.append(separator);
+			}
+			tagString.append(in.readUTF());
+		}
+		tags = (noTags == 0) ? Tags.EMPTY_TAGS : new Tags(tagString.toString(), separator);
+
+		if (formatVersion == 1) {
+			in.readBoolean();
+			VarIntUtil.readVarInt(in);
+			VarIntUtil.readDeltas(in);
+		}
+		resetDisplayablePhotoIds();
+
+		processedPhotoIds = new PhotoIdSet(VarIntUtil.readDeltas(in));
+		skippedPhotoIds = new PhotoIdSet(VarIntUtil.readDeltas(in));
+		randomNumber = new Random(System.currentTimeMillis());
+	}
+
 }
@@ -22,33 +22,55 @@ package org.wahlzeit.model;
 
 import java.io.Serializable;
 import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 /**
  * A photo id identifies a photo with a unique number.
  * The number has an equivalent string for web access. 
- * This class also hands out the ids.
+ * This class also hands out the ids, from an atomic counter, and keeps one PhotoId object per number. These are held
+ * in chunks of CHUNK_SIZE ids that are allocated on first use; both ids and chunks are set by compare-and-set, so
+ * neither handing out nor looking up ids takes a lock.
  */
 public class PhotoId implements Serializable {
 
 	/**
 	 * 0 is never returned from nextValue; first value is 1
 	 */
-	protected static int currentId = 0;
+	protected static final AtomicInteger currentId = new AtomicInteger(0);
 
 	/**
-	 *
+	 * Ids are held in chunks of 2^CHUNK_BITS ids; the directory of chunks covers all non-negative ints
+	 */
+	protected static final int CHUNK_BITS = 15;
+	protected static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+	protected static final int CHUNK_MASK = CHUNK_SIZE - 1;
+	protected static final int NO_CHUNKS = 1 << (31 - CHUNK_BITS);
+
+	/**
+	 * Digits of the string form, indexed by their value
+	 */
+	protected static final char[] DIGITS = "0123456789abcdefghijklmnopqrstuvwxyz".toCharArray();
+
+	/**
+	 * An int has at most 6 digits in base 36, plus the leading "x"
 	 */
-	public static final int BUFFER_SIZE_INCREMENT = 64;
+	protected static final int MAX_STRING_LENGTH = 7;
 
 	/**
 	 *
 	 */
-	public static final PhotoId NULL_ID = new PhotoId(0);
+	protected static final AtomicReferenceArray<AtomicReferenceArray<PhotoId>> chunks =
+			new AtomicReferenceArray<AtomicReferenceArray<PhotoId>>(NO_CHUNKS);
 
 	/**
 	 *
 	 */
-	protected static PhotoId[] ids = new PhotoId[BUFFER_SIZE_INCREMENT];
+	public static final PhotoId NULL_ID = new PhotoId(0);
+
+	static {
+		getChunk(0).set(0, NULL_ID);
+	}
 
 	/**
 	 * What a hack :-)
@@ -68,54 +90,65 @@ public class PhotoId implements Serializable {
 	 *
 	 */
 	public static int getCurrentIdAsInt() {
-		return currentId;
+		return currentId.get();
 	}
 
 	/**
-	 *
+	 * PhotoIds already handed out stay valid, as an id always stands for the same number.
 	 */
-	public static synchronized void setCurrentIdFromInt(int id) {
-		currentId = id;
-		ids = new PhotoId[currentId + BUFFER_SIZE_INCREMENT];
-		ids[0] = NULL_ID;
+	public static void setCurrentIdFromInt(int id) {
+		currentId.set(id);
 	}
 
 	/**
 	 *
 	 */
-	public static synchronized int getNextIdAsInt() {
-		currentId += 1;
-		if (currentId >= ids.length) {
-			PhotoId[] nids = new PhotoId[currentId + BUFFER_SIZE_INCREMENT];
-			System.arraycopy(ids, 0, nids, 0, currentId);
-			ids = nids;
-		}
-		return currentId;
+	public static int getNextIdAsInt() {
+		return currentId.incrementAndGet();
 	}
 
 	/**
 	 *
 	 */
 	public static PhotoId getIdFromInt(int id) {
-		if ((id < 0) || (id > currentId)) {
+		if ((id < 0) || (id > currentId.get())) {
 			return NULL_ID;
 		}
 
-		// @FIXME http://en.wikipedia.org/wiki/Double-checked_locking
-		PhotoId result = ids[id];
+		AtomicReferenceArray<PhotoId> chunk = getChunk(id >>> CHUNK_BITS);
+		int index = id & CHUNK_MASK;
+		PhotoId result = chunk.get(index);
 		if (result == null) {
-			synchronized (ids) {
-				result = ids[id];
-				if (result == null) {
-					result = new PhotoId(id);
-					ids[id] = result;
-				}
+			PhotoId newId = new PhotoId(id);
+			if (chunk.compareAndSet(index, null, newId)) {
+				result = newId;
+			} else {
+				// another thread created the id first
+				result = chunk.get(index);
 			}
 		}
 
 		return result;
 	}
 
+	/**
+	 * @methodtype get
+	 *
+	 * Returns the chunk, allocating it on first use.
+	 */
+	protected static AtomicReferenceArray<PhotoId> getChunk(int chunkNo) {
+		AtomicReferenceArray<PhotoId> result = chunks.get(chunkNo);
+		if (result == null) {
+			AtomicReferenceArray<PhotoId> newChunk = new AtomicReferenceArray<PhotoId>(CHUNK_SIZE);
+			if (chunks.compareAndSet(chunkNo, null, newChunk)) {
+				result = newChunk;
+			} else {
+				result = chunks.get(chunkNo);
+			}
+		}
+		return result;
+	}
+
 	/**
 	 *
 	 */
@@ -208,22 +241,16 @@ public class PhotoId implements Serializable {
 	 *
 	 */
 	public static String getFromInt(int id) {
-		StringBuffer result = new StringBuffer(10);
+		char[] result = new char[MAX_STRING_LENGTH];
+		int start = result.length;
 
 		id += ID_START;
 		for (; id > 0; id = id / 36) {
-			char letterOrDigit;
-			int modulus = id % 36;
-			if (modulus < 10) {
-				letterOrDigit = (char) ((int) '0' + modulus);
-			} else {
-				letterOrDigit = (char) ((int) 'a' - 10 + modulus);
-			}
-			result.insert(0, letterOrDigit);
-
+			result[--start] = DIGITS[id % 36];
 		}
+		result[--start] = 'x';
 
-		return "x" + result.toString();
+		return new String(result, start, result.length - start);
 	}
 
 	/**
@@ -0,0 +1,458 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.model;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * A PhotoIdSet is a compact set of photo ids, keyed by PhotoId.asInt(). Like a roaring bitmap, it splits the ids into
+ * chunks of 2^16 by their upper 16 bits. Each chunk holds its lower 16 bits either as a sorted char array, while
+ * sparse, or as a bitmap, once dense. A PhotoIdSet is not thread-safe.
+ */
+public class PhotoIdSet implements Serializable {
+
+	/**
+	 * Chunks with more ids than this are held as bitmaps, as then a bitmap (8 KB) is smaller than a char array
+	 */
+	protected static final int MAX_ARRAY_CHUNK_SIZE = 4096;
+
+	/**
+	 *
+	 */
+	protected static final int BITMAP_CHUNK_WORDS = 1 << 10;
+
+	/**
+	 *
+	 */
+	protected static final byte ARRAY_CHUNK = 0;
+	protected static final byte BITMAP_CHUNK = 1;
+
+	/**
+	 * Upper 16 bits of the ids of each chunk, sorted
+	 */
+	protected transient char[] keys = new char[0];
+
+	/**
+	 * Either char[] (sorted lower 16 bits) or long[] (bitmap of lower 16 bits) for each key
+	 */
+	protected transient Object[] chunks = new Object[0];
+
+	/**
+	 * Number of ids in each chunk
+	 */
+	protected transient int[] chunkSizes = new int[0];
+
+	/**
+	 *
+	 */
+	protected transient int noChunks = 0;
+
+	/**
+	 *
+	 */
+	public PhotoIdSet() {
+		// do nothing
+	}
+
+	/**
+	 *
+	 */
+	public PhotoIdSet(int[] ids) {
+		for (int id : ids) {
+			add(id);
+		}
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	public boolean add(PhotoId photoId) {
+		return add(photoId.asInt());
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	public boolean add(int id) {
+		char key = (char) (id >>> 16);
+		char low = (char) id;
+
+		int index = Arrays.binarySearch(keys, 0, noChunks, key);
+		if (index < 0) {
+			index = -index - 1;
+			doInsertChunk(index, key);
+		}
+
+		Object chunk = chunks[index];
+		if (chunk instanceof long[]) {
+			long[] bitmap = (long[]) chunk;
+			long bit = 1L << low;
+			if ((bitmap[low >>> 6] & bit) != 0) {
+				return false;
+			}
+			bitmap[low >>> 6] |= bit;
+		} else {
+			char[] values = (char[]) chunk;
+			int size = chunkSizes[index];
+			int position = Arrays.binarySearch(values, 0, size, low);
+			if (position >= 0) {
+				return false;
+			}
+
+			if (size == MAX_ARRAY_CHUNK_SIZE) {
+				long[] bitmap = asBitmap(values, size);
+				bitmap[low >>> 6] |= 1L << low;
+				chunks[index] = bitmap;
+			} else {
+				position = -position - 1;
+				if (size == values.length) {
+					values = Arrays.copyOf(values, Math.min(MAX_ARRAY_CHUNK_SIZE, Math.max(4, size + (size >> 1))));
+					chunks[index] = values;
+				}
+				System.arraycopy(values, position, values, position + 1, size - position);
+				values[position] = low;
+			}
+		}
+
+		chunkSizes[index]++;
+		return true;
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	public boolean remove(PhotoId photoId) {
+		return remove(photoId.asInt());
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	public boolean remove(int id) {
+		char low = (char) id;
+		int index = Arrays.binarySearch(keys, 0, noChunks, (char) (id >>> 16));
+		if (index < 0) {
+			return false;
+		}
+
+		Object chunk = chunks[index];
+		if (chunk instanceof long[]) {
+			long[] bitmap = (long[]) chunk;
+			long bit = 1L << low;
+			if ((bitmap[low >>> 6] & bit) == 0) {
+				return false;
+			}
+			bitmap[low >>> 6] &= ~bit;
+		} else {
+			char[] values = (char[]) chunk;
+			int size = chunkSizes[index];
+			int position = Arrays.binarySearch(values, 0, size, low);
+			if (position < 0) {
+				return false;
+			}
+			System.arraycopy(values, position + 1, values, position, size - position - 1);
+		}
+
+		chunkSizes[index]--;
+		if (chunkSizes[index] == 0) {
+			doRemoveChunk(index);
+		} else if ((chunk instanceof long[]) && (chunkSizes[index] <= MAX_ARRAY_CHUNK_SIZE / 2)) {
+			chunks[index] = asArray((long[]) chunk, chunkSizes[index]);
+		}
+
+		return true;
+	}
+
+	/**
+	 * @methodtype boolean-query
+	 */
+	public boolean contains(PhotoId photoId) {
+		return contains(photoId.asInt());
+	}
+
+	/**
+	 * @methodtype boolean-query
+	 */
+	public boolean contains(int id) {
+		char low = (char) id;
+		int index = Arrays.binarySearch(keys, 0, noChunks, (char) (id >>> 16));
+		if (index < 0) {
+			return false;
+		}
+
+		Object chunk = chunks[index];
+		if (chunk instanceof long[]) {
+			return (((long[]) chunk)[low >>> 6] & (1L << low)) != 0;
+		} else {
+			return Arrays.binarySearch((char[]) chunk, 0, chunkSizes[index], low) >= 0;
+		}
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public int size() {
+		int result = 0;
+		for (int i = 0; i < noChunks; i++) {
+			result += chunkSizes[i];
+		}
+		return result;
+	}
+
+	/**
+	 * @methodtype boolean-query
+	 */
+	public boolean isEmpty() {
+		return noChunks == 0;
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	public void clear() {
+		keys = new char[0];
+		chunks = new Object[0];
+		chunkSizes = new int[0];
+		noChunks = 0;
+	}
+
+	/**
+	 * @methodtype command
+	 *
+	 * Adds all ids of the other set to this one.
+	 */
+	public void addAll(PhotoIdSet other) {
+		for (int id : other.asArray()) {
+			add(id);
+		}
+	}
+
+	/**
+	 * @methodtype get
+	 *
+	 * Returns a new set with the ids of this set that are not in the other set. Bitmap chunks are combined word by word.
+	 */
+	public PhotoIdSet andNot(PhotoIdSet other) {
+		PhotoIdSet result = new PhotoIdSet();
+		for (int i = 0; i < noChunks; i++) {
+			int otherIndex = Arrays.binarySearch(other.keys, 0, other.noChunks, keys[i]);
+			Object otherChunk = (otherIndex >= 0) ? other.chunks[otherIndex] : null;
+
+			if ((chunks[i] instanceof long[]) && (otherChunk instanceof long[])) {
+				long[] bitmap = (long[]) chunks[i];
+				long[] otherBitmap = (long[]) otherChunk;
+				long[] resultBitmap = new long[BITMAP_CHUNK_WORDS];
+				int size = 0;
+				for (int w = 0; w < BITMAP_CHUNK_WORDS; w++) {
+					resultBitmap[w] = bitmap[w] & ~otherBitmap[w];
+					size += Long.bitCount(resultBitmap[w]);
+				}
+				if (size > MAX_ARRAY_CHUNK_SIZE) {
+					result.doAppendChunk(keys[i], resultBitmap, size);
+				} else if (size > 0) {
+					result.doAppendChunk(keys[i], asArray(resultBitmap, size), size);
+				}
+			} else {
+				int base = keys[i] << 16;
+				for (int low : getLowValues(i)) {
+					int id = base | low;
+					if ((otherChunk == null) || !other.contains(id)) {
+						result.add(id);
+					}
+				}
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * @methodtype conversion
+	 *
+	 * Returns all ids of the set in ascending order.
+	 */
+	public int[] asArray() {
+		int[] result = new int[size()];
+		int k = 0;
+		for (int i = 0; i < noChunks; i++) {
+			int base = keys[i] << 16;
+			for (int low : getLowValues(i)) {
+				result[k++] = base | low;
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	protected int[] getLowValues(int index) {
+		int size = chunkSizes[index];
+		int[] result = new int[size];
+		Object chunk = chunks[index];
+		if (chunk instanceof long[]) {
+			long[] bitmap = (long[]) chunk;
+			int k = 0;
+			for (int w = 0; w < BITMAP_CHUNK_WORDS; w++) {
+				long word = bitmap[w];
+				while (word != 0) {
+					result[k++] = (w << 6) + Long.numberOfTrailingZeros(word);
+					word &= word - 1;
+				}
+			}
+		} else {
+			char[] values = (char[]) chunk;
+			for (int i = 0; i < size; i++) {
+				result[i] = values[i];
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * @methodtype command
+	 * @methodproperty primitive
+	 */
+	protected void doInsertChunk(int index, char key) {
+		if (noChunks == keys.length) {
+			int capacity = Math.max(2, noChunks * 2);
+			keys = Arrays.copyOf(keys, capacity);
+			chunks = Arrays.copyOf(chunks, capacity);
+			chunkSizes = Arrays.copyOf(chunkSizes, capacity);
+		}
+
+		System.arraycopy(keys, index, keys, index + 1, noChunks - index);
+		System.arraycopy(chunks, index, chunks, index + 1, noChunks - index);
+		System.arraycopy(chunkSizes, index, chunkSizes, index + 1, noChunks - index);
+		keys[index] = key;
+		chunks[index] = new char[4];
+		chunkSizes[index] = 0;
+		noChunks++;
+	}
+
+	/**
+	 * @methodtype command
+	 * @methodproperty primitive
+	 *
+	 * Appends a chunk whose key is greater than all present keys.
+	 */
+	protected void doAppendChunk(char key, Object chunk, int size) {
+		doInsertChunk(noChunks, key);
+		chunks[noChunks - 1] = chunk;
+		chunkSizes[noChunks - 1] = size;
+	}
+
+	/**
+	 * @methodtype command
+	 * @methodproperty primitive
+	 */
+	protected void doRemoveChunk(int index) {
+		System.arraycopy(keys, index + 1, keys, index, noChunks - index - 1);
+		System.arraycopy(chunks, index + 1, chunks, index, noChunks - index - 1);
+		System.arraycopy(chunkSizes, index + 1, chunkSizes, index, noChunks - index - 1);
+		noChunks--;
+		chunks[noChunks] = null;
+	}
+
+	/**
+	 * @methodtype conversion
+	 */
+	protected static long[] asBitmap(char[] values, int size) {
+		long[] result = new long[BITMAP_CHUNK_WORDS];
+		for (int i = 0; i < size; i++) {
+			result[values[i] >>> 6] |= 1L << values[i];
+		}
+		return result;
+	}
+
+	/**
+	 * @methodtype conversion
+	 */
+	protected static char[] asArray(long[] bitmap, int size) {
+		char[] result = new char[size];
+		int k = 0;
+		for (int w = 0; w < BITMAP_CHUNK_WORDS; w++) {
+			long word = bitmap[w];
+			while (word != 0) {
+				result[k++] = (char) ((w << 6) + Long.numberOfTrailingZeros(word));
+				word &= word - 1;
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Writes the chunks as compact as they are held in memory, e.g. two bytes per id for sparse chunks.
+	 */
+	private void writeObject(ObjectOutputStream out) throws IOException {
+		out.defaultWriteObject();
+		out.writeInt(noChunks);
+		for (int i = 0; i < noChunks; i++) {
+			out.writeChar(keys[i]);
+			out.writeInt(chunkSizes[i]);
+			if (chunks[i] instanceof long[]) {
+				out.writeByte(BITMAP_CHUNK);
+				for (long word : (long[]) chunks[i]) {
+					out.writeLong(word);
+				}
+			} else {
+				out.writeByte(ARRAY_CHUNK);
+				char[] values = (char[]) chunks[i];
+				for (int j = 0; j < chunkSizes[i]; j++) {
+					out.writeChar(values[j]);
+				}
+			}
+		}
+	}
+
+	/**
+	 *
+	 */
+	private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+		in.defaultReadObject();
+		int size = in.readInt();
+		keys = new char[size];
+		chunks = new Object[size];
+		chunkSizes = new int[size];
+		noChunks = size;
+		for (int i = 0; i < size; i++) {
+			keys[i] = in.readChar();
+			chunkSizes[i] = in.readInt();
+			if (in.readByte() == BITMAP_CHUNK) {
+				long[] bitmap = new long[BITMAP_CHUNK_WORDS];
+				for (int w = 0; w < BITMAP_CHUNK_WORDS; w++) {
+					bitmap[w] = in.readLong();
+				}
+				chunks[i] = bitmap;
+			} else {
+				char[] values = new char[chunkSizes[i]];
+				for (int j = 0; j < values.length; j++) {
+					values[j] = in.readChar();
+				}
+				chunks[i] = values;
+			}
+		}
+	}
+
+}
@@ -27,17 +27,22 @@ import org.wahlzeit.model.persistence.ImageStorage;
 import org.wahlzeit.services.LogBuilder;
 import org.wahlzeit.services.ObjectManager;
 import org.wahlzeit.services.Persistent;
+import org.wahlzeit.services.WriteResult;
 
 import java.io.IOException;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.HashMap;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
@@ -53,15 +58,68 @@ public class PhotoManager extends ObjectManager {
 	private static final Logger log = Logger.getLogger(PhotoManager.class.getName());
 
 	/**
-	 * In-memory cache for photos
+	 * In-memory cache for photos; holds photo data only, scaled images are kept in the ImageCache
 	 */
-	protected Map<PhotoId, Photo> photoCache = new HashMap<PhotoId, Photo>();
+	protected Map<PhotoId, Photo> photoCache = new ConcurrentHashMap<PhotoId, Photo>();
 
 	/**
 	 *
 	 */
 	protected PhotoTagCollector photoTagCollector = null;
 
+	/**
+	 * In-memory inverted index from tags to photo ids, used by photo filters instead of Datastore tag queries
+	 */
+	protected TagIndex tagIndex = new TagIndex();
+
+	/**
+	 * Incremented whenever photos may have become displayable or not, i.e. on uploads, visibility and tag changes, so
+	 * photo filters know to regenerate their ids. Counts changes on this instance only.
+	 */
+	protected final AtomicInteger displayableVersion = new AtomicInteger();
+
+	/**
+	 * System property to switch between loading images on demand and loading all of them at startup
+	 */
+	public static final String LAZY_IMAGE_LOADING_PROPERTY = "org.wahlzeit.photoManager.lazyImageLoading";
+
+	/**
+	 *
+	 */
+	protected boolean isLazyImageLoading = Boolean.parseBoolean(System.getProperty(LAZY_IMAGE_LOADING_PROPERTY, "true"));
+
+	/**
+	 * A cached photo in the processing state is checked against the Datastore at most once per interval, as its upload
+	 * may have been processed by another instance, see UploadPipeline
+	 */
+	public static final long PROCESSING_CHECK_INTERVAL = 5 * 1000; // = 5 s
+
+	/**
+	 * Upper bound of remembered checks; when it is reached, the checks start over
+	 */
+	public static final int MAX_PROCESSING_CHECKS = 1024;
+
+	/**
+	 * An image missing from the ImageStorage is taken as missing for this time without asking the storage again, as
+	 * another instance may write it meanwhile
+	 */
+	public static final long MISSING_IMAGE_TTL = 10 * 1000; // = 10 s
+
+	/**
+	 * Upper bound of remembered missing images; when it is reached, they start over
+	 */
+	public static final int MAX_MISSING_IMAGES = 1024;
+
+	/**
+	 * Times of the last checks of cached photos in the processing state
+	 */
+	protected final Map<PhotoId, Long> processingCheckTimes = new ConcurrentHashMap<PhotoId, Long>();
+
+	/**
+	 * Times when images were found missing in the ImageStorage, by photo id and size
+	 */
+	protected final Map<String, Long> missingImageTimes = new ConcurrentHashMap<String, Long>();
+
 	/**
 	 *
 	 */
@@ -106,6 +164,9 @@ public class PhotoManager extends ObjectManager {
 		}
 
 		Photo result = doGetPhotoFromId(id);
+		if ((result != null) && result.isProcessing()) {
+			refreshProcessingPhoto(result, false);
+		}
 
 		if (result == null) {
 			result = PhotoFactory.getInstance().loadPhoto(id);
@@ -131,6 +192,9 @@ public class PhotoManager extends ObjectManager {
 	 */
 	protected void doAddPhoto(Photo myPhoto) {
 		photoCache.put(myPhoto.getId(), myPhoto);
+		if (indexTags(myPhoto)) {
+			displayableVersion.incrementAndGet();
+		}
 	}
 
 	/**
@@ -140,6 +204,20 @@ public class PhotoManager extends ObjectManager {
 		return getPhoto(PhotoId.getIdFromString(id));
 	}
 
+	/**
+	 * @methodtype boolean-query
+	 */
+	public boolean isLazyImageLoading() {
+		return isLazyImageLoading;
+	}
+
+	/**
+	 * @methodtype set
+	 */
+	public void setLazyImageLoading(boolean lazyImageLoading) {
+		isLazyImageLoading = lazyImageLoading;
+	}
+
 	/**
 	 * @methodtype init Loads all Photos from the Datastore and holds them in the cache
 	 */
@@ -150,31 +228,35 @@ public class PhotoManager extends ObjectManager {
 	/**
 	 * @methodtype command
 	 *
-	 * Load all persisted photos. Executed when Wahlzeit is restarted.
+	 * Load all persisted photos. Executed when Wahlzeit is restarted. Unless lazy image loading is switched off, the
+	 * scaled images are not loaded here but on first request, see {@link #getImage(PhotoId, PhotoSize)}.
 	 */
 	public void loadPhotos() {
 		Collection<Photo> existingPhotos = ObjectifyService.run(new Work<Collection<Photo>>() {
 			@Override
 			public Collection<Photo> run() {
 				Collection<Photo> existingPhotos = new ArrayList<Photo>();
-				readObjects(existingPhotos, Photo.class);
+				readObjects(existingPhotos, Photo.class, READ_CHUNK_SIZE);
 				return existingPhotos;
 			}
 		});
 
 		for (Photo photo : existingPhotos) {
 			if (!doHasPhoto(photo.getId())) {
-				log.config(LogBuilder.createSystemMessage().
-						addParameter("Load Photo with ID", photo.getIdAsString()).toString());
-				loadScaledImages(photo);
+				LogBuilder.createSystemMessage(log, Level.CONFIG).
+						addParameter("Load Photo with ID", photo.getIdAsString()).log();
+				if (!isLazyImageLoading) {
+					loadScaledImages(photo);
+				}
 				doAddPhoto(photo);
 			} else {
-				log.config(LogBuilder.createSystemMessage().
-						addParameter("Already loaded Photo", photo.getIdAsString()).toString());
+				LogBuilder.createSystemMessage(log, Level.CONFIG).
+						addParameter("Already loaded Photo", photo.getIdAsString()).log();
 			}
 		}
 
-		log.info(LogBuilder.createSystemMessage().addMessage("All photos loaded.").toString());
+		LogBuilder.createSystemMessage(log, Level.INFO).addMessage("All photos loaded.").
+				addParameter("image cache", ImageCache.getInstance().asString()).log();
 	}
 
 	/**
@@ -188,22 +270,24 @@ public class PhotoManager extends ObjectManager {
 	/**
 	 * @methodtype command
 	 *
-	 * Loads all scaled Images of this Photo from Google Cloud Storage
+	 * Loads all scaled Images of this Photo from Google Cloud Storage into the ImageCache
 	 */
 	protected void loadScaledImages(Photo photo) {
 		String photoIdAsString = photo.getId().asString();
 		ImageStorage imageStorage = ImageStorage.getInstance();
+		ImageCache imageCache = ImageCache.getInstance();
+		Set<Integer> existingSizes = imageStorage.getExistingImageSizes(photoIdAsString);
 
 		for (PhotoSize photoSize : PhotoSize.values()) {
-			log.config(LogBuilder.createSystemMessage().
+			LogBuilder.createSystemMessage(log, Level.CONFIG).
 					addAction("loading image").
 					addParameter("image size", photoSize.asString()).
-					addParameter("photo ID", photoIdAsString).toString());
-			if (imageStorage.doesImageExist(photoIdAsString, photoSize.asInt())) {
+					addParameter("photo ID", photoIdAsString).log();
+			if (existingSizes.contains(photoSize.asInt())) {
 				try {
 					Serializable rawImage = imageStorage.readImage(photoIdAsString, photoSize.asInt());
 					if (rawImage != null && rawImage instanceof Image) {
-						photo.setImage(photoSize, (Image) rawImage);
+						imageCache.put(photo.getId(), photoSize, (Image) rawImage);
 					}
 				} catch (IOException e) {
 					log.warning(LogBuilder.createSystemMessage().
@@ -212,12 +296,93 @@ public class PhotoManager extends ObjectManager {
 							addException("Could not load image although it exists", e).toString());
 				}
 			} else {
-				log.config(LogBuilder.createSystemMessage().
-						addParameter("Size does not exist", photoSize.asString()).toString());
+				LogBuilder.createSystemMessage(log, Level.CONFIG).
+						addParameter("Size does not exist", photoSize.asString()).log();
 			}
 		}
 	}
 
+	/**
+	 * @methodtype get
+	 *
+	 * Returns the scaled image from the ImageCache. On a miss, the image is loaded from the ImageStorage and cached. If
+	 * the image does not exist, null is returned, and the storage is not asked again for MISSING_IMAGE_TTL.
+	 */
+	public Image getImage(PhotoId id, PhotoSize photoSize) {
+		ImageCache imageCache = ImageCache.getInstance();
+		Image result = imageCache.get(id, photoSize);
+		if (result != null) {
+			return result;
+		}
+
+		String key = id.asString() + "/" + photoSize.asInt();
+		long now = System.currentTimeMillis();
+		Long missingTime = missingImageTimes.get(key);
+		if ((missingTime != null) && (now - missingTime < MISSING_IMAGE_TTL)) {
+			return null;
+		}
+
+		result = doLoadImage(id, photoSize);
+		if (result != null) {
+			imageCache.put(id, photoSize, result);
+			missingImageTimes.remove(key);
+		} else {
+			if (missingImageTimes.size() >= MAX_MISSING_IMAGES) {
+				missingImageTimes.clear();
+			}
+			missingImageTimes.put(key, now);
+		}
+		return result;
+	}
+
+	/**
+	 * @methodtype get
+	 * @methodproperty primitive
+	 */
+	protected Image doLoadImage(PhotoId id, PhotoSize photoSize) {
+		String photoIdAsString = id.asString();
+		try {
+			Serializable rawImage = ImageStorage.getInstance().readImage(photoIdAsString, photoSize.asInt());
+			if (rawImage instanceof Image) {
+				return (Image) rawImage;
+			}
+		} catch (IOException e) {
+			log.warning(LogBuilder.createSystemMessage().
+					addParameter("size", photoSize.asString()).
+					addParameter("photo ID", photoIdAsString).
+					addException("Could not load image", e).toString());
+		}
+		return null;
+	}
+
+	/**
+	 * @methodtype command
+	 *
+	 * Takes over from the Datastore that the upload of the cached photo has been processed, e.g. by another instance.
+	 * Unless forced, the Datastore is asked at most once per PROCESSING_CHECK_INTERVAL.
+	 */
+	protected void refreshProcessingPhoto(Photo photo, boolean isForced) {
+		PhotoId id = photo.getId();
+		long now = System.currentTimeMillis();
+		Long lastCheckTime = processingCheckTimes.get(id);
+		if (!isForced && (lastCheckTime != null) && (now - lastCheckTime < PROCESSING_CHECK_INTERVAL)) {
+			return;
+		}
+
+		if (processingCheckTimes.size() >= MAX_PROCESSING_CHECKS) {
+			processingCheckTimes.clear();
+		}
+		processingCheckTimes.put(id, now);
+
+		Photo storedPhoto = PhotoFactory.getInstance().loadPhoto(id);
+		if ((storedPhoto != null) && !storedPhoto.isProcessing()) {
+			processingCheckTimes.remove(id);
+			photo.setProcessed();
+			LogBuilder.createSystemMessage(log, Level.CONFIG).
+					addParameter("Took over processed Photo", id.asString()).log();
+		}
+	}
+
 	/**
 	 *
 	 */
@@ -225,83 +390,231 @@ public class PhotoManager extends ObjectManager {
 		updateObject(photo);
 	}
 
+	/**
+	 * @methodtype command
+	 *
+	 * Saves a photo whose upload has not been queued for processing yet, so the stored photo cannot have been
+	 * processed, and the check of updateObject() is not needed.
+	 */
+	public void savePhotoBeforeProcessing(Photo photo) {
+		writeObject(photo);
+	}
+
+	/**
+	 * Never writes a cached photo in the processing state over a stored photo that has been processed.
+	 */
+	@Override
+	protected void updateObject(Persistent object) {
+		refreshProcessingPhotos(Collections.singletonList(object));
+		super.updateObject(object);
+	}
+
+	/**
+	 * Never writes a cached photo in the processing state over a stored photo that has been processed.
+	 */
+	@Override
+	protected WriteResult updateObjectsAsync(Collection<? extends Persistent> collection) {
+		refreshProcessingPhotos(collection);
+		return super.updateObjectsAsync(collection);
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	protected void refreshProcessingPhotos(Collection<? extends Persistent> objects) {
+		for (Persistent object : objects) {
+			if ((object instanceof Photo) && object.isDirty() && ((Photo) object).isProcessing()) {
+				refreshProcessingPhoto((Photo) object, true);
+			}
+		}
+	}
+
+	/**
+	 * @methodtype command
+	 *
+	 * Saves the photo with the next flush of the write-behind queue.
+	 */
+	public void savePhotoLater(Photo photo) {
+		updateObjectLater(photo);
+	}
+
 	@Override
 	protected void updateDependents(Persistent obj) {
-		if (obj instanceof Photo) {
-			Photo photo = (Photo) obj;
-			saveScaledImages(photo);
-			updateTags(photo);
-			UserManager userManager = UserManager.getInstance();
-			Client owner = userManager.getClientById(photo.getOwnerId());
-			userManager.saveClient(owner);
+		updateDependents(Collections.singletonList(obj));
+	}
+
+	@Override
+	protected void updateDependents(Collection<? extends Persistent> objects) {
+		updateDependentsAsync(objects).now();
+	}
+
+	/**
+	 * Saves images and tags photo by photo, but each owner only once for all photos. The tags and owners are written
+	 * asynchronously, so their writes overlap; the result waits for all of them.
+	 */
+	@Override
+	protected WriteResult updateDependentsAsync(Collection<? extends Persistent> objects) {
+		WriteResult result = new WriteResult(new ArrayList<Persistent>());
+		UserManager userManager = UserManager.getInstance();
+		Set<Client> owners = new LinkedHashSet<Client>();
+		for (Persistent obj : objects) {
+			if (obj instanceof Photo) {
+				Photo photo = (Photo) obj;
+				saveScaledImages(photo);
+				updateTags(photo, result);
+				Client owner = userManager.getClientById(photo.getOwnerId());
+				if (owner != null) {
+					owners.add(owner);
+				}
+			}
 		}
+		result.addDependentResult(userManager.saveClientsAsync(owners));
+		return result;
 	}
 
 	/**
-	 * @methodtype helper
+	 * @methodtype get
+	 *
+	 * Returns the sorted ids (as ints) of all photos that match at least one of the filter conditions.
 	 */
-	public List<Tag> addTagsThatMatchCondition(List<Tag> tags, String condition) {
-		readObjects(tags, Tag.class, Tag.TEXT, condition);
-		return tags;
+	public int[] getPhotoIdsThatMatchAnyCondition(Collection<String> conditions) {
+		return tagIndex.getPhotoIdsWithAnyTag(conditions);
 	}
 
 	/**
 	 * @methodtype command
 	 *
-	 * Persists all available sizes of the Photo. If one size exceeds the limit of the persistence layer, e.g. > 1MB for
-	 * the Datastore, it is simply not persisted.
+	 * Persists all sizes of the Photo that have not been persisted yet. If one size exceeds the limit of the persistence
+	 * layer, e.g. > 1MB for the Datastore, it is simply not persisted.
 	 */
 	protected void saveScaledImages(Photo photo) {
 		String photoIdAsString = photo.getId().asString();
 		ImageStorage imageStorage = ImageStorage.getInstance();
+		Set<Integer> existingSizes = imageStorage.getExistingImageSizes(photoIdAsString);
 		PhotoSize photoSize;
 		int it = 0;
 		boolean moreSizesExist = true;
 		do{
 			photoSize = PhotoSize.values()[it];
 			it++;
-			Image image = photo.getImage(photoSize);
+			Image image = photo.getUnsavedImage(photoSize);
 			if (image != null) {
 				try {
-					if (!imageStorage.doesImageExist(photoIdAsString, photoSize.asInt())) {
+					if (!existingSizes.contains(photoSize.asInt())) {
 						imageStorage.writeImage(image, photoIdAsString, photoSize.asInt());
 					}
+					photo.releaseImage(photoSize);
 				} catch (Exception e) {
 					log.warning(LogBuilder.createSystemMessage().
 							addException("Problem when storing image", e).toString());
 					moreSizesExist = false;
 				}
 			} else {
-				log.config(LogBuilder.createSystemMessage().
-						addParameter("No image for size", photoSize.asString()).toString());
+				LogBuilder.createSystemMessage(log, Level.CONFIG).
+						addParameter("No image for size", photoSize.asString()).log();
 				moreSizesExist = false;
 			}
 		} while (it < PhotoSize.values().length && moreSizesExist);
 	}
 
 	/**
-	 * Removes all tags of the Photo (obj) in the datastore that have been removed by the user and adds all new tags of
-	 * the photo to the datastore.
+	 * Compares the tags of the Photo (obj) with its tags in the datastore and writes only the difference: tags that
+	 * have been removed by the user are deleted in one batch, new tags are added in one batch.
 	 */
-	protected void updateTags(Photo photo) {
-		// delete all existing tags, for the case that some have been removed
-		deleteObjects(Tag.class, Tag.PHOTO_ID, photo.getId().asString());
-
-		// add all current tags to the datastore
+	protected void updateTags(Photo photo, WriteResult result) {
+		String photoId = photo.getId().asString();
 		Set<String> tags = new HashSet<String>();
 		photoTagCollector.collect(tags, photo);
-		for (Iterator<String> i = tags.iterator(); i.hasNext(); ) {
-			Tag tag = new Tag(i.next(), photo.getId().asString());
-			log.config(LogBuilder.createSystemMessage().addParameter("Writing Tag", tag.asString()).toString());
-			writeObject(tag);
+
+		List<Tag> storedTags = new ArrayList<Tag>();
+		readObjects(storedTags, Tag.class, Tag.PHOTO_ID, photoId);
+
+		// delete the tags that have been removed, and duplicates that may have been left over
+		Set<String> storedTexts = new HashSet<String>();
+		List<Tag> removedTags = new ArrayList<Tag>();
+		for (Tag storedTag : storedTags) {
+			if (!tags.contains(storedTag.getText()) || !storedTexts.add(storedTag.getText())) {
+				removedTags.add(storedTag);
+			}
+		}
+
+		List<Tag> addedTags = new ArrayList<Tag>();
+		for (String tag : tags) {
+			if (!storedTexts.contains(tag)) {
+				addedTags.add(new Tag(tag, photoId));
+			}
 		}
+
+		LogBuilder.createSystemMessage(log, Level.CONFIG).
+				addParameter("Photo", photoId).
+				addParameter("added tags", addedTags.size()).
+				addParameter("removed tags", removedTags.size()).log();
+		result.addDependentResult(deleteObjectsAsync(removedTags));
+		result.addDependentResult(doWriteObjectsAsync(getDirtyObjects(addedTags)));
+
+		if (tagIndex.update(photo.getId(), tags)) {
+			displayableVersion.incrementAndGet();
+		}
+	}
+
+	/**
+	 * @methodtype command
+	 *
+	 * Returns whether the indexed tags of the photo changed, i.e. the photo was not indexed with these tags yet.
+	 */
+	protected boolean indexTags(Photo photo) {
+		Set<String> tags = new HashSet<String>();
+		photoTagCollector.collect(tags, photo);
+		return tagIndex.update(photo.getId(), tags);
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public int getDisplayableVersion() {
+		return displayableVersion.get();
+	}
+
+	/**
+	 * @methodtype command
+	 *
+	 * Called when a photo became visible or invisible.
+	 */
+	public void photoVisibilityChanged(Photo photo) {
+		displayableVersion.incrementAndGet();
+		photoChanged(photo);
+	}
+
+	/**
+	 * @methodtype command
+	 *
+	 * Called when something shown about a photo changed, e.g. its praise; tells the change listeners.
+	 */
+	public void photoChanged(Photo photo) {
+		fireObjectChanged(photo);
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public TagIndex getTagIndex() {
+		return tagIndex;
 	}
 
 	/**
 	 *
 	 */
 	public void savePhotos() throws IOException{
-		updateObjects(photoCache.values());
+		savePhotosAsync().now();
+	}
+
+	/**
+	 * @methodtype command
+	 *
+	 * Starts writing all dirty photos in batches; call now() on the result to wait for the writes to complete.
+	 */
+	public WriteResult savePhotosAsync() {
+		return updateObjectsAsync(photoCache.values());
 	}
 
 	/**
@@ -329,7 +642,7 @@ public class PhotoManager extends ObjectManager {
 	 *
 	 */
 	public Photo getVisiblePhoto(PhotoFilter filter) {
-		filter.generateDisplayablePhotoIds();
+		filter.updateDisplayablePhotoIds();
 		return getPhotoFromId(filter.getRandomDisplayablePhotoId());
 	}
 
@@ -343,6 +656,18 @@ public class PhotoManager extends ObjectManager {
 		return result;
 	}
 
+	/**
+	 * @methodtype factory
+	 *
+	 * Creates and adds the photo for an upload that is scaled and stored later, see UploadPipeline.
+	 */
+	public Photo createProcessingPhoto(String filename, Image uploadedImage) throws IOException {
+		PhotoId id = PhotoId.getNextId();
+		Photo result = PhotoUtil.createProcessingPhoto(filename, id, uploadedImage);
+		addPhoto(result);
+		return result;
+	}
+
 	/**
 	 * @methodtype command
 	 */
@@ -350,6 +675,7 @@ public class PhotoManager extends ObjectManager {
 		PhotoId id = photo.getId();
 		assertIsNewPhoto(id);
 		doAddPhoto(photo);
+		displayableVersion.incrementAndGet();
 
 		GlobalsManager.getInstance().saveGlobals();
 	}
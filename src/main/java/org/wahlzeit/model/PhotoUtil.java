@@ -21,11 +21,8 @@
 package org.wahlzeit.model;
 
 import com.google.appengine.api.images.Image;
-import com.google.appengine.api.images.ImagesService;
-import com.google.appengine.api.images.ImagesServiceFactory;
-import com.google.appengine.api.images.Transform;
-import org.wahlzeit.services.LogBuilder;
 
+import java.util.Map;
 import java.util.logging.Logger;
 
 /**
@@ -52,6 +49,25 @@ public class PhotoUtil {
 		return result;
 	}
 
+	/**
+	 * @methodtype creation
+	 *
+	 * Creates the photo for an upload without scaling it; the photo is marked as processing until its images exist.
+	 */
+	public static Photo createProcessingPhoto(String filename, PhotoId id, Image uploadedImage) {
+		assertIsValidImage(uploadedImage);
+		int sourceWidth = uploadedImage.getWidth();
+		int sourceHeight = uploadedImage.getHeight();
+		assertHasValidSize(sourceWidth, sourceHeight);
+
+		Photo result = PhotoFactory.getInstance().createPhoto(id);
+		result.setEnding(filename.substring(filename.lastIndexOf(".") + 1));
+		result.setWidthAndHeight(sourceWidth, sourceHeight);
+		result.setProcessing(true);
+
+		return result;
+	}
+
 	/**
 	 *
 	 */
@@ -62,10 +78,9 @@ public class PhotoUtil {
 		int sourceHeight = source.getHeight();
 		assertHasValidSize(sourceWidth, sourceHeight);
 
-		for (PhotoSize size : PhotoSize.values()) {
-			if (!size.isWiderAndHigher(sourceWidth, sourceHeight)) {
-				scaleImage(ImagesServiceFactory.makeImage(source.getImageData()), size, photo);
-			}
+		Map<PhotoSize, Image> images = new ImageScalingPipeline().scale(source);
+		for (Map.Entry<PhotoSize, Image> image : images.entrySet()) {
+			photo.setImage(image.getKey(), image.getValue());
 		}
 	}
 
@@ -87,24 +102,4 @@ public class PhotoUtil {
 		}
 	}
 
-	/**
-	 * @methodtype command Scale the source picture to the given size, store it in the datastore and reference it in the
-	 * photo.
-	 */
-	protected static void scaleImage(Image source, PhotoSize size, Photo photo) throws Exception {
-		int sourceWidth = source.getWidth();
-		int sourceHeight = source.getHeight();
-
-		int targetWidth = size.calcAdjustedWidth(sourceWidth, sourceHeight);
-		int targetHeight = size.calcAdjustedHeight(sourceWidth, sourceHeight);
-
-		ImagesService imagesService = ImagesServiceFactory.getImagesService();
-		Transform resize = ImagesServiceFactory.makeResize(targetWidth, targetHeight);
-		Image newImage = imagesService.applyTransform(resize, source);
-
-		photo.setImage(size, newImage);
-
-		log.config(LogBuilder.createSystemMessage().addParameter("Scaled image to size", size.asString()).toString());
-	}
-
 }
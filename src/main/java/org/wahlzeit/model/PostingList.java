@@ -0,0 +1,160 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.model;
+
+import java.util.Arrays;
+
+/**
+ * A PostingList is a sorted set of photo ids (as ints) that all carry the same tag. The ids are held in a plain int
+ * array, so intersections and unions of posting lists are simple merges. A PostingList is not thread-safe.
+ */
+public class PostingList {
+
+	/**
+	 *
+	 */
+	public static final int[] EMPTY_IDS = new int[0];
+
+	/**
+	 *
+	 */
+	protected int[] ids = EMPTY_IDS;
+	protected int size = 0;
+
+	/**
+	 *
+	 */
+	public PostingList() {
+		// do nothing
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	public boolean add(int id) {
+		int index = Arrays.binarySearch(ids, 0, size, id);
+		if (index >= 0) {
+			return false;
+		}
+
+		index = -index - 1;
+		if (size == ids.length) {
+			ids = Arrays.copyOf(ids, Math.max(4, size + (size >> 1)));
+		}
+		System.arraycopy(ids, index, ids, index + 1, size - index);
+		ids[index] = id;
+		size++;
+		return true;
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	public boolean remove(int id) {
+		int index = Arrays.binarySearch(ids, 0, size, id);
+		if (index < 0) {
+			return false;
+		}
+
+		System.arraycopy(ids, index + 1, ids, index, size - index - 1);
+		size--;
+		return true;
+	}
+
+	/**
+	 * @methodtype boolean-query
+	 */
+	public boolean contains(int id) {
+		return Arrays.binarySearch(ids, 0, size, id) >= 0;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public int getSize() {
+		return size;
+	}
+
+	/**
+	 * @methodtype boolean-query
+	 */
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	/**
+	 * @methodtype conversion
+	 */
+	public int[] asArray() {
+		return Arrays.copyOf(ids, size);
+	}
+
+	/**
+	 * @methodtype helper
+	 *
+	 * Merges two sorted id arrays into a sorted array of the ids that are in both.
+	 */
+	public static int[] intersect(int[] left, int[] right) {
+		int[] result = new int[Math.min(left.length, right.length)];
+		int i = 0, j = 0, k = 0;
+		while ((i < left.length) && (j < right.length)) {
+			if (left[i] < right[j]) {
+				i++;
+			} else if (left[i] > right[j]) {
+				j++;
+			} else {
+				result[k++] = left[i];
+				i++;
+				j++;
+			}
+		}
+		return Arrays.copyOf(result, k);
+	}
+
+	/**
+	 * @methodtype helper
+	 *
+	 * Merges two sorted id arrays into a sorted array of the ids that are in either of them.
+	 */
+	public static int[] union(int[] left, int[] right) {
+		int[] result = new int[left.length + right.length];
+		int i = 0, j = 0, k = 0;
+		while ((i < left.length) && (j < right.length)) {
+			if (left[i] < right[j]) {
+				result[k++] = left[i++];
+			} else if (left[i] > right[j]) {
+				result[k++] = right[j++];
+			} else {
+				result[k++] = left[i];
+				i++;
+				j++;
+			}
+		}
+		while (i < left.length) {
+			result[k++] = left[i++];
+		}
+		while (j < right.length) {
+			result[k++] = right[j++];
+		}
+		return Arrays.copyOf(result, k);
+	}
+
+}
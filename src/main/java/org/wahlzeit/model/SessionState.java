@@ -0,0 +1,262 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.model;
+
+import java.io.Serializable;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A SessionState holds all state of a UserSession in one HttpSession attribute. Setters only mark the state as
+ * dirty if a value actually changes, so the UserSession writes the attribute back, which makes Google App Engine
+ * store the session, at most once per request and only if something changed. The photo filter is changed in place
+ * by its users, so its modification count is compared instead.
+ */
+public class SessionState implements Serializable {
+
+	/**
+	 * Format version; a state of another version is discarded and the session starts anew
+	 */
+	public static final int VERSION = 1;
+
+	/**
+	 *
+	 */
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 *
+	 */
+	protected int version = VERSION;
+
+	/**
+	 *
+	 */
+	protected String siteUrl;
+	protected String clientId;
+	protected PhotoFilter photoFilter;
+	protected Set<PhotoId> praisedPhotoIds = new HashSet<PhotoId>();
+	protected Map<String, Object> savedArgs = new HashMap<String, Object>();
+	protected String message;
+	protected String heading;
+	protected PhotoId photoId;
+	protected PhotoCase photoCase;
+
+	/**
+	 *
+	 */
+	protected transient boolean isDirty = true;
+	protected transient int savedFilterModificationCount = -1;
+
+	/**
+	 *
+	 */
+	public SessionState(String mySiteUrl, PhotoFilter myPhotoFilter) {
+		siteUrl = mySiteUrl;
+		photoFilter = myPhotoFilter;
+	}
+
+	/**
+	 * @methodtype boolean-query
+	 */
+	public boolean isCurrentVersion() {
+		return version == VERSION;
+	}
+
+	/**
+	 * @methodtype boolean-query
+	 */
+	public boolean isDirty() {
+		return isDirty || ((photoFilter != null) && (photoFilter.getModificationCount() != savedFilterModificationCount));
+	}
+
+	/**
+	 * @methodtype command
+	 *
+	 * Marks the state as clean, after it was written back or read from the session.
+	 */
+	public void setSaved() {
+		isDirty = false;
+		savedFilterModificationCount = (photoFilter != null) ? photoFilter.getModificationCount() : -1;
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	protected void setDirty() {
+		isDirty = true;
+	}
+
+	/**
+	 * @methodtype boolean-query
+	 */
+	protected static boolean isEqual(Object a, Object b) {
+		return (a == null) ? (b == null) : a.equals(b);
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public String getSiteUrl() {
+		return siteUrl;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public String getClientId() {
+		return clientId;
+	}
+
+	/**
+	 * @methodtype set
+	 */
+	public void setClientId(String newClientId) {
+		if (!isEqual(clientId, newClientId)) {
+			clientId = newClientId;
+			setDirty();
+		}
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public PhotoFilter getPhotoFilter() {
+		return photoFilter;
+	}
+
+	/**
+	 * @methodtype boolean-query
+	 */
+	public boolean hasPraisedPhotoId(PhotoId praisedPhotoId) {
+		return praisedPhotoIds.contains(praisedPhotoId);
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	public void clearPraisedPhotoIds() {
+		if (!praisedPhotoIds.isEmpty()) {
+			praisedPhotoIds.clear();
+			setDirty();
+		}
+	}
+
+	/**
+	 * @methodtype get
+	 *
+	 * The saved arguments are to be changed through setSavedArg() only.
+	 */
+	public Map<String, Object> getSavedArgs() {
+		return savedArgs;
+	}
+
+	/**
+	 * @methodtype set
+	 */
+	public void setSavedArg(String key, Object value) {
+		if (!savedArgs.containsKey(key) || !isEqual(savedArgs.get(key), value)) {
+			savedArgs.put(key, value);
+			setDirty();
+		}
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	public void clearSavedArgs() {
+		if (!savedArgs.isEmpty()) {
+			savedArgs.clear();
+			setDirty();
+		}
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public String getMessage() {
+		return message;
+	}
+
+	/**
+	 * @methodtype set
+	 */
+	public void setMessage(String newMessage) {
+		if (!isEqual(message, newMessage)) {
+			message = newMessage;
+			setDirty();
+		}
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public String getHeading() {
+		return heading;
+	}
+
+	/**
+	 * @methodtype set
+	 */
+	public void setHeading(String newHeading) {
+		if (!isEqual(heading, newHeading)) {
+			heading = newHeading;
+			setDirty();
+		}
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public PhotoId getPhotoId() {
+		return photoId;
+	}
+
+	/**
+	 * @methodtype set
+	 */
+	public void setPhotoId(PhotoId newPhotoId) {
+		if (!isEqual(photoId, newPhotoId)) {
+			photoId = newPhotoId;
+			setDirty();
+		}
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public PhotoCase getPhotoCase() {
+		return photoCase;
+	}
+
+	/**
+	 * @methodtype set
+	 */
+	public void setPhotoCase(PhotoCase newPhotoCase) {
+		if (photoCase != newPhotoCase) {
+			photoCase = newPhotoCase;
+			setDirty();
+		}
+	}
+
+}
@@ -0,0 +1,224 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.model;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * A TagIndex is an in-memory inverted index from tags to the ids of the photos that carry them. Tags are the filter
+ * conditions as collected by the PhotoTagCollector, e.g. "tg:puppy" or "un:owner". The index is updated photo by
+ * photo, so it can follow every change of a photo's tags.
+ */
+public class TagIndex {
+
+	/**
+	 * Posting list of photo ids for each tag
+	 */
+	protected final Map<String, PostingList> postingLists = new HashMap<String, PostingList>();
+
+	/**
+	 * Indexed tags for each photo id, to know which postings to remove when the tags of a photo change
+	 */
+	protected final Map<Integer, Set<String>> photoTags = new HashMap<Integer, Set<String>>();
+
+	/**
+	 *
+	 */
+	protected final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+	/**
+	 *
+	 */
+	public TagIndex() {
+		// do nothing
+	}
+
+	/**
+	 * @methodtype command
+	 *
+	 * Sets the indexed tags of the photo to the given tags, adding and removing only the postings that changed.
+	 * Returns whether any posting changed.
+	 */
+	public boolean update(PhotoId photoId, Set<String> newTags) {
+		int id = photoId.asInt();
+		Set<String> tags = new HashSet<String>(newTags);
+
+		lock.writeLock().lock();
+		try {
+			Set<String> oldTags = photoTags.get(id);
+			if (tags.equals((oldTags != null) ? oldTags : Collections.<String>emptySet())) {
+				return false;
+			}
+
+			if (oldTags != null) {
+				for (String oldTag : oldTags) {
+					if (!tags.contains(oldTag)) {
+						doRemovePosting(oldTag, id);
+					}
+				}
+			}
+			for (String tag : tags) {
+				if ((oldTags == null) || !oldTags.contains(tag)) {
+					doAddPosting(tag, id);
+				}
+			}
+
+			if (tags.isEmpty()) {
+				photoTags.remove(id);
+			} else {
+				photoTags.put(id, tags);
+			}
+			return true;
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	public void remove(PhotoId photoId) {
+		update(photoId, Collections.<String>emptySet());
+	}
+
+	/**
+	 * @methodtype command
+	 * @methodproperty primitive
+	 */
+	protected void doAddPosting(String tag, int id) {
+		PostingList postingList = postingLists.get(tag);
+		if (postingList == null) {
+			postingList = new PostingList();
+			postingLists.put(tag, postingList);
+		}
+		postingList.add(id);
+	}
+
+	/**
+	 * @methodtype command
+	 * @methodproperty primitive
+	 */
+	protected void doRemovePosting(String tag, int id) {
+		PostingList postingList = postingLists.get(tag);
+		if (postingList != null) {
+			postingList.remove(id);
+			if (postingList.isEmpty()) {
+				postingLists.remove(tag);
+			}
+		}
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public Set<String> getTags(PhotoId photoId) {
+		lock.readLock().lock();
+		try {
+			Set<String> tags = photoTags.get(photoId.asInt());
+			return (tags != null) ? new HashSet<String>(tags) : new HashSet<String>();
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * @methodtype get
+	 *
+	 * Returns the sorted ids of all photos with the tag.
+	 */
+	public int[] getPhotoIds(String tag) {
+		lock.readLock().lock();
+		try {
+			return doGetPhotoIds(tag);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * @methodtype get
+	 * @methodproperty primitive
+	 */
+	protected int[] doGetPhotoIds(String tag) {
+		PostingList postingList = postingLists.get(tag);
+		return (postingList != null) ? postingList.asArray() : PostingList.EMPTY_IDS;
+	}
+
+	/**
+	 * @methodtype get
+	 *
+	 * Returns the sorted ids of all photos that carry at least one of the tags.
+	 */
+	public int[] getPhotoIdsWithAnyTag(Collection<String> tags) {
+		lock.readLock().lock();
+		try {
+			int[] result = PostingList.EMPTY_IDS;
+			for (String tag : tags) {
+				result = PostingList.union(result, doGetPhotoIds(tag));
+			}
+			return result;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * @methodtype get
+	 *
+	 * Returns the sorted ids of all photos that carry all of the tags.
+	 */
+	public int[] getPhotoIdsWithAllTags(Collection<String> tags) {
+		lock.readLock().lock();
+		try {
+			int[] result = null;
+			for (String tag : tags) {
+				int[] photoIds = doGetPhotoIds(tag);
+				result = (result == null) ? photoIds : PostingList.intersect(result, photoIds);
+				if (result.length == 0) {
+					break;
+				}
+			}
+			return (result != null) ? result : PostingList.EMPTY_IDS;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public int getNoTags() {
+		lock.readLock().lock();
+		try {
+			return postingLists.size();
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+}
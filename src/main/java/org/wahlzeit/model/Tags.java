@@ -160,6 +160,13 @@ public class Tags implements Serializable {
 		return tags.toArray(new String[tags.size()]);
 	}
 
+	/**
+	 * @methodtype get
+	 */
+	public char getSeparator() {
+		return separator;
+	}
+
 	/**
 	 * @methodtype conversion
 	 * @methodproperties convenience, class
@@ -0,0 +1,319 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.wahlzeit.model;
+
+import com.google.appengine.api.images.Image;
+import org.wahlzeit.model.persistence.ImageStorage;
+import org.wahlzeit.services.LogBuilder;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The UploadPipeline processes uploaded photos after the upload request has returned. The upload request creates the
+ * photo in the processing state and hands the original image to accept(), which writes it to the staging area of the
+ * image storage and saves the photo; a background task then calls process() on any instance, which reads the original
+ * from there and runs the stages scale, store and publish. When maxPending uploads are queued already, accept() refuses
+ * and the upload request has to process the photo itself, which slows down uploads until the pipeline has caught up.
+ * Each stage keeps counts and times.
+ */
+public class UploadPipeline {
+
+	private static final Logger log = Logger.getLogger(UploadPipeline.class.getName());
+
+	/**
+	 * System property to configure the number of queued uploads, see appengine-web.xml
+	 */
+	public static final String MAX_PENDING_PROPERTY = "org.wahlzeit.uploadPipeline.maxPending";
+
+	/**
+	 *
+	 */
+	public static final int DEFAULT_MAX_PENDING = 20;
+
+	/**
+	 *
+	 */
+	public enum Stage {
+		SCALE, STORE, PUBLISH
+	}
+
+	/**
+	 *
+	 */
+	protected static final UploadPipeline instance = new UploadPipeline(
+			Integer.getInteger(MAX_PENDING_PROPERTY, DEFAULT_MAX_PENDING));
+
+	/**
+	 *
+	 */
+	protected final Map<Stage, StageMetrics> stageMetrics = new EnumMap<Stage, StageMetrics>(Stage.class);
+
+	/**
+	 *
+	 */
+	protected final AtomicLong noRefused = new AtomicLong();
+
+	/**
+	 *
+	 */
+	protected final int maxPending;
+
+	/**
+	 *
+	 */
+	public UploadPipeline(int myMaxPending) {
+		maxPending = myMaxPending;
+		for (Stage stage : Stage.values()) {
+			stageMetrics.put(stage, new StageMetrics());
+		}
+	}
+
+	/**
+	 *
+	 */
+	public static UploadPipeline getInstance() {
+		return instance;
+	}
+
+	/**
+	 * @methodtype command
+	 *
+	 * Stages the original of the photo and saves the photo, so any instance can run process(PhotoId). Returns false if
+	 * noQueuedUploads reaches maxPending or the original can not be staged; then the caller has to process the photo
+	 * itself.
+	 */
+	public boolean accept(Photo photo, Image original, int noQueuedUploads) {
+		String photoIdAsString = photo.getId().asString();
+		if (noQueuedUploads >= maxPending) {
+			noRefused.incrementAndGet();
+			log.warning(LogBuilder.createSystemMessage().
+					addParameter("Upload pipeline full, processing in request", photoIdAsString).toString());
+			return false;
+		}
+
+		try {
+			ImageStorage.getInstance().writeStagedImage(original, photoIdAsString);
+		} catch (Exception e) {
+			noRefused.incrementAndGet();
+			log.warning(LogBuilder.createSystemMessage().
+					addParameter("Photo", photoIdAsString).
+					addException("Could not stage original, processing in request", e).toString());
+			return false;
+		}
+
+		// the task that processes the photo is queued only after this
+		PhotoManager.getInstance().savePhotoBeforeProcessing(photo);
+		return true;
+	}
+
+	/**
+	 * @methodtype command
+	 *
+	 * Processes the accepted photo with its staged original and deletes the original afterwards. Returns false if
+	 * there is no such photo or original; a photo that has been processed already is left as it is.
+	 */
+	public boolean process(PhotoId photoId) throws Exception {
+		Photo photo = PhotoManager.getInstance().getPhotoFromId(photoId);
+		if (photo == null) {
+			return false;
+		}
+
+		ImageStorage imageStorage = ImageStorage.getInstance();
+		String photoIdAsString = photoId.asString();
+		if (photo.isProcessing()) {
+			Image original = imageStorage.readStagedImage(photoIdAsString);
+			if (original == null) {
+				return false;
+			}
+			process(photo, original);
+		}
+
+		imageStorage.deleteStagedImage(photoIdAsString);
+		return true;
+	}
+
+	/**
+	 * @methodtype command
+	 *
+	 * Runs all stages for the photo; if one fails, the photo stays in the processing state.
+	 */
+	public void process(final Photo photo, final Image original) throws Exception {
+		final PhotoManager photoManager = PhotoManager.getInstance();
+		runStage(Stage.SCALE, photo, new StageWork() {
+			@Override
+			public void run() throws Exception {
+				scaleImages(photo, original);
+			}
+		});
+		runStage(Stage.STORE, photo, new StageWork() {
+			@Override
+			public void run() {
+				photoManager.saveScaledImages(photo);
+			}
+		});
+		runStage(Stage.PUBLISH, photo, new StageWork() {
+			@Override
+			public void run() {
+				// saves the tags as well, which updates the tag index
+				photo.setProcessing(false);
+				photoManager.savePhoto(photo);
+			}
+		});
+
+		LogBuilder.createSystemMessage(log, Level.CONFIG).
+				addParameter("Processed upload", photo.getId().asString()).
+				addParameter("stages", asString()).log();
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	protected void scaleImages(Photo photo, Image original) throws Exception {
+		PhotoUtil.createImageFiles(original, photo);
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	protected void runStage(Stage stage, Photo photo, StageWork work) throws Exception {
+		StageMetrics metrics = stageMetrics.get(stage);
+		long startTime = System.currentTimeMillis();
+		try {
+			work.run();
+			metrics.addRun(System.currentTimeMillis() - startTime);
+		} catch (Exception e) {
+			metrics.addFailure();
+			log.warning(LogBuilder.createSystemMessage().
+					addParameter("Photo", photo.getId().asString()).
+					addParameter("upload stage", stage).
+					addException("Upload stage failed", e).toString());
+			throw e;
+		}
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public long getNoRefused() {
+		return noRefused.get();
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public StageMetrics getStageMetrics(Stage stage) {
+		return stageMetrics.get(stage);
+	}
+
+	/**
+	 * @methodtype conversion
+	 */
+	public String asString() {
+		StringBuilder result = new StringBuilder();
+		for (Map.Entry<Stage, StageMetrics> entry : stageMetrics.entrySet()) {
+			if (result.length() > 0) {
+				result.append(", ");
+			}
+			result.append(entry.getKey().name().toLowerCase()).append(": ").append(entry.getValue().asString());
+		}
+		return result.append(", refused: ").append(getNoRefused()).toString();
+	}
+
+	/**
+	 * The work of one stage for one photo
+	 */
+	protected interface StageWork {
+		void run() throws Exception;
+	}
+
+	/**
+	 * Counts and times of the runs of one stage
+	 */
+	public static class StageMetrics {
+
+		protected final AtomicLong noRuns = new AtomicLong();
+		protected final AtomicLong noFailures = new AtomicLong();
+		protected final AtomicLong totalTime = new AtomicLong();
+		protected final AtomicLong maxTime = new AtomicLong();
+
+		/**
+		 * @methodtype command
+		 */
+		protected void addRun(long time) {
+			noRuns.incrementAndGet();
+			totalTime.addAndGet(time);
+			long max = maxTime.get();
+			while ((time > max) && !maxTime.compareAndSet(max, time)) {
+				max = maxTime.get();
+			}
+		}
+
+		/**
+		 * @methodtype command
+		 */
+		protected void addFailure() {
+			noFailures.incrementAndGet();
+		}
+
+		/**
+		 * @methodtype get
+		 */
+		public long getNoRuns() {
+			return noRuns.get();
+		}
+
+		/**
+		 * @methodtype get
+		 */
+		public long getNoFailures() {
+			return noFailures.get();
+		}
+
+		/**
+		 * @methodtype get
+		 */
+		public long getAverageTime() {
+			long runs = noRuns.get();
+			return (runs == 0) ? 0 : totalTime.get() / runs;
+		}
+
+		/**
+		 * @methodtype get
+		 */
+		public long getMaxTime() {
+			return maxTime.get();
+		}
+
+		/**
+		 * @methodtype conversion
+		 */
+		public String asString() {
+			return getNoRuns() + " runs, " + getNoFailures() + " failures, avg " + getAverageTime() + " ms, max " +
+					getMaxTime() + " ms";
+		}
+	}
+
+}
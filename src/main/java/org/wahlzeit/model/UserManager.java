@@ -31,6 +31,7 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.List;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 
@@ -67,7 +68,7 @@ public class UserManager extends ClientManager {
 	/**
 	 *
 	 */
-	public static UserManager getInstance() {
+	public static synchronized UserManager getInstance() {
 		if (instance == null) {
 			instance = new UserManager();
 		}
@@ -86,21 +87,21 @@ public class UserManager extends ClientManager {
 			@Override
 			public Void run() {
 				Collection<User> existingUser = new ArrayList<User>();
-				readObjects(existingUser, User.class);
+				readObjects(existingUser, User.class, READ_CHUNK_SIZE);
 
 				for (User user : existingUser) {
 					if (!hasClientById(user.getId())) {
 						doAddClient(user);
 					} else {
-						log.config(LogBuilder.createSystemMessage().addParameter("user has been loaded", user.getId())
-								.toString());
+						LogBuilder.createSystemMessage(log, Level.CONFIG).addParameter("user has been loaded", user.getId())
+								.log();
 					}
 				}
 				return null;
 			}
 		});
 
-		log.info(LogBuilder.createSystemMessage().addMessage("loaded all clients").toString());
+		LogBuilder.createSystemMessage(log, Level.INFO).addMessage("loaded all clients").log();
 	}
 
 	/**
@@ -145,7 +146,11 @@ public class UserManager extends ClientManager {
 		if (result != null) {
 			User current = getUserById(result.getId());
 			if (current == null) {
-				doAddClient(result);
+				// another request may have added the user meanwhile
+				Client added = doAddClient(result);
+				if (added instanceof User) {
+					result = (User) added;
+				}
 			} else {
 				result = current;
 			}
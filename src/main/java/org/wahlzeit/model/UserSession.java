@@ -26,16 +26,15 @@ import org.wahlzeit.utils.HtmlUtil;
 
 import javax.servlet.http.HttpSession;
 import java.io.Serializable;
-import java.util.HashMap;
-import java.util.HashSet;
 import java.util.Map;
-import java.util.Set;
 import java.util.logging.Logger;
 
 /**
  * Wrapper class for {@link HttpSession} to provide a readable interface for Wahlzeit.
  *
- * {@link HttpSession}s are managed automatically by Google App Engine.
+ * {@link HttpSession}s are managed automatically by Google App Engine. All state is kept in one {@link SessionState}
+ * attribute, which is written back by saveState() at the end of a request only if it changed, as each write makes
+ * Google App Engine store the whole session.
  */
 public class UserSession extends Session implements Serializable {
 
@@ -52,21 +51,31 @@ public class UserSession extends Session implements Serializable {
 	public static final String SAVED_ARGS = "savedArgs";
 	public static final String INITIALIZED = "initialized";
 	public static final String ANONYMOUS_CLIENT = "anon";
+	public static final String STATE = "state";
 
 
 	private static Logger log = Logger.getLogger(UserSession.class.getName());
 
 	protected HttpSession httpSession;
 
+	/**
+	 *
+	 */
+	protected SessionState state;
+
 	/**
 	 *
 	 */
 	public UserSession(String myName, String mySiteUrl, HttpSession myHttpSession, String myLanguage) {
 		httpSession = myHttpSession;
 		initialize(myName);
-		if (httpSession.getAttribute(INITIALIZED) == null) {
-			httpSession.setAttribute(SITE_URL, mySiteUrl);
-			httpSession.setAttribute(PHOTO_FILTER, PhotoFactory.getInstance().createPhotoFilter());
+
+		Object attribute = httpSession.getAttribute(STATE);
+		if ((attribute instanceof SessionState) && ((SessionState) attribute).isCurrentVersion()) {
+			state = (SessionState) attribute;
+			state.setSaved();
+		} else {
+			state = new SessionState(mySiteUrl, PhotoFactory.getInstance().createPhotoFilter());
 
 			setClient(new Guest());
 			try {
@@ -75,12 +84,18 @@ public class UserSession extends Session implements Serializable {
 			} catch (IllegalArgumentException e) {
 				// default language of guest is english
 			}
+		}
+	}
 
-			clearDisplayedPhotos();
-			clearPraisedPhotos();
-			clearSavedArgs();
-			httpSession.setAttribute(INITIALIZED, INITIALIZED);
-
+	/**
+	 * @methodtype command
+	 *
+	 * Writes the session state back into the HttpSession if it changed during the request.
+	 */
+	public void saveState() {
+		if (state.isDirty()) {
+			httpSession.setAttribute(STATE, state);
+			state.setSaved();
 		}
 	}
 
@@ -88,10 +103,9 @@ public class UserSession extends Session implements Serializable {
 	 *
 	 */
 	public void clearDisplayedPhotos() {
-		PhotoFilter photoFilter = (PhotoFilter) httpSession.getAttribute(PHOTO_FILTER);
+		PhotoFilter photoFilter = state.getPhotoFilter();
 		if (photoFilter != null) {
 			photoFilter.clear();
-			httpSession.setAttribute(PHOTO_FILTER, photoFilter);
 		} else {
 			log.warning("No PhotoFilter found in HttpSession to clear.");
 		}
@@ -101,14 +115,14 @@ public class UserSession extends Session implements Serializable {
 	 *
 	 */
 	public void clearPraisedPhotos() {
-		httpSession.setAttribute(PRAISED_PHOTOS, new HashSet<Photo>());
+		state.clearPraisedPhotoIds();
 	}
 
 	/**
 	 * @methodtype init
 	 */
 	public void clearSavedArgs() {
-		httpSession.setAttribute(SAVED_ARGS, new HashMap<String, Object>());
+		state.clearSavedArgs();
 	}
 
 	/**
@@ -123,39 +137,40 @@ public class UserSession extends Session implements Serializable {
 	 * @methodtype get
 	 */
 	public String getSiteUrl() {
-		return (String) httpSession.getAttribute(SITE_URL);
-	}
-
-	@Override
-	protected void notifyNameChanged() {
-		httpSession.setAttribute(Session.NAME, super.getName());
+		return state.getSiteUrl();
 	}
 
 	/**
 	 * @methodtype convert Returns some signifier of current user
 	 */
 	public String getClientId() {
-		return (String) httpSession.getAttribute(CLIENT_ID);
-	}
-
-	@Override
-	protected void notifyProcessingTimeChanged() {
-		httpSession.setAttribute(Session.PROCESSING_TIME, super.getProcessingTime());
+		return state.getClientId();
 	}
 
 	/**
 	 * @methodtype get
 	 */
 	public Client getClient() {
-		String clientName = (String) httpSession.getAttribute(CLIENT_ID);
-		return UserManager.getInstance().getClientById(clientName);
+		String clientName = state.getClientId();
+		Client result = UserManager.getInstance().getClientById(clientName);
+		if ((result == null) && Guest.isGuestId(clientName)) {
+			// guests are not persisted, so one dropped from the GuestStore is created again
+			try {
+				result = new Guest(clientName);
+				result.setHttpSessionId(httpSession.getId());
+			} catch (IllegalArgumentException e) {
+				// another request of the session created it first
+				result = UserManager.getInstance().getClientById(clientName);
+			}
+		}
+		return result;
 	}
 
 	/**
 	 * @methodtype set
 	 */
 	public void setClient(Client newClient) {
-		String previousClientId = (String) httpSession.getAttribute(CLIENT_ID);
+		String previousClientId = state.getClientId();
 		if (previousClientId != null) {
 			Client previousClient = UserManager.getInstance().getClientById(previousClientId);
 			if (previousClient instanceof Guest) {
@@ -163,7 +178,7 @@ public class UserSession extends Session implements Serializable {
 			}
 		}
 
-		httpSession.setAttribute(CLIENT_ID, newClient.getId());
+		state.setClientId(newClient.getId());
 		UserManager.getInstance().addHttpSessionIdToClientMapping(httpSession.getId(), newClient);
 	}
 
@@ -171,30 +186,23 @@ public class UserSession extends Session implements Serializable {
 	 *
 	 */
 	public PhotoFilter getPhotoFilter() {
-		return (PhotoFilter) httpSession.getAttribute(PHOTO_FILTER);
+		return state.getPhotoFilter();
 	}
 
 	/**
 	 * @methodtype boolean query
 	 */
 	public boolean hasPraisedPhoto(Photo photo) {
-		Set praisedPhotos = (Set) httpSession.getAttribute(PRAISED_PHOTOS);
-		if (praisedPhotos != null) {
-			return praisedPhotos.contains(photo);
-		} else {
-			log.warning("Found no set of praised Photos to search for Photo.");
-			return false;
-		}
+		return state.hasPraisedPhotoId(photo.getId());
 	}
 
 	/**
 	 *
 	 */
 	public void addProcessedPhoto(Photo photo) {
-		PhotoFilter photoFilter = (PhotoFilter) httpSession.getAttribute(PHOTO_FILTER);
+		PhotoFilter photoFilter = state.getPhotoFilter();
 		if (photoFilter != null) {
 			photoFilter.addProcessedPhoto(photo);
-			httpSession.setAttribute(PHOTO_FILTER, photoFilter);
 		} else {
 			log.warning("No PhotoFilter found in HttpSession to add Photo.");
 		}
@@ -204,70 +212,70 @@ public class UserSession extends Session implements Serializable {
 	 * @methodtype get
 	 */
 	public String getHeading() {
-		return (String) httpSession.getAttribute(HEADING);
+		return state.getHeading();
 	}
 
 	/**
 	 * @methodtype set
 	 */
 	public void setHeading(String myHeading) {
-		httpSession.setAttribute(HEADING, myHeading);
+		state.setHeading(myHeading);
 	}
 
 	/**
 	 * @methodtype get
 	 */
 	public String getMessage() {
-		return (String) httpSession.getAttribute(MESSAGE);
+		return state.getMessage();
 	}
 
 	/**
 	 * @methodtype set
 	 */
 	public void setMessage(String myMessage) {
-		httpSession.setAttribute(MESSAGE, HtmlUtil.asP(myMessage));
+		state.setMessage(HtmlUtil.asP(myMessage));
 	}
 
 	/**
 	 * @methodtype set
 	 */
 	public void setTwoLineMessage(String msg1, String msg2) {
-		httpSession.setAttribute(MESSAGE, HtmlUtil.asP(msg1) + HtmlUtil.asP(msg2));
+		state.setMessage(HtmlUtil.asP(msg1) + HtmlUtil.asP(msg2));
 	}
 
 	/**
 	 * @methodtype set
 	 */
 	public void setThreeLineMessage(String msg1, String msg2, String msg3) {
-		httpSession.setAttribute(MESSAGE, HtmlUtil.asP(msg1) + HtmlUtil.asP(msg2) + HtmlUtil.asP(msg3));
+		state.setMessage(HtmlUtil.asP(msg1) + HtmlUtil.asP(msg2) + HtmlUtil.asP(msg3));
 	}
 
 	/**
 	 * @methodtype get
 	 */
 	public PhotoId getPhotoId() {
-		return (PhotoId) httpSession.getAttribute(Photo.ID);
+		return state.getPhotoId();
 	}
 
 	/**
 	 * @methodtype set
 	 */
 	public void setPhotoId(PhotoId newPhotoId) {
-		httpSession.setAttribute(Photo.ID, newPhotoId);
+		state.setPhotoId(newPhotoId);
 	}
 
 	/**
 	 * @methodtype get
 	 */
 	public PhotoCase getPhotoCase() {
-		return (PhotoCase) httpSession.getAttribute(PHOTO_CASE);
+		return state.getPhotoCase();
 	}
 
 	/**
 	 * @methodtype set
 	 */
 	public void setPhotoCase(PhotoCase photoCase) {
-		httpSession.setAttribute(PHOTO_CASE, photoCase);
+		state.setPhotoCase(photoCase);
 	}
 
 	/**
@@ -287,8 +295,7 @@ public class UserSession extends Session implements Serializable {
 	 * @methodtype get
 	 */
 	public Object getSavedArg(String key) {
-		Map<String, Object> savedArgs = (Map<String, Object>) httpSession.getAttribute(SAVED_ARGS);
-		return savedArgs.get(key);
+		return state.getSavedArgs().get(key);
 	}
 
 	/**
@@ -333,16 +340,14 @@ public class UserSession extends Session implements Serializable {
 	 * @methodtype set
 	 */
 	public void setSavedArg(String key, Object value) {
-		Map<String, Object> savedArgs = getSavedArgs();
-		savedArgs.put(key, value);
-		httpSession.setAttribute(SAVED_ARGS, savedArgs);
+		state.setSavedArg(key, value);
 	}
 
 	/**
 	 * @methodtype get
 	 */
 	public Map<String, Object> getSavedArgs() {
-		return (Map<String, Object>) httpSession.getAttribute(SAVED_ARGS);
+		return state.getSavedArgs();
 	}
 
 }
@@ -22,17 +22,25 @@ package org.wahlzeit.model.persistence;
 
 import com.google.appengine.api.images.Image;
 import com.google.appengine.api.images.ImagesServiceFactory;
+import com.googlecode.objectify.Key;
 import com.googlecode.objectify.ObjectifyService;
 import com.googlecode.objectify.Work;
 import com.googlecode.objectify.annotation.Entity;
 import com.googlecode.objectify.annotation.Id;
 import org.wahlzeit.annotations.Pattern;
+import org.wahlzeit.model.PhotoSize;
 import org.wahlzeit.services.LogBuilder;
 import org.wahlzeit.services.OfyService;
 
 import java.io.IOException;
 import java.io.Serializable;
 import java.security.InvalidParameterException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
@@ -50,6 +58,10 @@ public class DatastoreAdapter extends ImageStorage {
 
 	private static final Logger log = Logger.getLogger(DatastoreAdapter.class.getName());
 
+	/**
+	 * Prefix of the ids of staged originals; photo ids do not contain it, so they stay apart from the photo sizes
+	 */
+	protected static final String STAGING_ID_PREFIX = "staging/";
 
 	@Override
 	protected void doWriteImage(Serializable image, String photoIdAsString, int size)
@@ -66,7 +78,7 @@ public class DatastoreAdapter extends ImageStorage {
 				}
 			});
 
-			log.config(LogBuilder.createSystemMessage().addMessage("image successfully written").toString());
+			LogBuilder.createSystemMessage(log, Level.CONFIG).addMessage("image successfully written").log();
 		} else {
 			log.warning(LogBuilder.createSystemMessage().
 					addMessage("did not get an Image type to store").
@@ -86,11 +98,11 @@ public class DatastoreAdapter extends ImageStorage {
 		});
 
 		if (imageWrapper == null) {
-			log.info(LogBuilder.createSystemMessage().addMessage("does not exist!").toString());
+			LogBuilder.createSystemMessage(log, Level.INFO).addMessage("does not exist!").log();
 		} else {
 			result = imageWrapper.getImage();
 			if (result != null) {
-				log.config(LogBuilder.createSystemMessage().addMessage("image successfully read").toString());
+				LogBuilder.createSystemMessage(log, Level.CONFIG).addMessage("image successfully read").log();
 			} else {
 				log.warning(LogBuilder.createSystemMessage().addMessage("ImageWrapper contains no Image").toString());
 			}
@@ -98,21 +110,108 @@ public class DatastoreAdapter extends ImageStorage {
 		return result;
 	}
 
+	/**
+	 * Staged originals of 1 MB or more can not be stored and fail with an ArrayIndexOutOfBoundsException.
+	 */
+	@Override
+	protected void doWriteStagedImage(Image image, String photoIdAsString) throws IOException {
+		final ImageWrapper imageWrapper = new ImageWrapper(STAGING_ID_PREFIX + photoIdAsString);
+		imageWrapper.setImage(image);
+
+		ObjectifyService.run(new Work<Boolean>() {
+			@Override
+			public Boolean run() {
+				OfyService.ofy().save().entity(imageWrapper).now();
+				return null;
+			}
+		});
+	}
+
+	@Override
+	protected Image doReadStagedImage(final String photoIdAsString) throws IOException {
+		ImageWrapper imageWrapper = ObjectifyService.run(new Work<ImageWrapper>() {
+			@Override
+			public ImageWrapper run() {
+				return OfyService.ofy().load().type(ImageWrapper.class).id(STAGING_ID_PREFIX + photoIdAsString).now();
+			}
+		});
+
+		return (imageWrapper != null) ? imageWrapper.getImage() : null;
+	}
+
+	@Override
+	protected void doDeleteStagedImage(String photoIdAsString) throws IOException {
+		final Key<ImageWrapper> key = Key.create(ImageWrapper.class, STAGING_ID_PREFIX + photoIdAsString);
+		ObjectifyService.run(new Work<Boolean>() {
+			@Override
+			public Boolean run() {
+				OfyService.ofy().delete().key(key).now();
+				return null;
+			}
+		});
+	}
+
+	/**
+	 * Gets the image by key, which is strongly consistent unlike a query, so an image just written on another instance
+	 * is not taken as missing.
+	 */
 	@Override
 	protected boolean doDoesImageExist(String photoIdAsString, int size) {
-		Image image = null;
-		boolean result = false;
-		try {
-			image = doReadImage(photoIdAsString, size);
-		} catch (IOException e) {
-			log.warning(
-					LogBuilder.createSystemMessage().addException("IOException when checking for Image existance", e)
-							.toString());
+		final Key<ImageWrapper> key = Key.create(ImageWrapper.class, photoIdAsString + size);
+		ImageWrapper imageWrapper = ObjectifyService.run(new Work<ImageWrapper>() {
+			@Override
+			public ImageWrapper run() {
+				return OfyService.ofy().load().key(key).now();
+			}
+		});
+
+		boolean result = imageWrapper != null;
+		LogBuilder.createSystemMessage(log, Level.CONFIG).addParameter("does image exist", result).log();
+		return result;
+	}
+
+	/**
+	 * Gets the keys of all sizes with one keys-only query over the key range of the photo id. The range may contain
+	 * keys of other photos whose ids start with this one, so only the keys of this photo are taken. The query is only
+	 * eventually consistent, so the sizes it does not find are confirmed by one strongly consistent get by keys; the
+	 * image data is loaded only for sizes the query has missed.
+	 */
+	@Override
+	protected Set<Integer> doGetExistingImageSizes(final String photoIdAsString) {
+		List<Key<ImageWrapper>> keys = ObjectifyService.run(new Work<List<Key<ImageWrapper>>>() {
+			@Override
+			public List<Key<ImageWrapper>> run() {
+				return OfyService.ofy().load().type(ImageWrapper.class).
+						filterKey(">=", Key.create(ImageWrapper.class, photoIdAsString)).
+						filterKey("<", Key.create(ImageWrapper.class, photoIdAsString + Character.MAX_VALUE)).
+						keys().list();
+			}
+		});
+
+		Set<Integer> result = new TreeSet<Integer>();
+		final List<Key<ImageWrapper>> missingKeys = new ArrayList<Key<ImageWrapper>>();
+		for (PhotoSize photoSize : PhotoSize.values()) {
+			Key<ImageWrapper> sizeKey = Key.create(ImageWrapper.class, photoIdAsString + photoSize.asInt());
+			if (keys.contains(sizeKey)) {
+				result.add(photoSize.asInt());
+			} else {
+				missingKeys.add(sizeKey);
+			}
 		}
-		if (image != null) {
-			result = true;
+
+		if (!missingKeys.isEmpty()) {
+			Map<Key<ImageWrapper>, ImageWrapper> found = ObjectifyService.run(new Work<Map<Key<ImageWrapper>, ImageWrapper>>() {
+				@Override
+				public Map<Key<ImageWrapper>, ImageWrapper> run() {
+					return OfyService.ofy().load().keys(missingKeys);
+				}
+			});
+			for (PhotoSize photoSize : PhotoSize.values()) {
+				if (found.containsKey(Key.create(ImageWrapper.class, photoIdAsString + photoSize.asInt()))) {
+					result.add(photoSize.asInt());
+				}
+			}
 		}
-		log.config(LogBuilder.createSystemMessage().addParameter("does image exist", result).toString());
 		return result;
 	}
 
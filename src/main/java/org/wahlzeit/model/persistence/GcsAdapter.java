@@ -32,13 +32,19 @@ import com.google.appengine.tools.cloudstorage.GcsServiceFactory;
 import com.google.appengine.tools.cloudstorage.RetryParams;
 import org.wahlzeit.services.LogBuilder;
 import org.wahlzeit.services.SysConfig;
+import org.wahlzeit.utils.BufferPool;
 
 import java.io.File;
+import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.Serializable;
 import java.net.URLConnection;
 import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
 import java.security.InvalidParameterException;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
@@ -53,19 +59,21 @@ public class GcsAdapter extends ImageStorage {
 
 	private String bucketName;
 	private String photoFolder;
+	private String stagingFolder;
 	private String defaultImageMimeTypeName;
-	private int bufferLength;
+	private BufferPool bufferPool;
 	private GcsService gcsService;
 
 	/**
 	 * Do not use directly, instead use {@link org.wahlzeit.model.persistence.GcsAdapter.Builder} to create an object.
 	 */
-	private GcsAdapter(String bucketName, String photoFolderName, String defaultImageMimeTypeName, int bufferLength,
-					   GcsService gcsService) {
+	private GcsAdapter(String bucketName, String photoFolderName, String stagingFolderName,
+					   String defaultImageMimeTypeName, BufferPool bufferPool, GcsService gcsService) {
 		this.bucketName = bucketName;
 		this.photoFolder = photoFolderName;
+		this.stagingFolder = stagingFolderName;
 		this.defaultImageMimeTypeName = defaultImageMimeTypeName;
-		this.bufferLength = bufferLength;
+		this.bufferPool = bufferPool;
 		this.gcsService = gcsService;
 	}
 
@@ -74,14 +82,22 @@ public class GcsAdapter extends ImageStorage {
 	protected void doWriteImage(Serializable image, String photoIdAsString, int size)
 			throws IOException, InvalidParameterException {
 
-		GcsFilename gcsFilename = getGcsFileName(photoIdAsString, size);
-		log.config(LogBuilder.createSystemMessage().addParameter("gcsFileName", gcsFilename).toString());
+		writeFile(getGcsFileName(photoIdAsString, size), image);
+	}
+
+	/**
+	 * Writes the image to the file, with the mime type guessed from the file name.
+	 */
+	protected void writeFile(GcsFilename gcsFilename, Serializable image)
+			throws IOException, InvalidParameterException {
+
+		LogBuilder.createSystemMessage(log, Level.CONFIG).addParameter("gcsFileName", gcsFilename).log();
 
 		String fileType = URLConnection.guessContentTypeFromName(gcsFilename.getObjectName());
 		GcsFileOptions.Builder fileOptionsBuilder = new GcsFileOptions.Builder();
 		if (fileType != null) {
 			fileOptionsBuilder.mimeType(fileType);
-			log.config(LogBuilder.createSystemMessage().addParameter("found file type", fileType).toString());
+			LogBuilder.createSystemMessage(log, Level.CONFIG).addParameter("found file type", fileType).log();
 		} else {
 			fileOptionsBuilder.mimeType(defaultImageMimeTypeName);
 			log.warning(LogBuilder.createSystemMessage().
@@ -95,7 +111,7 @@ public class GcsAdapter extends ImageStorage {
 			Image imageObject = (Image) image;
 			outputChannel.write(ByteBuffer.wrap(imageObject.getImageData()));
 			outputChannel.close();
-			log.config(LogBuilder.createSystemMessage().addMessage("image successfully written").toString());
+			LogBuilder.createSystemMessage(log, Level.CONFIG).addMessage("image successfully written").log();
 		} else {
 			throw new InvalidParameterException("not an Image object!");
 		}
@@ -103,26 +119,129 @@ public class GcsAdapter extends ImageStorage {
 
 	@Override
 	protected Image doReadImage(String filename, int size) throws IOException {
-		GcsFilename gcsFilename = getGcsFileName(filename, size);
-		log.config(LogBuilder.createSystemMessage().addParameter("gcsFileName", gcsFilename).toString());
+		return readFile(getGcsFileName(filename, size));
+	}
 
-		GcsInputChannel readChannel = gcsService.openReadChannel(gcsFilename, 0);
-		ByteBuffer bb = ByteBuffer.allocate(bufferLength);
-		Image result = null;
+	/**
+	 * Reads the image from the file. Returns null if the file does not exist.
+	 */
+	protected Image readFile(GcsFilename gcsFilename) throws IOException {
+		LogBuilder.createSystemMessage(log, Level.CONFIG).addParameter("gcsFileName", gcsFilename).log();
+
+		GcsFileMetadata gcsFileMetadata = null;
 		try {
-			readChannel.read(bb);
-			result = ImagesServiceFactory.makeImage(bb.array());
+			// will be null if file does not exist
+			gcsFileMetadata = gcsService.getMetadata(gcsFilename);
 		} catch (IOException e) {
 			// when image does not exist, IOException is thrown
 		}
-		if (result == null) {
+		if (gcsFileMetadata == null) {
 			log.warning(LogBuilder.createSystemMessage().addMessage("does not exist!").toString());
-		} else {
-			log.config(LogBuilder.createSystemMessage().addMessage("image successfully read").toString());
+			return null;
+		}
+
+		Image result;
+		try {
+			result = ImagesServiceFactory.makeImage(readFully(gcsFilename, gcsFileMetadata.getLength()));
+		} catch (IOException e) {
+			// the image exists, so a short or failed read is an error, not a missing image
+			log.warning(LogBuilder.createSystemMessage().
+					addException("could not read existing image " + gcsFilename, e).toString());
+			throw e;
 		}
+
+		LogBuilder.createSystemMessage(log, Level.CONFIG).addMessage("image successfully read").log();
 		return result;
 	}
 
+	/**
+	 * Reads the file into a buffer of exactly its length, calling read() until the buffer is full or the file ends.
+	 */
+	protected byte[] readFully(GcsFilename gcsFilename, long length) throws IOException {
+		if (length > Integer.MAX_VALUE) {
+			throw new IOException("file too large to read: " + gcsFilename);
+		}
+
+		ByteBuffer bb = ByteBuffer.allocate((int) length);
+		GcsInputChannel readChannel = gcsService.openReadChannel(gcsFilename, 0);
+		try {
+			while (bb.hasRemaining() && (readChannel.read(bb) >= 0)) {
+				// read on
+			}
+		} finally {
+			readChannel.close();
+		}
+
+		if (bb.hasRemaining()) {
+			throw new IOException("file ended after " + bb.position() + " of " + length + " bytes: " + gcsFilename);
+		}
+		return bb.array();
+	}
+
+	/**
+	 * Copies the file to the output stream through a pooled buffer, without holding the whole image in memory.
+	 */
+	@Override
+	protected boolean doWriteImageTo(String photoIdAsString, int size, OutputStream out) throws IOException {
+		GcsFilename gcsFilename = getGcsFileName(photoIdAsString, size);
+		LogBuilder.createSystemMessage(log, Level.CONFIG).addParameter("gcsFileName", gcsFilename).log();
+
+		byte[] buffer = bufferPool.acquire();
+		long noBytes = 0;
+		try {
+			InputStream in = Channels.newInputStream(gcsService.openReadChannel(gcsFilename, 0));
+			try {
+				for (int n = in.read(buffer); n >= 0; n = in.read(buffer)) {
+					out.write(buffer, 0, n);
+					noBytes += n;
+				}
+			} finally {
+				in.close();
+			}
+		} catch (FileNotFoundException e) {
+			if (noBytes == 0) {
+				log.warning(LogBuilder.createSystemMessage().addMessage("does not exist!").toString());
+				return false;
+			}
+			throw e;
+		} finally {
+			bufferPool.release(buffer);
+		}
+
+		LogBuilder.createSystemMessage(log, Level.CONFIG).addParameter("image successfully streamed, bytes", noBytes).log();
+		return true;
+	}
+
+	/**
+	 * Takes the length from the file metadata, without reading the file.
+	 */
+	@Override
+	protected long doGetImageLength(String photoIdAsString, int size) throws IOException {
+		GcsFileMetadata gcsFileMetadata = gcsService.getMetadata(getGcsFileName(photoIdAsString, size));
+		return (gcsFileMetadata != null) ? gcsFileMetadata.getLength() : -1;
+	}
+
+	@Override
+	public boolean isStreamingStorage() {
+		return true;
+	}
+
+	@Override
+	protected void doWriteStagedImage(Image image, String photoIdAsString) throws IOException {
+		writeFile(getStagingGcsFileName(photoIdAsString), image);
+	}
+
+	@Override
+	protected Image doReadStagedImage(String photoIdAsString) throws IOException {
+		return readFile(getStagingGcsFileName(photoIdAsString));
+	}
+
+	@Override
+	protected void doDeleteStagedImage(String photoIdAsString) throws IOException {
+		boolean result = gcsService.delete(getStagingGcsFileName(photoIdAsString));
+		LogBuilder.createSystemMessage(log, Level.CONFIG).addParameter("staged image deleted", result).log();
+	}
+
 	@Override
 	protected boolean doDoesImageExist(String photoIdAsString, int size) {
 		GcsFilename gcsFilename = getGcsFileName(photoIdAsString, size);
@@ -134,7 +253,7 @@ public class GcsAdapter extends ImageStorage {
 		} catch (IOException e) {
 			result = false;
 		}
-		log.config(LogBuilder.createSystemMessage().addParameter("does image exist", result).toString());
+		LogBuilder.createSystemMessage(log, Level.CONFIG).addParameter("does image exist", result).log();
 		return result;
 	}
 
@@ -151,23 +270,33 @@ public class GcsAdapter extends ImageStorage {
 		return new GcsFilename(bucketName, filePath);
 	}
 
+	/**
+	 * Creates a <code>GcsFilename</code> for the staged original of the photo. The name structure is:
+	 *
+	 * BUCKET_NAME - stagingFolder/photoIdAsString
+	 *
+	 * @methodtype get
+	 */
+	private GcsFilename getStagingGcsFileName(String photoIdAsString) {
+		String filePath = stagingFolder + File.separator + photoIdAsString;
+		return new GcsFilename(bucketName, filePath);
+	}
+
 
 	public static class Builder {
 		GcsService gcsService;
 		private String bucketName;
 		private String photoFolderName;
+		private String stagingFolderName;
 		private String defaultImageMimeTypeName;
-		private int bufferLength;
+		private BufferPool bufferPool;
 
 		public Builder() {
 			bucketName = SysConfig.DATA_PATH;
 			photoFolderName = "photos";
+			stagingFolderName = "staging";
 			defaultImageMimeTypeName = "image/jpeg";
-			/**
-			 * 1 MB Buffer, does not limit the size of the files. A valid compromise between unused allocation and
-			 * reallocation.
-			 */
-			bufferLength = 1024 * 1024;
+			bufferPool = BufferPool.getInstance();
 			gcsService = GcsServiceFactory.createGcsService(RetryParams.getDefaultInstance());
 		}
 
@@ -179,12 +308,16 @@ public class GcsAdapter extends ImageStorage {
 			this.photoFolderName = photoFolderName;
 		}
 
+		public void setStagingFolderName(String stagingFolderName) {
+			this.stagingFolderName = stagingFolderName;
+		}
+
 		public void setDefaultImageMimeTypeName(String defaultImageMimeTypeName) {
 			this.defaultImageMimeTypeName = defaultImageMimeTypeName;
 		}
 
-		public void setBufferLength(int bufferLength) {
-			this.bufferLength = bufferLength;
+		public void setBufferPool(BufferPool bufferPool) {
+			this.bufferPool = bufferPool;
 		}
 
 		public void setGcsService(GcsService gcsService) {
@@ -192,7 +325,8 @@ public class GcsAdapter extends ImageStorage {
 		}
 
 		public GcsAdapter build() {
-			return new GcsAdapter(bucketName, photoFolderName, defaultImageMimeTypeName, bufferLength, gcsService);
+			return new GcsAdapter(bucketName, photoFolderName, stagingFolderName, defaultImageMimeTypeName, bufferPool,
+					gcsService);
 		}
 	}
 }
@@ -1,12 +1,20 @@
 package org.wahlzeit.model.persistence;
 
+import com.google.appengine.api.images.Image;
 import org.wahlzeit.annotations.Pattern;
 import org.wahlzeit.model.PhotoSize;
 import org.wahlzeit.services.LogBuilder;
 
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.Serializable;
 import java.security.InvalidParameterException;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
@@ -25,6 +33,26 @@ public abstract class ImageStorage {
 	private static final Logger log = Logger.getLogger(ImageStorage.class.getName());
 	private static ImageStorage instance = null;
 
+	/**
+	 * Upper bound of entries in the existence cache; when it is reached, the cache starts over
+	 */
+	public static final int MAX_EXISTENCE_CACHE_SIZE = 64 * 1024;
+
+	/**
+	 * Time in ms a missing image is taken as missing; another instance may write it meanwhile
+	 */
+	public static final long ABSENCE_TTL = 10 * 1000;
+
+	/**
+	 * Images known to exist by photo id and size. Images are never deleted, so these entries do not expire.
+	 */
+	protected final Set<String> existenceCache = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+	/**
+	 * Images known to be missing by photo id and size, with the time until which this is assumed
+	 */
+	protected final Map<String, Long> absenceCache = new ConcurrentHashMap<String, Long>();
+
 	/**
 	 * @methodtype get
 	 */
@@ -41,9 +69,9 @@ public abstract class ImageStorage {
 	 * @methodtype set
 	 */
 	public static void setInstance(ImageStorage newInstance) {
-		log.config(LogBuilder.createSystemMessage().
+		LogBuilder.createSystemMessage(log, Level.CONFIG).
 				addAction("set ImageStorage instance").
-				addParameter("instance", newInstance).toString());
+				addParameter("instance", newInstance).log();
 		instance = newInstance;
 	}
 
@@ -64,13 +92,14 @@ public abstract class ImageStorage {
 		assertValidPhotoId(photoIdAsString);
 		PhotoSize.assertIsValidPhotoSizeAsInt(size);
 
-		log.config(LogBuilder.createSystemMessage().
+		LogBuilder.createSystemMessage(log, Level.CONFIG).
 				addAction("write image to storage").
 				addParameter("image", image).
 				addParameter("photo id", photoIdAsString).
-				addParameter("size", size).toString());
+				addParameter("size", size).log();
 
 		doWriteImage(image, photoIdAsString, size);
+		putExistence(photoIdAsString, size, true);
 	}
 
 	/**
@@ -97,10 +126,10 @@ public abstract class ImageStorage {
 		assertValidPhotoId(photoIdAsString);
 		PhotoSize.assertIsValidPhotoSizeAsInt(size);
 
-		log.config(LogBuilder.createSystemMessage().
+		LogBuilder.createSystemMessage(log, Level.CONFIG).
 				addAction("read image from storage").
 				addParameter("photo id", photoIdAsString).
-				addParameter("size", size).toString());
+				addParameter("size", size).log();
 
 		return doReadImage(photoIdAsString, size);
 	}
@@ -115,6 +144,168 @@ public abstract class ImageStorage {
 			throws IOException;
 
 
+	/**
+	 * Writes the bytes of the image to the output stream, e.g. to deliver it with a response, without necessarily
+	 * holding the whole image in memory. Returns false if the image is not found; then nothing has been written.
+	 *
+	 * @methodtype command
+	 * @methodproperty wrapper
+	 */
+	public boolean writeImageTo(String photoIdAsString, int size, OutputStream out)
+			throws IllegalArgumentException, IOException {
+
+		assertValidPhotoId(photoIdAsString);
+		PhotoSize.assertIsValidPhotoSizeAsInt(size);
+
+		LogBuilder.createSystemMessage(log, Level.CONFIG).
+				addAction("stream image from storage").
+				addParameter("photo id", photoIdAsString).
+				addParameter("size", size).log();
+
+		return doWriteImageTo(photoIdAsString, size, out);
+	}
+
+	/**
+	 * Actually writes the image to the output stream. Reads the whole image unless overwritten.
+	 *
+	 * @methodtype command
+	 * @methodproperty hook
+	 */
+	protected boolean doWriteImageTo(String photoIdAsString, int size, OutputStream out) throws IOException {
+		Serializable image = doReadImage(photoIdAsString, size);
+		if (!(image instanceof Image)) {
+			return false;
+		}
+
+		out.write(((Image) image).getImageData());
+		return true;
+	}
+
+
+	/**
+	 * Returns the length of the image in bytes, or -1 if the image is not found.
+	 *
+	 * @methodtype get
+	 * @methodproperty wrapper
+	 */
+	public long getImageLength(String photoIdAsString, int size)
+			throws IllegalArgumentException, IOException {
+
+		assertValidPhotoId(photoIdAsString);
+		PhotoSize.assertIsValidPhotoSizeAsInt(size);
+
+		return doGetImageLength(photoIdAsString, size);
+	}
+
+	/**
+	 * Actually gets the length of the image. Reads the whole image unless overwritten.
+	 *
+	 * @methodtype get
+	 * @methodproperty hook
+	 */
+	protected long doGetImageLength(String photoIdAsString, int size) throws IOException {
+		Serializable image = doReadImage(photoIdAsString, size);
+		return (image instanceof Image) ? ((Image) image).getImageData().length : -1;
+	}
+
+	/**
+	 * Tells whether writeImageTo() streams images instead of reading them as a whole first. If not, images are better
+	 * read once and kept in memory.
+	 *
+	 * @methodtype boolean query
+	 * @methodproperty hook
+	 */
+	public boolean isStreamingStorage() {
+		return false;
+	}
+
+
+	// staging methods -------------------------------------------------------------------------------------------------
+
+	/**
+	 * Writes the original of an upload to the staging area, so any instance can process the upload later. Staged
+	 * images are kept apart from the images of the photo sizes and are not in the existence cache.
+	 *
+	 * @methodtype command
+	 * @methodproperty wrapper
+	 */
+	public void writeStagedImage(Image image, String photoIdAsString)
+			throws IllegalArgumentException, IOException {
+
+		assertImageNotNull(image);
+		assertValidPhotoId(photoIdAsString);
+
+		LogBuilder.createSystemMessage(log, Level.CONFIG).
+				addAction("write staged image to storage").
+				addParameter("photo id", photoIdAsString).log();
+
+		doWriteStagedImage(image, photoIdAsString);
+	}
+
+	/**
+	 * Actually writes the original to the staging area
+	 *
+	 * @methodtype command
+	 * @methodproperty hook
+	 */
+	protected abstract void doWriteStagedImage(Image image, String photoIdAsString)
+			throws IOException;
+
+	/**
+	 * Reads the staged original of an upload. When not found, null is returned.
+	 *
+	 * @methodtype get
+	 * @methodproperty wrapper
+	 */
+	public Image readStagedImage(String photoIdAsString)
+			throws IllegalArgumentException, IOException {
+
+		assertValidPhotoId(photoIdAsString);
+
+		LogBuilder.createSystemMessage(log, Level.CONFIG).
+				addAction("read staged image from storage").
+				addParameter("photo id", photoIdAsString).log();
+
+		return doReadStagedImage(photoIdAsString);
+	}
+
+	/**
+	 * Actually reads the staged original. When not found, null is returned.
+	 *
+	 * @methodtype get
+	 * @methodproperty hook
+	 */
+	protected abstract Image doReadStagedImage(String photoIdAsString)
+			throws IOException;
+
+	/**
+	 * Deletes the staged original of an upload once it has been processed.
+	 *
+	 * @methodtype command
+	 * @methodproperty wrapper
+	 */
+	public void deleteStagedImage(String photoIdAsString)
+			throws IllegalArgumentException, IOException {
+
+		assertValidPhotoId(photoIdAsString);
+
+		LogBuilder.createSystemMessage(log, Level.CONFIG).
+				addAction("delete staged image from storage").
+				addParameter("photo id", photoIdAsString).log();
+
+		doDeleteStagedImage(photoIdAsString);
+	}
+
+	/**
+	 * Actually deletes the staged original
+	 *
+	 * @methodtype command
+	 * @methodproperty hook
+	 */
+	protected abstract void doDeleteStagedImage(String photoIdAsString)
+			throws IOException;
+
+
 	// exist method ----------------------------------------------------------------------------------------------------
 
 	/**
@@ -129,12 +320,18 @@ public abstract class ImageStorage {
 		assertValidPhotoId(photoIdAsString);
 		PhotoSize.assertIsValidPhotoSizeAsInt(size);
 
-		log.config(LogBuilder.createSystemMessage().
+		LogBuilder.createSystemMessage(log, Level.CONFIG).
 				addAction("check if image exists in storage").
 				addParameter("photo id", photoIdAsString).
-				addParameter("size", size).toString());
+				addParameter("size", size).log();
 
-		return doDoesImageExist(photoIdAsString, size);
+		Boolean result = getKnownExistence(photoIdAsString, size);
+		if (result == null) {
+			result = doDoesImageExist(photoIdAsString, size);
+			putExistence(photoIdAsString, size, result);
+		}
+
+		return result;
 	}
 
 
@@ -146,6 +343,102 @@ public abstract class ImageStorage {
 	 */
 	protected abstract boolean doDoesImageExist(String photoIdAsString, int size);
 
+	/**
+	 * Returns the sizes (as ints) in which the image of the photo exists in the storage. Asks the storage only if the
+	 * existence of some size is not known (anymore).
+	 *
+	 * @methodtype get
+	 * @methodproperty wrapper
+	 */
+	public Set<Integer> getExistingImageSizes(String photoIdAsString)
+			throws IllegalArgumentException {
+
+		assertValidPhotoId(photoIdAsString);
+
+		Set<Integer> result = new TreeSet<Integer>();
+		for (PhotoSize photoSize : PhotoSize.values()) {
+			Boolean exists = getKnownExistence(photoIdAsString, photoSize.asInt());
+			if (exists == null) {
+				result = doGetExistingImageSizes(photoIdAsString);
+				for (PhotoSize size : PhotoSize.values()) {
+					putExistence(photoIdAsString, size.asInt(), result.contains(size.asInt()));
+				}
+				break;
+			} else if (exists) {
+				result.add(photoSize.asInt());
+			}
+		}
+
+		LogBuilder.createSystemMessage(log, Level.CONFIG).
+				addParameter("photo id", photoIdAsString).
+				addParameter("existing image sizes", result).log();
+		return result;
+	}
+
+	/**
+	 * Actually checks in which sizes the image of the photo exists in the storage. Overwrite to check all sizes with one
+	 * request to the storage.
+	 *
+	 * @methodtype get
+	 * @methodproperty hook
+	 */
+	protected Set<Integer> doGetExistingImageSizes(String photoIdAsString) {
+		Set<Integer> result = new TreeSet<Integer>();
+		for (PhotoSize photoSize : PhotoSize.values()) {
+			if (doDoesImageExist(photoIdAsString, photoSize.asInt())) {
+				result.add(photoSize.asInt());
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Returns whether the image is known to exist, or null if that is not known or the absence has expired.
+	 *
+	 * @methodtype get
+	 */
+	protected Boolean getKnownExistence(String photoIdAsString, int size) {
+		String key = getExistenceKey(photoIdAsString, size);
+		if (existenceCache.contains(key)) {
+			return true;
+		}
+
+		Long absenceExpiryTime = absenceCache.get(key);
+		if (absenceExpiryTime == null) {
+			return null;
+		} else if (absenceExpiryTime < System.currentTimeMillis()) {
+			absenceCache.remove(key);
+			return null;
+		}
+		return false;
+	}
+
+	/**
+	 * @methodtype set
+	 */
+	protected void putExistence(String photoIdAsString, int size, boolean exists) {
+		String key = getExistenceKey(photoIdAsString, size);
+		if (exists) {
+			if (existenceCache.size() >= MAX_EXISTENCE_CACHE_SIZE) {
+				existenceCache.clear();
+			}
+			existenceCache.add(key);
+			absenceCache.remove(key);
+		} else {
+			if (absenceCache.size() >= MAX_EXISTENCE_CACHE_SIZE) {
+				absenceCache.clear();
+			}
+			absenceCache.put(key, System.currentTimeMillis() + ABSENCE_TTL);
+		}
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	protected String getExistenceKey(String photoIdAsString, int size) {
+		return photoIdAsString + "/" + size;
+	}
+
 
 	// assertion methods -----------------------------------------------------------------------------------------------
 
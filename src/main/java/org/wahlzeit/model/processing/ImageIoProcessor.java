@@ -0,0 +1,177 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.wahlzeit.model.processing;
+
+import com.google.appengine.api.images.Image;
+import com.google.appengine.api.images.ImagesServiceFactory;
+import org.wahlzeit.annotations.Pattern;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Iterator;
+
+/**
+ * Image processor that scales images in process with javax.imageio. It halves the image with bilinear interpolation
+ * until the next halving would undershoot the target size and then scales to the target size, which keeps the quality
+ * of a single bilinear step from a much larger image in check. JPEG images are written as JPEG with the configured
+ * quality, all others as PNG.
+ */
+@Pattern(
+	name = "Adapter",
+	participants = {
+		"Adapter"
+	}
+)
+public class ImageIoProcessor extends ImageProcessor {
+
+	/**
+	 * System property to configure the JPEG quality from 0.0 to 1.0, see appengine-web.xml
+	 */
+	public static final String JPEG_QUALITY_PROPERTY = "org.wahlzeit.imageIoProcessor.jpegQuality";
+
+	/**
+	 *
+	 */
+	public static final float DEFAULT_JPEG_QUALITY = 0.85f;
+
+	/**
+	 *
+	 */
+	protected final float jpegQuality;
+
+	/**
+	 *
+	 */
+	public ImageIoProcessor() {
+		this(getJpegQualityProperty());
+	}
+
+	/**
+	 *
+	 */
+	public ImageIoProcessor(float myJpegQuality) {
+		if ((myJpegQuality < 0.0f) || (myJpegQuality > 1.0f)) {
+			throw new IllegalArgumentException("invalid JPEG quality: " + myJpegQuality);
+		}
+		jpegQuality = myJpegQuality;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	protected static float getJpegQualityProperty() {
+		String value = System.getProperty(JPEG_QUALITY_PROPERTY);
+		return (value != null) ? Float.parseFloat(value) : DEFAULT_JPEG_QUALITY;
+	}
+
+	@Override
+	protected Image doResize(Image image, int width, int height) throws IOException {
+		BufferedImage source = ImageIO.read(new ByteArrayInputStream(image.getImageData()));
+		if (source == null) {
+			throw new IOException("could not decode image of format " + image.getFormat());
+		}
+
+		boolean isJpeg = image.getFormat() == Image.Format.JPEG;
+		int type = (source.getColorModel().hasAlpha() && !isJpeg) ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB;
+
+		BufferedImage result = source;
+		int currentWidth = source.getWidth();
+		int currentHeight = source.getHeight();
+		do {
+			currentWidth = Math.max(currentWidth / 2, width);
+			currentHeight = Math.max(currentHeight / 2, height);
+			result = scaleStep(result, currentWidth, currentHeight, type);
+		} while ((currentWidth != width) || (currentHeight != height));
+
+		byte[] imageData = isJpeg ? writeJpeg(result) : writePng(result);
+		return ImagesServiceFactory.makeImage(imageData);
+	}
+
+	/**
+	 * @methodtype factory
+	 */
+	protected BufferedImage scaleStep(BufferedImage image, int width, int height, int type) {
+		BufferedImage result = new BufferedImage(width, height, type);
+		Graphics2D graphics = result.createGraphics();
+		try {
+			graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+			graphics.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+			graphics.drawImage(image, 0, 0, width, height, null);
+		} finally {
+			graphics.dispose();
+		}
+		return result;
+	}
+
+	/**
+	 * @methodtype conversion
+	 */
+	protected byte[] writeJpeg(BufferedImage image) throws IOException {
+		Iterator<ImageWriter> writers = ImageIO.getImageWritersByFormatName("jpeg");
+		if (!writers.hasNext()) {
+			throw new IOException("no JPEG writer available");
+		}
+
+		ImageWriter writer = writers.next();
+		ByteArrayOutputStream result = new ByteArrayOutputStream();
+		ImageOutputStream out = ImageIO.createImageOutputStream(result);
+		try {
+			ImageWriteParam param = writer.getDefaultWriteParam();
+			param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+			param.setCompressionQuality(jpegQuality);
+			writer.setOutput(out);
+			writer.write(null, new IIOImage(image, null, null), param);
+		} finally {
+			writer.dispose();
+			out.close();
+		}
+		return result.toByteArray();
+	}
+
+	/**
+	 * @methodtype conversion
+	 */
+	protected byte[] writePng(BufferedImage image) throws IOException {
+		ByteArrayOutputStream result = new ByteArrayOutputStream();
+		if (!ImageIO.write(image, "png", result)) {
+			throw new IOException("no PNG writer available");
+		}
+		return result.toByteArray();
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public float getJpegQuality() {
+		return jpegQuality;
+	}
+
+}
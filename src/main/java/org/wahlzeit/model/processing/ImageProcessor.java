@@ -0,0 +1,133 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.wahlzeit.model.processing;
+
+import com.google.appengine.api.images.Image;
+import org.wahlzeit.annotations.Pattern;
+import org.wahlzeit.services.LogBuilder;
+
+import java.io.IOException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Abstract super class for the services that scale images. Which one is used can be configured with the system
+ * property org.wahlzeit.imageProcessor, see appengine-web.xml; by default, it is the Google App Engine ImagesService.
+ */
+@Pattern(
+	name = "Adapter",
+	participants = {
+		"Target"
+	}
+)
+public abstract class ImageProcessor {
+
+	private static final Logger log = Logger.getLogger(ImageProcessor.class.getName());
+	private static ImageProcessor instance = null;
+
+	/**
+	 * System property to choose the image processor, see appengine-web.xml
+	 */
+	public static final String IMAGE_PROCESSOR_PROPERTY = "org.wahlzeit.imageProcessor";
+
+	/**
+	 *
+	 */
+	public static final String IMAGES_SERVICE = "imagesService";
+	public static final String IMAGE_IO = "imageIo";
+
+	/**
+	 * @methodtype get
+	 */
+	public static synchronized ImageProcessor getInstance() {
+		if (instance == null) {
+			setInstance(createInstance(System.getProperty(IMAGE_PROCESSOR_PROPERTY, IMAGES_SERVICE)));
+		}
+		return instance;
+	}
+
+	/**
+	 * @methodtype set
+	 */
+	public static synchronized void setInstance(ImageProcessor newInstance) {
+		LogBuilder.createSystemMessage(log, Level.CONFIG).
+				addAction("set ImageProcessor instance").
+				addParameter("instance", newInstance).log();
+		instance = newInstance;
+	}
+
+	/**
+	 * @methodtype factory
+	 */
+	public static ImageProcessor createInstance(String name) throws IllegalArgumentException {
+		if (IMAGES_SERVICE.equals(name)) {
+			return new ImagesServiceProcessor();
+		} else if (IMAGE_IO.equals(name)) {
+			return new ImageIoProcessor();
+		}
+
+		throw new IllegalArgumentException("unknown image processor: " + name);
+	}
+
+	/**
+	 * Returns a copy of the image scaled to exactly width x height pixels. The image itself is not modified.
+	 *
+	 * @methodtype factory
+	 * @methodproperty wrapper
+	 */
+	public Image resize(Image image, int width, int height) throws IllegalArgumentException, IOException {
+		assertImageNotNull(image);
+		assertValidSize(width, height);
+
+		return doResize(image, width, height);
+	}
+
+	/**
+	 * Actually scales the image
+	 *
+	 * @methodtype factory
+	 * @methodproperty hook
+	 */
+	protected abstract Image doResize(Image image, int width, int height) throws IOException;
+
+
+	// assert methods --------------------------------------------------------------------------------------------------
+
+	/**
+	 * @methodtype assertion
+	 */
+	protected void assertImageNotNull(Image image) throws IllegalArgumentException {
+		if (image == null) {
+			throw new IllegalArgumentException("Image = null!");
+		}
+	}
+
+	/**
+	 * @methodtype assertion
+	 */
+	protected void assertValidSize(int width, int height) throws IllegalArgumentException {
+		if ((width <= 0) || (height <= 0)) {
+			throw new IllegalArgumentException("invalid image size: " + width + " x " + height);
+		}
+	}
+
+}
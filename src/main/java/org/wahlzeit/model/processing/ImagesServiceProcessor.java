@@ -0,0 +1,51 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.wahlzeit.model.processing;
+
+import com.google.appengine.api.images.Image;
+import com.google.appengine.api.images.ImagesService;
+import com.google.appengine.api.images.ImagesServiceFactory;
+import com.google.appengine.api.images.Transform;
+import org.wahlzeit.annotations.Pattern;
+
+/**
+ * Image processor that scales images with the Google App Engine ImagesService, one RPC per resize.
+ */
+@Pattern(
+	name = "Adapter",
+	participants = {
+		"Adapter"
+	}
+)
+public class ImagesServiceProcessor extends ImageProcessor {
+
+	/**
+	 * The ImagesService writes its result into the image it transforms, so it transforms a copy.
+	 */
+	@Override
+	protected Image doResize(Image image, int width, int height) {
+		ImagesService imagesService = ImagesServiceFactory.getImagesService();
+		Transform resize = ImagesServiceFactory.makeResize(width, height);
+		return imagesService.applyTransform(resize, ImagesServiceFactory.makeImage(image.getImageData()));
+	}
+
+}
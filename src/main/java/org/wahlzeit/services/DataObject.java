@@ -59,6 +59,20 @@ public abstract class DataObject implements Persistent, Serializable {
 		writeCount++;
 	}
 
+	/**
+	 *
+	 */
+	public final int getWriteCount() {
+		return writeCount;
+	}
+
+	/**
+	 *
+	 */
+	public final void decWriteCount(int count) {
+		writeCount = Math.max(0, writeCount - count);
+	}
+
 	/**
 	 *
 	 */
@@ -7,6 +7,8 @@ import org.wahlzeit.model.UserSession;
 
 import java.io.PrintWriter;
 import java.io.StringWriter;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 /**
  * Builder class for log messages, that ensures that log messages are all formatted equally.
@@ -15,7 +17,11 @@ import java.io.StringWriter;
  * <code>Formatter</code> could not be used
  *
  * (see https://stackoverflow.com/questions/30345665/how-to-customize-logging-for-google-app-engine-java).
- * 
+ *
+ * The level, session, and client names are only looked up when the message is turned into a string. Messages created
+ * for a logger and a log level are logged with log(); if the logger discards that level, the builder ignores all
+ * parameters, so the message costs next to nothing. Such builders are reused per thread.
+ *
  * @review
  */
 @Pattern(
@@ -39,11 +45,54 @@ public class LogBuilder {
 	protected static final String EXCEPTION_REASON = "exception reason";
 	protected static final String STACKTRACE = "stacktrace";
 
+	/**
+	 * Builder that ignores everything, for messages whose log level is discarded
+	 */
+	protected static final LogBuilder DISABLED_BUILDER = new LogBuilder(false);
+
+	/**
+	 *
+	 */
+	protected static final ThreadLocal<LogBuilder> threadLocalBuilder = new ThreadLocal<LogBuilder>() {
+		@Override
+		protected LogBuilder initialValue() {
+			return new LogBuilder();
+		}
+	};
+
+	/**
+	 * Reused builders that grew beyond this length, e.g. for a stack trace, are replaced by a new one
+	 */
+	protected static final int MAX_REUSED_LENGTH = 4 * 1024;
+
 	protected StringBuilder logMessage;
 
+	/**
+	 *
+	 */
+	protected final boolean isEnabled;
+
+	/**
+	 * Header values, the client name is looked up from the session in toString()
+	 */
+	protected String level;
+	protected Session session;
+
+	/**
+	 * Logger and log level of a message created for a logger, see log()
+	 */
+	protected Logger logger;
+	protected Level logLevel;
+	protected boolean isInUse = false;
+
 
 	protected LogBuilder() {
+		this(true);
+	}
+
+	protected LogBuilder(boolean myIsEnabled) {
 		logMessage = new StringBuilder();
+		isEnabled = myIsEnabled;
 	}
 
 
@@ -67,26 +116,52 @@ public class LogBuilder {
 	 */
 	protected static LogBuilder doCreateMessage(String level) {
 		LogBuilder result = new LogBuilder();
-		Session session = SessionManager.getThreadLocalSession();
-		String sessionName;
-		String clientName;
-		if (session != null) {
-			sessionName = session.getName();
-			Client client = UserManager.getInstance().getClientById(session.getClientId());
-			if (client != null) {
-				clientName = client.getNickName();
-			} else {
-				clientName = UserSession.ANONYMOUS_CLIENT;
-			}
-		} else {
-			sessionName = Session.NO_SESSION;
-			clientName = UserSession.ANONYMOUS_CLIENT;
+		result.level = level;
+		result.session = SessionManager.getThreadLocalSession();
+		return result;
+	}
+
+	/**
+	 * @methodtype factory
+	 *
+	 * Creates a LogBuilder for a message of user level to be logged with log(). If the logger discards the log level,
+	 * the returned builder ignores everything added to it.
+	 */
+	public static LogBuilder createUserMessage(Logger logger, Level logLevel) {
+		return doCreateMessage(USER_LEVEL, logger, logLevel);
+	}
+
+	/**
+	 * @methodtype factory
+	 *
+	 * Creates a LogBuilder for a message of system level to be logged with log(). If the logger discards the log level,
+	 * the returned builder ignores everything added to it.
+	 */
+	public static LogBuilder createSystemMessage(Logger logger, Level logLevel) {
+		return doCreateMessage(SYSTEM_LEVEL, logger, logLevel);
+	}
+
+	/**
+	 * @methodtype factory
+	 *
+	 * Primitive Method that hands out the builder of the current thread, or a new one while that is in use, e.g. when
+	 * a parameter value logs itself.
+	 */
+	protected static LogBuilder doCreateMessage(String level, Logger logger, Level logLevel) {
+		if (!logger.isLoggable(logLevel)) {
+			return DISABLED_BUILDER;
 		}
 
-		result.add(LEVEL + NAME_VALUE_SEPARATOR + level);
-		result.add(SESSION + NAME_VALUE_SEPARATOR + sessionName);
-		result.add(CLIENT + NAME_VALUE_SEPARATOR + clientName);
+		LogBuilder result = threadLocalBuilder.get();
+		if (result.isInUse) {
+			result = new LogBuilder();
+		}
 
+		result.isInUse = true;
+		result.level = level;
+		result.session = SessionManager.getThreadLocalSession();
+		result.logger = logger;
+		result.logLevel = logLevel;
 		return result;
 	}
 
@@ -97,12 +172,8 @@ public class LogBuilder {
 
 		assert logMessage != null;
 
-		if (logMessage.length() == 0) {
-			logMessage.append(logMessagePart);
-		} else {
-			logMessage.append(INFO_SEPARATOR);
-			logMessage.append(logMessagePart);
-		}
+		logMessage.append(INFO_SEPARATOR);
+		logMessage.append(logMessagePart);
 	}
 
 
@@ -124,7 +195,11 @@ public class LogBuilder {
 	 * Adds the following to the LogMessage: ", <name>=<value>".
 	 */
 	public LogBuilder addParameter(String name, int value) {
-		add(name + NAME_VALUE_SEPARATOR + String.valueOf(value));
+		if (!isEnabled) {
+			return this;
+		}
+
+		logMessage.append(INFO_SEPARATOR).append(name).append(NAME_VALUE_SEPARATOR).append(value);
 		return this;
 	}
 
@@ -134,7 +209,11 @@ public class LogBuilder {
 	 * Adds the following to the LogMessage: ", <name>=<value>".
 	 */
 	public LogBuilder addParameter(String name, boolean value) {
-		add(name + NAME_VALUE_SEPARATOR + String.valueOf(value));
+		if (!isEnabled) {
+			return this;
+		}
+
+		logMessage.append(INFO_SEPARATOR).append(name).append(NAME_VALUE_SEPARATOR).append(value);
 		return this;
 	}
 
@@ -144,7 +223,11 @@ public class LogBuilder {
 	 * Adds the following to the LogMessage: ", <name>=<value>".
 	 */
 	public LogBuilder addParameter(String name, String value) {
-		add(name + NAME_VALUE_SEPARATOR + value);
+		if (!isEnabled) {
+			return this;
+		}
+
+		logMessage.append(INFO_SEPARATOR).append(name).append(NAME_VALUE_SEPARATOR).append(value);
 		return this;
 	}
 
@@ -154,7 +237,11 @@ public class LogBuilder {
 	 * Adds the following to the LogMessage: ", <name>=<value>.toString()".
 	 */
 	public LogBuilder addParameter(String name, Object value) {
-		add(name + NAME_VALUE_SEPARATOR + value.toString());
+		if (!isEnabled) {
+			return this;
+		}
+
+		logMessage.append(INFO_SEPARATOR).append(name).append(NAME_VALUE_SEPARATOR).append(value.toString());
 		return this;
 	}
 
@@ -164,7 +251,9 @@ public class LogBuilder {
 	 * Adds the message to the LogMessage: ", <message>".
 	 */
 	public LogBuilder addMessage(String message) {
-		add(message);
+		if (isEnabled) {
+			add(message);
+		}
 		return this;
 	}
 
@@ -174,6 +263,10 @@ public class LogBuilder {
 	 * Adds the stacktrace and the <code>exceptionMessage</code> to the log message.
 	 */
 	public LogBuilder addException(String exceptionMessage, Throwable throwable) {
+		if (!isEnabled) {
+			return this;
+		}
+
 		add(EXCEPTION_REASON + NAME_VALUE_SEPARATOR + exceptionMessage);
 		StringWriter sw = new StringWriter();
 		throwable.printStackTrace(new PrintWriter(sw));
@@ -190,7 +283,9 @@ public class LogBuilder {
 	 * Adds the info that the action is performed the log message: "action=<action>".
 	 */
 	public LogBuilder addAction(String action) {
-		add(ACTION + NAME_VALUE_SEPARATOR + action);
+		if (isEnabled) {
+			add(ACTION + NAME_VALUE_SEPARATOR + action);
+		}
 		return this;
 	}
 
@@ -206,8 +301,50 @@ public class LogBuilder {
 	public String toString() {
 
 		assert logMessage != null;
-		assert logMessage.length() > 0;
 
-		return logMessage.toString();
+		String sessionName = Session.NO_SESSION;
+		String clientName = UserSession.ANONYMOUS_CLIENT;
+		if (session != null) {
+			sessionName = session.getName();
+			Client client = UserManager.getInstance().getClientById(session.getClientId());
+			if (client != null) {
+				clientName = client.getNickName();
+			}
+		}
+
+		StringBuilder result = new StringBuilder(logMessage.length() + 64);
+		result.append(LEVEL).append(NAME_VALUE_SEPARATOR).append(level);
+		result.append(INFO_SEPARATOR).append(SESSION).append(NAME_VALUE_SEPARATOR).append(sessionName);
+		result.append(INFO_SEPARATOR).append(CLIENT).append(NAME_VALUE_SEPARATOR).append(clientName);
+		result.append(logMessage);
+		return result.toString();
+	}
+
+	/**
+	 * @methodtype command
+	 *
+	 * Logs the message with the logger and log level it was created for and frees the builder for reuse.
+	 */
+	public void log() {
+		if (!isEnabled) {
+			return;
+		}
+
+		assert logger != null;
+
+		try {
+			// loggers are named after their class, so the name is the source; this saves walking the stack for it
+			logger.logp(logLevel, logger.getName(), null, toString());
+		} finally {
+			if (logMessage.capacity() > MAX_REUSED_LENGTH) {
+				logMessage = new StringBuilder();
+			} else {
+				logMessage.setLength(0);
+			}
+			session = null;
+			logger = null;
+			logLevel = null;
+			isInUse = false;
+		}
 	}
 }
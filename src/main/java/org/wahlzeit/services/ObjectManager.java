@@ -20,11 +20,17 @@
 
 package org.wahlzeit.services;
 
+import com.google.appengine.api.datastore.Cursor;
 import com.google.appengine.api.datastore.Key;
 import com.google.appengine.api.datastore.KeyFactory;
+import com.google.appengine.api.datastore.QueryResultIterator;
+import com.googlecode.objectify.cmd.Query;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
@@ -38,8 +44,23 @@ public abstract class ObjectManager {
 	 */
 	public static final Key applicationRootKey = KeyFactory.createKey("Application", "Wahlzeit");
 
+	/**
+	 * Number of entities read with one Datastore query when reading all entities of a type in chunks
+	 */
+	public static final int READ_CHUNK_SIZE = 500;
+
+	/**
+	 * Maximum number of entities written with one batched Datastore save
+	 */
+	public static final int WRITE_CHUNK_SIZE = 500;
+
 	private static final Logger log = Logger.getLogger(ObjectManager.class.getName());
 
+	/**
+	 *
+	 */
+	protected final List<ObjectChangeListener> changeListeners = new CopyOnWriteArrayList<ObjectChangeListener>();
+
 
 	/**
 	 * Reads the first Entity with the given key in the Datastore
@@ -48,8 +69,8 @@ public abstract class ObjectManager {
 		assertIsNonNullArgument(type, "type");
 		assertIsNonNullArgument(id, "id");
 
-		log.config(LogBuilder.createSystemMessage().
-				addMessage("Load Type " + type.toString() + " with ID " + id + " from datastore.").toString());
+		LogBuilder.createSystemMessage(log, Level.CONFIG).
+				addMessage("Load Type " + type.toString() + " with ID " + id + " from datastore.").log();
 		return OfyService.ofy().load().type(type).id(id).now();
 	}
 
@@ -69,8 +90,8 @@ public abstract class ObjectManager {
 		assertIsNonNullArgument(type, "type");
 		assertIsNonNullArgument(id, "id");
 
-		log.config(LogBuilder.createSystemMessage().
-				addMessage("Load Type " + type.toString() + " with ID " + id + " from datastore.").toString());
+		LogBuilder.createSystemMessage(log, Level.CONFIG).
+				addMessage("Load Type " + type.toString() + " with ID " + id + " from datastore.").log();
 		return OfyService.ofy().load().type(type).id(id).now();
 	}
 
@@ -83,9 +104,9 @@ public abstract class ObjectManager {
 		assertIsNonNullArgument(parameterName, "parameterName");
 		assertIsNonNullArgument(value, "value");
 
-		log.config(LogBuilder.createSystemMessage().
+		LogBuilder.createSystemMessage(log, Level.CONFIG).
 				addMessage("Load Type " + type.toString() + " with parameter " +
-						parameterName + " == " + value + " from datastore.").toString());
+						parameterName + " == " + value + " from datastore.").log();
 
 		return OfyService.ofy().load().type(type).ancestor(applicationRootKey).filter(parameterName, value).first()
 				.now();
@@ -98,14 +119,48 @@ public abstract class ObjectManager {
 		assertIsNonNullArgument(result, "result");
 		assertIsNonNullArgument(type, "type");
 
-		log.config(LogBuilder.createSystemMessage().
-				addParameter("Datastore: load all entities of type", type.getName()).toString());
+		LogBuilder.createSystemMessage(log, Level.CONFIG).
+				addParameter("Datastore: load all entities of type", type.getName()).log();
 		List<E> objects = OfyService.ofy().load().type(type).ancestor(applicationRootKey).list();
-		log.config(LogBuilder.createSystemMessage().
-				addParameter("Datastore: number of loaded objects", objects.size()).toString());
+		LogBuilder.createSystemMessage(log, Level.CONFIG).
+				addParameter("Datastore: number of loaded objects", objects.size()).log();
 		result.addAll(objects);
 	}
 
+	/**
+	 * Reads all Entities of the specified type chunk by chunk. Each chunk is one Datastore query of at most chunkSize
+	 * entities that continues at the cursor of the previous chunk, so no single query has to return all entities.
+	 */
+	protected <E> void readObjects(Collection<E> result, Class<E> type, int chunkSize) {
+		assertIsNonNullArgument(result, "result");
+		assertIsNonNullArgument(type, "type");
+
+		LogBuilder.createSystemMessage(log, Level.CONFIG).
+				addParameter("Datastore: load all entities in chunks of type", type.getName()).log();
+		Cursor cursor = null;
+		int noObjects = 0;
+		int noObjectsInChunk;
+		int noChunks = 0;
+		do {
+			Query<E> query = OfyService.ofy().load().type(type).ancestor(applicationRootKey).limit(chunkSize);
+			if (cursor != null) {
+				query = query.startAt(cursor);
+			}
+
+			QueryResultIterator<E> iterator = query.iterator();
+			for (noObjectsInChunk = 0; iterator.hasNext(); noObjectsInChunk++) {
+				result.add(iterator.next());
+			}
+			cursor = iterator.getCursor();
+			noObjects += noObjectsInChunk;
+			noChunks++;
+		} while ((noObjectsInChunk == chunkSize) && (cursor != null));
+
+		LogBuilder.createSystemMessage(log, Level.CONFIG).
+				addParameter("Datastore: number of loaded objects", noObjects).
+				addParameter("number of chunks", noChunks).log();
+	}
+
 	/**
 	 * Reads all Entities of the specified type, where the given property matches the wanted value e.g.
 	 * readObject(User.class) to get a list of all clients
@@ -116,23 +171,49 @@ public abstract class ObjectManager {
 		assertIsNonNullArgument(propertyName, "propertyName");
 		assertIsNonNullArgument(value, "value");
 
-		log.info(LogBuilder.createSystemMessage().
+		LogBuilder.createSystemMessage(log, Level.INFO).
 				addMessage("Datastore: Load all Entities of type " + type.toString() + " where parameter "
-						+ propertyName + " = " + value.toString() + " from datastore.").toString());
+						+ propertyName + " = " + value.toString() + " from datastore.").log();
 		List<E> objects = OfyService.ofy().load().type(type).
 				ancestor(applicationRootKey).filter(propertyName, value).list();
-		log.config(LogBuilder.createSystemMessage().
-				addParameter("Datastore: number of loaded objects", objects.size()).toString());
+		LogBuilder.createSystemMessage(log, Level.CONFIG).
+				addParameter("Datastore: number of loaded objects", objects.size()).log();
 		result.addAll(objects);
 	}
 
 	/**
-	 * Updates all entities of the given collection in the datastore.
+	 * Updates all entities of the given collection in the datastore and waits for the writes to complete.
 	 */
 	protected void updateObjects(Collection<? extends Persistent> collection) {
-		for (Persistent object : collection) {
-			updateObject(object);
+		updateObjectsAsync(collection).now();
+	}
+
+	/**
+	 * Writes all dirty entities of the given collection to the datastore in batched chunks. Does not wait for the writes
+	 * to complete; call now() on the result to do so. Once now() has seen the writes complete, it updates the dependents
+	 * of the entities and waits for them as well.
+	 *
+	 * If a write fails, its objects stay dirty and are written again, with their dependents, by the next save; dependents
+	 * must therefore tolerate being updated more than once for the objects they depend on.
+	 */
+	protected WriteResult updateObjectsAsync(Collection<? extends Persistent> collection) {
+		assertIsNonNullArgument(collection, "collection");
+
+		List<Persistent> dirtyObjects = getDirtyObjects(collection);
+		WriteResult result = doWriteObjectsAsync(dirtyObjects);
+		if (!dirtyObjects.isEmpty()) {
+			result.setDependentsManager(this);
 		}
+		return result;
+	}
+
+	/**
+	 * Queues the given entity to be written by the WriteBehindQueue with its next flush.
+	 */
+	protected void updateObjectLater(Persistent object) {
+		assertIsNonNullArgument(object, "object");
+
+		WriteBehindQueue.getInstance().add(this, object);
 	}
 
 	/**
@@ -149,15 +230,75 @@ public abstract class ObjectManager {
 		assertIsNonNullArgument(object, "object");
 
 		if (object.isDirty()) {
-			log.info(LogBuilder.createSystemMessage().
-					addParameter("Datastore: Write object of type", object).toString());
+			LogBuilder.createSystemMessage(log, Level.INFO).
+					addParameter("Datastore: Write object of type", object).log();
+			int writeCount = object.getWriteCount();
 			OfyService.ofy().save().entity(object).now();
 			updateDependents(object);
-			object.resetWriteCount();
+			object.decWriteCount(writeCount);
 		} else {
-			log.info(LogBuilder.createSystemMessage().
-					addParameter("Datastore: No need to update object", object).toString());
+			LogBuilder.createSystemMessage(log, Level.INFO).
+					addParameter("Datastore: No need to update object", object).log();
+		}
+	}
+
+	/**
+	 * Writes all dirty entities of the collection to the datastore in batched chunks and waits for the writes to
+	 * complete. Dependents are not updated.
+	 */
+	protected void writeObjects(Collection<? extends Persistent> objects) {
+		assertIsNonNullArgument(objects, "objects");
+
+		doWriteObjectsAsync(getDirtyObjects(objects)).now();
+	}
+
+	/**
+	 * Saves the objects with one asynchronous, batched save per chunk of at most WRITE_CHUNK_SIZE objects.
+	 */
+	protected WriteResult doWriteObjectsAsync(List<Persistent> dirtyObjects) {
+		if (dirtyObjects.isEmpty()) {
+			return WriteResult.EMPTY_RESULT;
+		}
+
+		LogBuilder.createSystemMessage(log, Level.INFO).
+				addParameter("Datastore: Write number of objects", dirtyObjects.size()).log();
+		WriteResult result = new WriteResult(dirtyObjects);
+		for (int i = 0; i < dirtyObjects.size(); i += WRITE_CHUNK_SIZE) {
+			List<Persistent> chunk = dirtyObjects.subList(i, Math.min(i + WRITE_CHUNK_SIZE, dirtyObjects.size()));
+			result.addChunkResult(OfyService.ofy().save().entities(new ArrayList<Persistent>(chunk)));
 		}
+		return result;
+	}
+
+	/**
+	 * @methodtype helper
+	 */
+	protected List<Persistent> getDirtyObjects(Collection<? extends Persistent> objects) {
+		List<Persistent> result = new ArrayList<Persistent>();
+		for (Persistent object : objects) {
+			if (object.isDirty()) {
+				result.add(object);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Updates all dependencies of the objects that have just been written. Overwrite to update dependencies in bulk.
+	 */
+	protected void updateDependents(Collection<? extends Persistent> objects) {
+		for (Persistent object : objects) {
+			updateDependents(object);
+		}
+	}
+
+	/**
+	 * Starts updating all dependencies of the objects that have just been written; call now() on the result to wait for
+	 * them. Updates them synchronously unless overwritten.
+	 */
+	protected WriteResult updateDependentsAsync(Collection<? extends Persistent> objects) {
+		updateDependents(objects);
+		return WriteResult.EMPTY_RESULT;
 	}
 
 	/**
@@ -173,10 +314,40 @@ public abstract class ObjectManager {
 	protected <E> void deleteObject(E object) {
 		assertIsNonNullArgument(object, "object");
 
-		log.config(LogBuilder.createSystemMessage().addParameter("Datastore: delete entity", object).toString());
+		LogBuilder.createSystemMessage(log, Level.CONFIG).addParameter("Datastore: delete entity", object).log();
 		OfyService.ofy().delete().entity(object).now();
 	}
 
+	/**
+	 * Deletes all entities of the collection from the datastore with one batched delete.
+	 */
+	protected <E> void deleteObjects(Collection<E> objects) {
+		assertIsNonNullArgument(objects, "objects");
+		if (objects.isEmpty()) {
+			return;
+		}
+
+		LogBuilder.createSystemMessage(log, Level.CONFIG).
+				addParameter("Datastore: delete number of entities", objects.size()).log();
+		OfyService.ofy().delete().entities(objects).now();
+	}
+
+	/**
+	 * Starts deleting all entities of the collection with one batched delete; call now() on the result to wait for it.
+	 */
+	protected <E> WriteResult deleteObjectsAsync(Collection<E> objects) {
+		assertIsNonNullArgument(objects, "objects");
+		if (objects.isEmpty()) {
+			return WriteResult.EMPTY_RESULT;
+		}
+
+		LogBuilder.createSystemMessage(log, Level.CONFIG).
+				addParameter("Datastore: delete number of entities", objects.size()).log();
+		WriteResult result = new WriteResult(new ArrayList<Persistent>());
+		result.addChunkResult(OfyService.ofy().delete().entities(objects));
+		return result;
+	}
+
 	/**
 	 * Deletes all entities of the type that have a property with the specified value, e.g.
 	 * deleteObjects(PhotoCase.class, "wasDecided", true) to delete all cases that have been decided.
@@ -186,9 +357,9 @@ public abstract class ObjectManager {
 		assertIsNonNullArgument(propertyName, "propertyName");
 		assertIsNonNullArgument(value, "value");
 
-		log.info(LogBuilder.createSystemMessage().
+		LogBuilder.createSystemMessage(log, Level.INFO).
 				addMessage("Datastore: delete entities of type " + type
-						+ " where property " + propertyName + " == " + value).toString());
+						+ " where property " + propertyName + " == " + value).log();
 		List<com.googlecode.objectify.Key<E>> keys = OfyService.ofy().load().type(type).
 				ancestor(applicationRootKey).filter(propertyName, value).keys().list();
 		OfyService.ofy().delete().keys(keys);
@@ -201,4 +372,30 @@ public abstract class ObjectManager {
 		assertIsNonNullArgument(arg, "anonymous");
 	}
 
+
+	// change listeners ------------------------------------------------------------------------------------------------
+
+	/**
+	 * @methodtype command
+	 */
+	public void addChangeListener(ObjectChangeListener listener) {
+		changeListeners.add(listener);
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	public void removeChangeListener(ObjectChangeListener listener) {
+		changeListeners.remove(listener);
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	protected void fireObjectChanged(Persistent object) {
+		for (ObjectChangeListener listener : changeListeners) {
+			listener.objectChanged(this, object);
+		}
+	}
+
 }
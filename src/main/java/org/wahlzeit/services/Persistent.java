@@ -41,4 +41,14 @@ public interface Persistent {
 	 */
 	void resetWriteCount();
 
+	/**
+	 *
+	 */
+	int getWriteCount();
+
+	/**
+	 * Takes back the given number of changes, which a write has just stored; later changes keep the object dirty.
+	 */
+	void decWriteCount(int count);
+
 }
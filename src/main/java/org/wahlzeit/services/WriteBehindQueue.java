@@ -0,0 +1,244 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.services;
+
+import org.wahlzeit.agents.AsyncTaskExecutor;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A WriteBehindQueue collects dirty Persistent objects, together with the ObjectManager that writes them, and writes
+ * them later in batches. An object that is modified several times before the next flush is written only once. The
+ * queue is flushed when it holds maxSize objects or its oldest object has waited for maxDelay ms, and on shut down.
+ * Requests check whether a flush is due when they end; so that an instance without requests flushes as well, the first
+ * object added after a flush schedules a task that checks again after maxDelay ms.
+ */
+public class WriteBehindQueue {
+
+	private static final Logger log = Logger.getLogger(WriteBehindQueue.class.getName());
+
+	/**
+	 * System properties to configure the flush thresholds, see appengine-web.xml
+	 */
+	public static final String MAX_SIZE_PROPERTY = "org.wahlzeit.writeBehindQueue.maxSize";
+	public static final String MAX_DELAY_PROPERTY = "org.wahlzeit.writeBehindQueue.maxDelay";
+
+	/**
+	 *
+	 */
+	public static final int DEFAULT_MAX_SIZE = 200;
+	public static final long DEFAULT_MAX_DELAY = 10 * 1000; // = 10 s
+
+	/**
+	 *
+	 */
+	protected static final WriteBehindQueue instance = new WriteBehindQueue(
+			Integer.getInteger(MAX_SIZE_PROPERTY, DEFAULT_MAX_SIZE), Long.getLong(MAX_DELAY_PROPERTY, DEFAULT_MAX_DELAY));
+
+	/**
+	 * Dirty objects for each ObjectManager; the sets are concurrent, so adding does not block a running flush
+	 */
+	protected final ConcurrentMap<ObjectManager, Set<Persistent>> dirtyObjects =
+			new ConcurrentHashMap<ObjectManager, Set<Persistent>>();
+
+	/**
+	 *
+	 */
+	protected final AtomicInteger size = new AtomicInteger();
+
+	/**
+	 * Time in ms when the first object was added after the last flush, 0 if the queue is empty
+	 */
+	protected final AtomicLong firstAddTime = new AtomicLong();
+
+	/**
+	 *
+	 */
+	protected final Object flushLock = new Object();
+
+	/**
+	 *
+	 */
+	protected final int maxSize;
+	protected final long maxDelay;
+
+	/**
+	 *
+	 */
+	public WriteBehindQueue(int myMaxSize, long myMaxDelay) {
+		maxSize = myMaxSize;
+		maxDelay = myMaxDelay;
+	}
+
+	/**
+	 *
+	 */
+	public static WriteBehindQueue getInstance() {
+		return instance;
+	}
+
+	/**
+	 * @methodtype command
+	 *
+	 * Adds the object to be written by the object manager with the next flush; flushes if that is due.
+	 */
+	public void add(ObjectManager objectManager, Persistent object) {
+		doAdd(objectManager, object);
+		flushIfDue();
+	}
+
+	/**
+	 * @methodtype command
+	 * @methodproperty primitive
+	 */
+	protected void doAdd(ObjectManager objectManager, Persistent object) {
+		Set<Persistent> objects = dirtyObjects.get(objectManager);
+		if (objects == null) {
+			Set<Persistent> newObjects = Collections.newSetFromMap(new ConcurrentHashMap<Persistent, Boolean>());
+			objects = dirtyObjects.putIfAbsent(objectManager, newObjects);
+			if (objects == null) {
+				objects = newObjects;
+			}
+		}
+
+		if (objects.add(object)) {
+			size.incrementAndGet();
+			if (firstAddTime.compareAndSet(0, System.currentTimeMillis())) {
+				scheduleFlush();
+			}
+		}
+	}
+
+	/**
+	 * @methodtype command
+	 *
+	 * Schedules a check whether a flush is due after maxDelay ms.
+	 */
+	protected void scheduleFlush() {
+		try {
+			AsyncTaskExecutor.flushWritesAsync(maxDelay);
+		} catch (RuntimeException e) {
+			log.warning(LogBuilder.createSystemMessage().
+					addException("Write-behind: could not schedule flush", e).toString());
+		}
+	}
+
+	/**
+	 * @methodtype boolean-query
+	 */
+	public boolean isFlushDue() {
+		if (size.get() >= maxSize) {
+			return true;
+		}
+
+		long addTime = firstAddTime.get();
+		return (addTime != 0) && ((System.currentTimeMillis() - addTime) >= maxDelay);
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	public void flushIfDue() {
+		if (isFlushDue()) {
+			flush();
+		}
+	}
+
+	/**
+	 * @methodtype command
+	 *
+	 * Writes all queued objects, one batched write per object manager, and waits for the writes to complete. Objects
+	 * changed again while their write is in flight are queued again by their save; objects of a failed write are put
+	 * back into the queue, and the writes of the other object managers go on.
+	 */
+	public void flush() {
+		synchronized (flushLock) {
+			firstAddTime.set(0);
+
+			Map<WriteResult, ObjectManager> results = new LinkedHashMap<WriteResult, ObjectManager>();
+			int noObjects = 0;
+			for (Map.Entry<ObjectManager, Set<Persistent>> entry : dirtyObjects.entrySet()) {
+				List<Persistent> objects = new ArrayList<Persistent>();
+				for (Iterator<Persistent> i = entry.getValue().iterator(); i.hasNext(); ) {
+					objects.add(i.next());
+					i.remove();
+					size.decrementAndGet();
+				}
+
+				if (!objects.isEmpty()) {
+					try {
+						results.put(entry.getKey().updateObjectsAsync(objects), entry.getKey());
+						noObjects += objects.size();
+					} catch (RuntimeException e) {
+						requeue(entry.getKey(), objects, e);
+					}
+				}
+			}
+
+			for (Map.Entry<WriteResult, ObjectManager> result : results.entrySet()) {
+				try {
+					result.getKey().now();
+				} catch (RuntimeException e) {
+					requeue(result.getValue(), result.getKey().getObjects(), e);
+				}
+			}
+
+			if (noObjects > 0) {
+				LogBuilder.createSystemMessage(log, Level.CONFIG).
+						addParameter("Write-behind: flushed number of objects", noObjects).log();
+			}
+		}
+	}
+
+	/**
+	 * @methodtype command
+	 *
+	 * Puts the objects of a failed write back into the queue; they stay dirty and are written again by the next flush.
+	 */
+	protected void requeue(ObjectManager objectManager, List<? extends Persistent> objects, RuntimeException e) {
+		for (Persistent object : objects) {
+			doAdd(objectManager, object);
+		}
+		log.warning(LogBuilder.createSystemMessage().
+				addParameter("Write-behind: requeued number of objects", objects.size()).
+				addException("Write-behind: problem when writing objects", e).toString());
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public int getSize() {
+		return size.get();
+	}
+
+}
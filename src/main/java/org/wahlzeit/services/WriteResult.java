@@ -0,0 +1,145 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.services;
+
+import com.googlecode.objectify.Result;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A WriteResult is the pending result of a batched, asynchronous write of Persistent objects. The objects stay dirty
+ * until now() has seen all chunks of the write complete, so a failed write does not lose their changes. The write
+ * counts of the objects are recorded when the write is issued, and now() takes back only these; changes made while the
+ * write was in flight keep the objects dirty, so they are written again.
+ *
+ * If the write has a dependents manager, now() has it update the dependents of the objects once they are written, and
+ * waits for these writes as well; the objects stay dirty until then.
+ */
+public class WriteResult {
+
+	/**
+	 *
+	 */
+	public static final WriteResult EMPTY_RESULT = new WriteResult(Collections.<Persistent>emptyList());
+
+	/**
+	 *
+	 */
+	protected final List<Persistent> objects;
+	protected final int[] writeCounts;
+	protected final List<Result<?>> chunkResults = new ArrayList<Result<?>>();
+	protected final List<WriteResult> dependentResults = new ArrayList<WriteResult>();
+
+	/**
+	 * Manager to update the dependents of the objects once they are written, or null if there is none
+	 */
+	protected ObjectManager dependentsManager = null;
+
+	/**
+	 *
+	 */
+	protected boolean isDone = false;
+
+	/**
+	 *
+	 */
+	public WriteResult(List<Persistent> myObjects) {
+		objects = myObjects;
+		writeCounts = new int[objects.size()];
+		for (int i = 0; i < writeCounts.length; i++) {
+			writeCounts[i] = objects.get(i).getWriteCount();
+		}
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	protected void addChunkResult(Result<?> chunkResult) {
+		chunkResults.add(chunkResult);
+	}
+
+	/**
+	 * @methodtype command
+	 *
+	 * Adds a write that now() waits for as well, e.g. one of the dependents of the objects.
+	 */
+	public synchronized void addDependentResult(WriteResult dependentResult) {
+		dependentResults.add(dependentResult);
+	}
+
+	/**
+	 * @methodtype set
+	 */
+	protected synchronized void setDependentsManager(ObjectManager manager) {
+		dependentsManager = manager;
+	}
+
+	/**
+	 * @methodtype command
+	 *
+	 * Waits for all chunks to be written, then for the dependents to be written, and takes back the changes the write
+	 * stored.
+	 */
+	public synchronized void now() {
+		if (isDone) {
+			return;
+		}
+
+		for (Result<?> chunkResult : chunkResults) {
+			chunkResult.now();
+		}
+		if (dependentsManager != null) {
+			dependentResults.add(dependentsManager.updateDependentsAsync(objects));
+			dependentsManager = null;
+		}
+		for (WriteResult dependentResult : dependentResults) {
+			dependentResult.now();
+		}
+		for (int i = 0; i < writeCounts.length; i++) {
+			objects.get(i).decWriteCount(writeCounts[i]);
+		}
+		isDone = true;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public List<Persistent> getObjects() {
+		return objects;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public int getNoObjects() {
+		return objects.size();
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public int getNoChunks() {
+		return chunkResults.size();
+	}
+
+}
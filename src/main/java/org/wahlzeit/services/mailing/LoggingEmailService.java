@@ -24,6 +24,7 @@ import org.wahlzeit.annotations.Pattern;
 import org.wahlzeit.services.EmailAddress;
 import org.wahlzeit.services.LogBuilder;
 
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
@@ -61,11 +62,11 @@ public class LoggingEmailService implements EmailService {
 		String toString = (to == null) ? "null" : to.asString();
 		String subjectString = (subject == null) ? "null" : subject;
 
-		log.config(LogBuilder.createSystemMessage().
+		LogBuilder.createSystemMessage(log, Level.CONFIG).
 				addAction("Send E-Mail").
 				addParameter("from", fromString).
 				addParameter("to", toString).
-				addParameter("subject", subjectString).toString());
+				addParameter("subject", subjectString).log();
 
 		decorated.sendEmail(from, to, subject, body);
 	}
@@ -95,12 +96,12 @@ public class LoggingEmailService implements EmailService {
 		String bccString = (bcc == null) ? "null" : bcc.asString();
 		String subjectString = (subject == null) ? "null" : subject;
 
-		log.config(LogBuilder.createSystemMessage().
+		LogBuilder.createSystemMessage(log, Level.CONFIG).
 				addAction("Send E-Mail").
 				addParameter("from", fromString).
 				addParameter("to", toString).
 				addParameter("bcc", bccString).
-				addParameter("subject", subjectString).toString());
+				addParameter("subject", subjectString).log();
 
 		decorated.sendEmail(from, to, bcc, subject, body);
 	}
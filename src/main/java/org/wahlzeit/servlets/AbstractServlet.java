@@ -25,6 +25,7 @@ import org.wahlzeit.model.UserSession;
 import org.wahlzeit.services.LogBuilder;
 import org.wahlzeit.services.Session;
 import org.wahlzeit.services.SessionManager;
+import org.wahlzeit.services.WriteBehindQueue;
 import org.wahlzeit.utils.StringUtil;
 import org.wahlzeit.webparts.WebPart;
 
@@ -34,10 +35,12 @@ import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import javax.servlet.http.HttpSession;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.PrintWriter;
 import java.net.InetAddress;
 import java.util.Iterator;
 import java.util.Map;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
@@ -87,8 +90,10 @@ public abstract class AbstractServlet extends HttpServlet {
 			displayNullPage(request, response);
 		} else {
 			myGet(request, response);
+			us.saveState();
 		}
 
+		WriteBehindQueue.getInstance().flushIfDue();
 		SessionManager.dropThreadLocalSession();
 	}
 
@@ -106,8 +111,10 @@ public abstract class AbstractServlet extends HttpServlet {
 			displayNullPage(request, response);
 		} else {
 			myPost(request, response);
+			us.saveState();
 		}
 
+		WriteBehindQueue.getInstance().flushIfDue();
 		SessionManager.dropThreadLocalSession();
 	}
 
@@ -170,7 +177,7 @@ public abstract class AbstractServlet extends HttpServlet {
 	protected void redirectRequest(HttpServletResponse response, String link) throws IOException {
 		response.setContentType("text/html");
 		String newTarget = new String("/" + link + ".html");
-		log.config(LogBuilder.createSystemMessage().addParameter("Redirect to", newTarget).toString());
+		LogBuilder.createSystemMessage(log, Level.CONFIG).addParameter("Redirect to", newTarget).log();
 		response.sendRedirect(newTarget);
 	}
 
@@ -180,12 +187,13 @@ public abstract class AbstractServlet extends HttpServlet {
 	protected void configureResponse(Session ctx, HttpServletResponse response, WebPart result) throws IOException {
 		long processingTime = ctx.getProcessingTime();
 		result.addString("processingTime", StringUtil.asStringInSeconds((processingTime == 0) ? 1 : processingTime));
-		log.config(LogBuilder.createSystemMessage().
-				addParameter("proctime", String.valueOf(processingTime)).toString());
+		LogBuilder.createSystemMessage(log, Level.CONFIG).
+				addParameter("proctime", String.valueOf(processingTime)).log();
 
-		response.setContentType("text/html");
+		response.setContentType("text/html; charset=UTF-8");
 
-		PrintWriter out = response.getWriter();
+		// the templates are written as pre-encoded UTF-8 bytes, without a Writer in between
+		OutputStream out = response.getOutputStream();
 		result.writeOn(out);
 		out.close();
 
@@ -28,6 +28,7 @@ import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
@@ -48,7 +49,7 @@ public class AgentServlet extends HttpServlet {
 		int nameStart = requestUri.lastIndexOf("/") + 1;
 		int nameEnd = requestUri.length();
 		String agentName = requestUri.substring(nameStart, nameEnd);
-		log.config(LogBuilder.createSystemMessage().addParameter("agent name", agentName).toString());
+		LogBuilder.createSystemMessage(log, Level.CONFIG).addParameter("agent name", agentName).log();
 
 		try {
 			AgentManager.getInstance().startAgent(agentName);
@@ -24,6 +24,7 @@ import com.google.api.client.util.Charsets;
 import com.google.appengine.api.images.Image;
 import com.google.appengine.api.images.ImagesServiceFactory;
 import com.google.common.io.CharStreams;
+import org.apache.commons.fileupload.FileItemHeaders;
 import org.apache.commons.fileupload.FileItemIterator;
 import org.apache.commons.fileupload.FileItemStream;
 import org.apache.commons.fileupload.servlet.ServletFileUpload;
@@ -35,17 +36,18 @@ import org.wahlzeit.model.User;
 import org.wahlzeit.model.UserSession;
 import org.wahlzeit.services.LogBuilder;
 import org.wahlzeit.services.SessionManager;
+import org.wahlzeit.utils.BufferPool;
 import org.wahlzeit.webparts.WebPart;
 
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 
@@ -60,6 +62,26 @@ public class MainServlet extends AbstractServlet {
 	 */
 	private static final long serialVersionUID = 42L; // any one does; class never serialized
 
+	/**
+	 * System property to configure the maximum size of an uploaded image in bytes, see appengine-web.xml
+	 */
+	public static final String MAX_IMAGE_SIZE_PROPERTY = "org.wahlzeit.mainServlet.maxImageSize";
+
+	/**
+	 *
+	 */
+	public static final int DEFAULT_MAX_IMAGE_SIZE = 8 * 1024 * 1024; // = 8 MB
+
+	/**
+	 * Allowance for the form fields and multipart headers that come with an uploaded image
+	 */
+	protected static final int MAX_FORM_FIELDS_SIZE = 64 * 1024; // = 64 KB
+
+	/**
+	 *
+	 */
+	protected final int maxImageSize = Integer.getInteger(MAX_IMAGE_SIZE_PROPERTY, DEFAULT_MAX_IMAGE_SIZE);
+
 	/**
 	 *
 	 */
@@ -75,11 +97,11 @@ public class MainServlet extends AbstractServlet {
 		} else {
 			link = PartUtil.NULL_FORM_NAME;
 		}
-		log.info(LogBuilder.createUserMessage().addParameter("posted to", link).toString());
+		LogBuilder.createUserMessage(log, Level.INFO).addParameter("posted to", link).log();
 
 		Map args = getRequestArgs(request, us);
-		log.info(LogBuilder.createSystemMessage().
-				addParameter("POST arguments", getRequestArgsAsString(us, args)).toString());
+		LogBuilder.createSystemMessage(log, Level.INFO).
+				addParameter("POST arguments", getRequestArgsAsString(us, args)).log();
 
 		WebFormHandler formHandler = WebPartHandlerManager.getWebFormHandler(link);
 		link = PartUtil.DEFAULT_PAGE_NAME;
@@ -107,15 +129,15 @@ public class MainServlet extends AbstractServlet {
 		}
 
 		link = link.substring(linkStart, linkEnd);
-		log.info(LogBuilder.createUserMessage().addParameter("requested URI", request.getRequestURI()).toString());
+		LogBuilder.createUserMessage(log, Level.INFO).addParameter("requested URI", request.getRequestURI()).log();
 
 
 		WebPageHandler handler = WebPartHandlerManager.getWebPageHandler(link);
 		String newLink = PartUtil.DEFAULT_PAGE_NAME;
 		if (handler != null) {
 			Map args = getRequestArgs(request, us);
-			log.info(LogBuilder.createSystemMessage().
-					addParameter("GET arguments", getRequestArgsAsString(us, args)).toString());
+			LogBuilder.createSystemMessage(log, Level.INFO).
+					addParameter("GET arguments", getRequestArgsAsString(us, args)).log();
 			newLink = handler.handleGet(us, link, args);
 		}
 
@@ -146,12 +168,21 @@ public class MainServlet extends AbstractServlet {
 
 	/**
 	 * Searches for files in the request and puts them in the resulting map with the key "fileName". When a file is
-	 * found, you can access its path by searching for elements with the key "fileName".
+	 * found, you can access its path by searching for elements with the key "fileName". A request that is too large
+	 * for an image of at most maxImageSize bytes is not read at all.
 	 */
 	protected Map getMultiPartRequestArgs(HttpServletRequest request, UserSession us) throws IOException,
 			ServletException {
 		Map<String, String> result = new HashMap<String, String>();
 		result.putAll(request.getParameterMap());
+
+		int contentLength = request.getContentLength();
+		if (contentLength > maxImageSize + MAX_FORM_FIELDS_SIZE) {
+			log.warning(LogBuilder.createSystemMessage().
+					addParameter("Upload too large, not read; content length", contentLength).toString());
+			return result;
+		}
+
 		try {
 			ServletFileUpload upload = new ServletFileUpload();
 			FileItemIterator iterator = upload.getItemIterator(request);
@@ -162,19 +193,24 @@ public class MainServlet extends AbstractServlet {
 
 				if (!fileItemStream.isFormField()) {
 					InputStream inputStream = fileItemStream.openStream();
-					Image image = getImage(inputStream);
+					Image image = getImage(inputStream, getPartLength(fileItemStream));
 					User user = (User) us.getClient();
 					user.setUploadedImage(image);
 					result.put("fileName", filename);
-					log.config(LogBuilder.createSystemMessage().addParameter("Uploaded image", filename).toString());
+					if (image != null) {
+						LogBuilder.createSystemMessage(log, Level.CONFIG).addParameter("Uploaded image", filename).log();
+					} else {
+						log.warning(LogBuilder.createSystemMessage().
+								addParameter("Uploaded image too large, dropped", filename).toString());
+					}
 				} else {
 					String key = fileItemStream.getFieldName();
 					InputStream is = fileItemStream.openStream();
 					String value = CharStreams.toString(new InputStreamReader(is, Charsets.UTF_8));
 					result.put(key, value);
-					log.config(LogBuilder.createSystemMessage().
+					LogBuilder.createSystemMessage(log, Level.CONFIG).
 							addParameter("Key of uploaded parameter", key).
-							addParameter("value", value).toString());
+							addParameter("value", value).log();
 				}
 			}
 		} catch (Exception ex) {
@@ -185,22 +221,34 @@ public class MainServlet extends AbstractServlet {
 	}
 
 	/**
-	 * Create an Image object from the Input stream.
+	 * Create an Image object from the Input stream. The stream is read straight into the image data if the length of
+	 * the part is known, else into pooled buffers that are copied once into the image data. Returns null if the image
+	 * is larger than maxImageSize.
 	 */
-	private Image getImage(InputStream input) throws IOException {
-		Image image;
+	private Image getImage(InputStream input, int length) throws IOException {
 		try {
-			ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
-			byte[] buffer = new byte[1024 * 1024];
-			int bytesRead = input.read(buffer);
-			while (bytesRead != -1) {
-				outputStream.write(buffer, 0, bytesRead);
-				bytesRead = input.read(buffer);
-			}
-			image = ImagesServiceFactory.makeImage(outputStream.toByteArray());
+			byte[] imageData = BufferPool.getInstance().readFully(input, maxImageSize, length);
+			return (imageData != null) ? ImagesServiceFactory.makeImage(imageData) : null;
 		} finally {
 			input.close();
 		}
-		return image;
+	}
+
+	/**
+	 * Returns the length of the part as declared by its own Content-Length header, or -1 if it has none. Browsers
+	 * usually leave it out, as the length of the whole request is known.
+	 */
+	protected int getPartLength(FileItemStream fileItemStream) {
+		FileItemHeaders headers = fileItemStream.getHeaders();
+		String contentLength = (headers != null) ? headers.getHeader("Content-Length") : null;
+		if (contentLength == null) {
+			return -1;
+		}
+
+		try {
+			return Integer.parseInt(contentLength.trim());
+		} catch (NumberFormatException e) {
+			return -1;
+		}
 	}
 }
@@ -2,7 +2,9 @@ package org.wahlzeit.servlets;
 
 import com.google.appengine.api.images.Image;
 import org.apache.http.HttpStatus;
+import org.wahlzeit.model.ImageCache;
 import org.wahlzeit.model.Photo;
+import org.wahlzeit.model.PhotoId;
 import org.wahlzeit.model.PhotoManager;
 import org.wahlzeit.model.PhotoSize;
 import org.wahlzeit.model.persistence.ImageStorage;
@@ -11,7 +13,10 @@ import org.wahlzeit.services.LogBuilder;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
-import java.io.Serializable;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
@@ -26,6 +31,16 @@ public class StaticDataServlet extends AbstractServlet {
 
 	Logger log = Logger.getLogger(StaticDataServlet.class.getName());
 
+	/**
+	 * Scaled images never change for a given photo id and size, so they may be cached for good
+	 */
+	public static final String IMAGE_CACHE_CONTROL = "public, max-age=31536000, immutable";
+
+	/**
+	 *
+	 */
+	public static final String DEFAULT_IMAGE_CONTENT_TYPE = "image/jpeg";
+
 	@Override
 	public void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
 		try {
@@ -33,22 +48,14 @@ public class StaticDataServlet extends AbstractServlet {
 			String photoId = request.getParameter("photoId");
 			String sizeString = request.getParameter("size");
 			int size = Integer.valueOf(sizeString);
-			log.info(LogBuilder.createSystemMessage().
+			LogBuilder.createSystemMessage(log, Level.INFO).
 					addAction("Provide static resource").
 					addParameter("type", type).
 					addParameter("photoId", photoId).
-					addParameter("size", size).toString());
+					addParameter("size", size).log();
 
 			if ("image".equals(type)) {
-				Image image = getImage(photoId, size);
-				if (image != null) {
-					response.getOutputStream().write(image.getImageData());
-					response.getOutputStream().flush();
-					response.setStatus(HttpStatus.SC_OK);
-				} else {
-					log.warning(LogBuilder.createSystemMessage().addMessage("image not found").toString());
-					response.setStatus(HttpStatus.SC_NOT_FOUND);
-				}
+				deliverImage(request, response, photoId, size);
 			} else {
 				log.warning(LogBuilder.createSystemMessage().
 						addMessage("unimplemented static resource type has been requested").toString());
@@ -63,29 +70,238 @@ public class StaticDataServlet extends AbstractServlet {
 	/**
 	 * @methodtype command
 	 *
-	 * Loads image either from the <@link>PhotoManager</@link> or from the <@link>ImageStorage</@link>. If image does
-	 * not exist, null is returned.
+	 * Answers conditional requests with 304 without touching the image. Images that are not in memory are streamed
+	 * from a streaming ImageStorage; all others, and all range requests, are served from the image bytes.
 	 */
-	private Image getImage(String photoId, int size) {
-		Image image = null;
-		Photo photo = PhotoManager.getInstance().getPhoto(photoId);
-		if (photo != null) {
-			PhotoSize photoSize = PhotoSize.getFromInt(size);
-			image = photo.getImage(photoSize);
+	protected void deliverImage(HttpServletRequest request, HttpServletResponse response, String photoIdAsString,
+								int size) throws IOException {
+		PhotoManager photoManager = PhotoManager.getInstance();
+		PhotoId photoId = PhotoId.getIdFromString(photoIdAsString);
+		PhotoSize photoSize = PhotoSize.getFromInt(size);
+		Photo photo = photoManager.getPhoto(photoId);
+
+		String eTag = "\"" + photoIdAsString + "-" + size + "\"";
+		long lastModified = (photo != null) ? photo.getCreationTime() : -1;
+		if (isNotModified(request, eTag, lastModified)) {
+			setCacheHeaders(response, eTag, lastModified);
+			response.setStatus(HttpStatus.SC_NOT_MODIFIED);
+			return;
 		}
-		// if not in cache load from Google Cloud Storage
+
+		String range = request.getHeader("Range");
+		Image image = (photo != null) ? photo.getUnsavedImage(photoSize) : null;
 		if (image == null) {
-			Serializable rawImage = null;
+			image = ImageCache.getInstance().get(photoId, photoSize);
+		}
+
+		ImageStorage imageStorage = ImageStorage.getInstance();
+		if ((image == null) && (range == null) && imageStorage.isStreamingStorage()) {
+			streamImage(response, imageStorage, photoIdAsString, size, eTag, lastModified);
+			return;
+		}
+
+		if (image == null) {
+			image = getImage(photo, photoId, photoSize);
+		}
+		if (image == null) {
+			log.warning(LogBuilder.createSystemMessage().addMessage("image not found").toString());
+			response.setStatus(HttpStatus.SC_NOT_FOUND);
+			return;
+		}
+
+		byte[] imageData = image.getImageData();
+		setCacheHeaders(response, eTag, lastModified);
+		response.setContentType(getImageContentType(imageData, imageData.length));
+
+		long[] byteRange = (range != null) ? getByteRange(range, imageData.length) : null;
+		if (byteRange == null) {
+			response.setStatus(HttpStatus.SC_OK);
+			response.setContentLength(imageData.length);
+			response.getOutputStream().write(imageData);
+		} else if (byteRange.length == 0) {
+			response.setHeader("Content-Range", "bytes */" + imageData.length);
+			response.setStatus(HttpStatus.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+			return;
+		} else {
+			int first = (int) byteRange[0];
+			int length = (int) (byteRange[1] - byteRange[0] + 1);
+			response.setStatus(HttpStatus.SC_PARTIAL_CONTENT);
+			response.setHeader("Content-Range", "bytes " + byteRange[0] + "-" + byteRange[1] + "/" + imageData.length);
+			response.setContentLength(length);
+			response.getOutputStream().write(imageData, first, length);
+		}
+		response.getOutputStream().flush();
+	}
+
+	/**
+	 * @methodtype command
+	 *
+	 * The status and the cache headers are set only once the first bytes arrive, so an image that turns out to be
+	 * missing is answered with 404 and without headers that let it be cached for good.
+	 */
+	protected void streamImage(final HttpServletResponse response, ImageStorage imageStorage, String photoIdAsString,
+							   int size, final String eTag, final long lastModified) throws IOException {
+		final long length = imageStorage.getImageLength(photoIdAsString, size);
+		if (length < 0) {
+			log.warning(LogBuilder.createSystemMessage().addMessage("image not found").toString());
+			response.setStatus(HttpStatus.SC_NOT_FOUND);
+			return;
+		}
+
+		// the content type is taken from the first bytes, before they are passed on and the response is committed
+		final OutputStream out = response.getOutputStream();
+		final AtomicBoolean isStarted = new AtomicBoolean();
+		OutputStream typingOut = new OutputStream() {
+			@Override
+			public void write(int b) throws IOException {
+				write(new byte[] {(byte) b}, 0, 1);
+			}
+
+			@Override
+			public void write(byte[] b, int off, int len) throws IOException {
+				if (!isStarted.get()) {
+					byte[] head = Arrays.copyOfRange(b, off, off + Math.min(len, 16));
+					startStreamedImage(response, eTag, lastModified, length, head);
+					isStarted.set(true);
+				}
+				out.write(b, off, len);
+			}
+		};
+
+		if (!imageStorage.writeImageTo(photoIdAsString, size, typingOut)) {
+			log.warning(LogBuilder.createSystemMessage().addMessage("image not found").toString());
+			response.setStatus(HttpStatus.SC_NOT_FOUND);
+			return;
+		}
+		if (!isStarted.get()) {
+			startStreamedImage(response, eTag, lastModified, length, new byte[0]);
+		}
+		out.flush();
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	protected void startStreamedImage(HttpServletResponse response, String eTag, long lastModified, long length,
+									  byte[] head) {
+		setCacheHeaders(response, eTag, lastModified);
+		response.setStatus(HttpStatus.SC_OK);
+		if (length <= Integer.MAX_VALUE) {
+			response.setContentLength((int) length);
+		}
+		response.setContentType(getImageContentType(head, head.length));
+	}
+
+	/**
+	 * @methodtype boolean-query
+	 *
+	 * If-None-Match takes precedence over If-Modified-Since, see RFC 7232.
+	 */
+	protected boolean isNotModified(HttpServletRequest request, String eTag, long lastModified) {
+		String ifNoneMatch = request.getHeader("If-None-Match");
+		if (ifNoneMatch != null) {
+			return ifNoneMatch.trim().equals("*") || ifNoneMatch.contains(eTag);
+		}
+
+		if (lastModified >= 0) {
 			try {
-				rawImage = ImageStorage.getInstance().readImage(photoId, size);
-			} catch (IOException e) {
-				log.warning(LogBuilder.createSystemMessage().addException("Problem when reading image.", e).toString());
+				long ifModifiedSince = request.getDateHeader("If-Modified-Since");
+				return (ifModifiedSince >= 0) && ((lastModified / 1000) <= (ifModifiedSince / 1000));
+			} catch (IllegalArgumentException e) {
+				// malformed date, deliver the image
+			}
+		}
+
+		return false;
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	protected void setCacheHeaders(HttpServletResponse response, String eTag, long lastModified) {
+		response.setHeader("ETag", eTag);
+		response.setHeader("Cache-Control", IMAGE_CACHE_CONTROL);
+		response.setHeader("Accept-Ranges", "bytes");
+		if (lastModified >= 0) {
+			response.setDateHeader("Last-Modified", lastModified);
+		}
+	}
+
+	/**
+	 * @methodtype conversion
+	 *
+	 * Parses a single byte range like "bytes=0-499", "bytes=500-" or "bytes=-500" into its first and last byte. Returns
+	 * null if the range is to be ignored, e.g. for several ranges, and an empty array if it can not be satisfied.
+	 */
+	protected long[] getByteRange(String range, long length) {
+		if (!range.startsWith("bytes=") || range.contains(",")) {
+			return null;
+		}
+
+		String spec = range.substring("bytes=".length()).trim();
+		int dash = spec.indexOf('-');
+		if (dash < 0) {
+			return null;
+		}
+
+		try {
+			String firstString = spec.substring(0, dash).trim();
+			String lastString = spec.substring(dash + 1).trim();
+			long first, last;
+			if (firstString.isEmpty()) {
+				long suffixLength = Long.parseLong(lastString);
+				if (suffixLength <= 0) {
+					return new long[0];
+				}
+				first = Math.max(0, length - suffixLength);
+				last = length - 1;
+			} else {
+				first = Long.parseLong(firstString);
+				last = lastString.isEmpty() ? length - 1 : Math.min(Long.parseLong(lastString), length - 1);
 			}
-			if (rawImage != null && rawImage instanceof Image) {
-				image = (Image) rawImage;
+
+			if ((first >= length) || (first > last)) {
+				return new long[0];
 			}
+			return new long[] {first, last};
+		} catch (NumberFormatException e) {
+			return null;
 		}
-		return image;
 	}
-}
 
+	/**
+	 * @methodtype conversion
+	 *
+	 * Recognizes the image format by the first bytes of the image data.
+	 */
+	protected static String getImageContentType(byte[] data, int length) {
+		if ((length >= 3) && ((data[0] & 0xff) == 0xff) && ((data[1] & 0xff) == 0xd8)) {
+			return "image/jpeg";
+		} else if ((length >= 4) && ((data[0] & 0xff) == 0x89) && (data[1] == 'P') && (data[2] == 'N') &&
+				(data[3] == 'G')) {
+			return "image/png";
+		} else if ((length >= 4) && (data[0] == 'G') && (data[1] == 'I') && (data[2] == 'F') && (data[3] == '8')) {
+			return "image/gif";
+		} else if ((length >= 12) && (data[0] == 'R') && (data[1] == 'I') && (data[8] == 'W') && (data[9] == 'E') &&
+				(data[10] == 'B') && (data[11] == 'P')) {
+			return "image/webp";
+		} else if ((length >= 2) && (data[0] == 'B') && (data[1] == 'M')) {
+			return "image/bmp";
+		}
+		return DEFAULT_IMAGE_CONTENT_TYPE;
+	}
+
+	/**
+	 * @methodtype command
+	 *
+	 * Loads image either from the <@link>Photo</@link> or, if the photo is unknown, via the
+	 * <@link>PhotoManager</@link> from the <@link>ImageCache</@link> or the <@link>ImageStorage</@link>. If image does
+	 * not exist, null is returned.
+	 */
+	private Image getImage(Photo photo, PhotoId photoId, PhotoSize photoSize) {
+		if (photo != null) {
+			return photo.getImage(photoSize);
+		}
+		return PhotoManager.getInstance().getImage(photoId, photoSize);
+	}
+}
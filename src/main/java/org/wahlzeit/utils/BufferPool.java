@@ -0,0 +1,237 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.utils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A BufferPool hands out byte buffers of one fixed length and takes them back for reuse, so copying streams does not
+ * allocate a new buffer every time. At most maxBuffers buffers are kept; buffers beyond that are left to the garbage
+ * collector.
+ */
+public class BufferPool {
+
+	/**
+	 *
+	 */
+	public static final int DEFAULT_BUFFER_LENGTH = 64 * 1024; // = 64 KB
+	public static final int DEFAULT_MAX_BUFFERS = 32;
+
+	/**
+	 * Reading a stream of unknown length takes about twice its length in memory, so only few such reads of streams
+	 * longer than one buffer may run at a time
+	 */
+	public static final int DEFAULT_MAX_LARGE_READS = 4;
+
+	/**
+	 *
+	 */
+	protected static final BufferPool instance = new BufferPool(DEFAULT_BUFFER_LENGTH, DEFAULT_MAX_BUFFERS);
+
+	/**
+	 *
+	 */
+	protected final ConcurrentLinkedQueue<byte[]> buffers = new ConcurrentLinkedQueue<byte[]>();
+	protected final AtomicInteger noBuffers = new AtomicInteger();
+
+	/**
+	 *
+	 */
+	protected final int bufferLength;
+	protected final int maxBuffers;
+
+	/**
+	 *
+	 */
+	protected final Semaphore largeReads;
+
+	/**
+	 *
+	 */
+	public BufferPool(int myBufferLength, int myMaxBuffers) {
+		this(myBufferLength, myMaxBuffers, DEFAULT_MAX_LARGE_READS);
+	}
+
+	/**
+	 *
+	 */
+	public BufferPool(int myBufferLength, int myMaxBuffers, int myMaxLargeReads) {
+		bufferLength = myBufferLength;
+		maxBuffers = myMaxBuffers;
+		largeReads = new Semaphore(myMaxLargeReads);
+	}
+
+	/**
+	 *
+	 */
+	public static BufferPool getInstance() {
+		return instance;
+	}
+
+	/**
+	 * @methodtype factory
+	 *
+	 * Returns a pooled buffer, or a new one if the pool is empty. Give it back with release() when done.
+	 */
+	public byte[] acquire() {
+		byte[] result = buffers.poll();
+		if (result != null) {
+			noBuffers.decrementAndGet();
+			return result;
+		}
+
+		return new byte[bufferLength];
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	public void release(byte[] buffer) {
+		if ((buffer == null) || (buffer.length != bufferLength)) {
+			return;
+		}
+
+		if (noBuffers.incrementAndGet() <= maxBuffers) {
+			buffers.offer(buffer);
+		} else {
+			noBuffers.decrementAndGet();
+		}
+	}
+
+	/**
+	 * @methodtype conversion
+	 *
+	 * Reads a stream of unknown length, see readFully(InputStream, int, int).
+	 */
+	public byte[] readFully(InputStream in, int maxLength) throws IOException {
+		return readFully(in, maxLength, -1);
+	}
+
+	/**
+	 * @methodtype conversion
+	 *
+	 * Reads the stream into one array of the given length if that is known, i.e. not negative. Otherwise reads it into
+	 * pooled buffers and copies them once into an array of the exact length; while copying, this takes about twice the
+	 * length of the stream, so at most maxLargeReads streams longer than one buffer are read this way at a time, and
+	 * further ones wait. Returns null as soon as the stream turns out to be longer than maxLength, without reading the
+	 * rest of it.
+	 */
+	public byte[] readFully(InputStream in, int maxLength, int length) throws IOException {
+		if (length > maxLength) {
+			return null;
+		} else if (length >= 0) {
+			return readExactly(in, length);
+		}
+
+		List<byte[]> buffers = new ArrayList<byte[]>();
+		boolean isLargeRead = false;
+		try {
+			int streamLength = 0;
+			int bufferFill = bufferLength;
+			while (true) {
+				if (bufferFill == bufferLength) {
+					if (!buffers.isEmpty() && !isLargeRead) {
+						acquireLargeRead();
+						isLargeRead = true;
+					}
+					buffers.add(acquire());
+					bufferFill = 0;
+				}
+
+				int bytesRead = in.read(buffers.get(buffers.size() - 1), bufferFill, bufferLength - bufferFill);
+				if (bytesRead == -1) {
+					break;
+				}
+
+				bufferFill += bytesRead;
+				streamLength += bytesRead;
+				if (streamLength > maxLength) {
+					return null;
+				}
+			}
+
+			byte[] result = new byte[streamLength];
+			int offset = 0;
+			for (byte[] buffer : buffers) {
+				int noBytes = Math.min(bufferLength, streamLength - offset);
+				System.arraycopy(buffer, 0, result, offset, noBytes);
+				offset += noBytes;
+			}
+			return result;
+		} finally {
+			for (byte[] buffer : buffers) {
+				release(buffer);
+			}
+			if (isLargeRead) {
+				largeReads.release();
+			}
+		}
+	}
+
+	/**
+	 * @methodtype conversion
+	 *
+	 * Reads the stream into an array of its length; fails if the stream is shorter or longer.
+	 */
+	protected byte[] readExactly(InputStream in, int length) throws IOException {
+		byte[] result = new byte[length];
+		int offset = 0;
+		while (offset < length) {
+			int bytesRead = in.read(result, offset, length - offset);
+			if (bytesRead == -1) {
+				throw new IOException("stream ended after " + offset + " of " + length + " bytes");
+			}
+			offset += bytesRead;
+		}
+
+		if (in.read() != -1) {
+			throw new IOException("stream longer than " + length + " bytes");
+		}
+		return result;
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	protected void acquireLargeRead() throws IOException {
+		try {
+			largeReads.acquire();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("interrupted while waiting to read a large stream");
+		}
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public int getBufferLength() {
+		return bufferLength;
+	}
+
+}
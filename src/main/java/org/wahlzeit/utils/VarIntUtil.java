@@ -0,0 +1,100 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.utils;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+
+/**
+ * A set of utility functions to write ints as variable-length ints, seven bits per byte with the high bit marking that
+ * more bytes follow. Small values, like the gaps between sorted ids, take a single byte.
+ */
+public class VarIntUtil {
+
+	/**
+	 * An int takes five bytes at most
+	 */
+	protected static final int MAX_VAR_INT_LENGTH = 5;
+
+	/**
+	 * @methodtype conversion
+	 *
+	 * Writes the int as unsigned; negative ints take five bytes.
+	 */
+	public final static void writeVarInt(DataOutput out, int value) throws IOException {
+		while ((value & ~0x7F) != 0) {
+			out.writeByte((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		out.writeByte(value);
+	}
+
+	/**
+	 * @methodtype conversion
+	 */
+	public final static int readVarInt(DataInput in) throws IOException {
+		int result = 0;
+		for (int i = 0; i < MAX_VAR_INT_LENGTH; i++) {
+			int b = in.readUnsignedByte();
+			result |= (b & 0x7F) << (7 * i);
+			if ((b & 0x80) == 0) {
+				return result;
+			}
+		}
+		throw new StreamCorruptedException("variable-length int is too long");
+	}
+
+	/**
+	 * @methodtype conversion
+	 *
+	 * Writes the number of ids and the gap from each id to the one before. The ids must be sorted ascending, as
+	 * unsigned ints, for the gaps to be small.
+	 */
+	public final static void writeDeltas(DataOutput out, int[] sortedIds) throws IOException {
+		writeVarInt(out, sortedIds.length);
+		int previous = 0;
+		for (int id : sortedIds) {
+			writeVarInt(out, id - previous);
+			previous = id;
+		}
+	}
+
+	/**
+	 * @methodtype conversion
+	 */
+	public final static int[] readDeltas(DataInput in) throws IOException {
+		int length = readVarInt(in);
+		if (length < 0) {
+			throw new StreamCorruptedException("invalid number of ids: " + length);
+		}
+
+		int[] result = new int[length];
+		int previous = 0;
+		for (int i = 0; i < length; i++) {
+			previous += readVarInt(in);
+			result[i] = previous;
+		}
+		return result;
+	}
+
+}
@@ -0,0 +1,231 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.wahlzeit.webparts;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * The FragmentCache keeps rendered WebParts that many requests would build alike. A fragment is keyed by its template
+ * name, language, and a cache key chosen by the handler for what else the fragment shows, e.g. a filter. It also
+ * names the model objects it depends on, e.g. "photo:" + photo id; invalidate() drops all fragments that depend on
+ * a changed object. A fragment rendered from a template that has been reloaded since is not returned.
+ *
+ * As the model may change while a part is rendered, handlers take a stamp of the dependencies before they build the
+ * part. invalidate() moves the version of the dependency, so a fragment whose stamp is no longer current is neither
+ * cached nor returned. Versions are kept per stripe of dependencies; a shared stripe only causes extra misses.
+ */
+public class FragmentCache {
+
+	/**
+	 * Upper bound of cached fragments; when it is reached, the cache starts over
+	 */
+	public static final int MAX_SIZE = 4 * 1024;
+
+	/**
+	 * Number of stripes of dependency versions
+	 */
+	public static final int NO_VERSION_STRIPES = 1024;
+
+	/**
+	 *
+	 */
+	protected static final FragmentCache instance = new FragmentCache();
+
+	/**
+	 *
+	 */
+	protected final Map<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+
+	/**
+	 * Versions of the dependencies by stripe, moved by invalidate()
+	 */
+	protected final AtomicLongArray versions = new AtomicLongArray(NO_VERSION_STRIPES);
+
+	/**
+	 *
+	 */
+	protected final AtomicLong hitCount = new AtomicLong();
+	protected final AtomicLong missCount = new AtomicLong();
+
+	/**
+	 *
+	 */
+	public static FragmentCache getInstance() {
+		return instance;
+	}
+
+	/**
+	 * @methodtype get
+	 *
+	 * Returns the fragment rendered from the template, or null if there is none.
+	 */
+	public Writable get(WebPartTemplate template, String lang, String cacheKey) {
+		Entry entry = entries.get(getKey(template, lang, cacheKey));
+		if ((entry == null) || (entry.template != template) || !isCurrent(entry.stamp)) {
+			missCount.incrementAndGet();
+			return null;
+		}
+
+		hitCount.incrementAndGet();
+		return entry.fragment;
+	}
+
+	/**
+	 * @methodtype get
+	 *
+	 * Returns the current versions of the dependencies; take the stamp before building the part to be cached.
+	 */
+	public Stamp getStamp(String... dependencies) {
+		long[] stampVersions = new long[dependencies.length];
+		for (int i = 0; i < dependencies.length; i++) {
+			stampVersions[i] = versions.get(getStripe(dependencies[i]));
+		}
+		return new Stamp(Arrays.asList(dependencies), stampVersions);
+	}
+
+	/**
+	 * @methodtype command
+	 *
+	 * Renders the part and caches it unless a dependency has been invalidated since the stamp was taken; returns the
+	 * rendered fragment to be used instead of the part.
+	 */
+	public Writable put(WebPart part, String lang, String cacheKey, Stamp stamp) {
+		RenderedFragment result = RenderedFragment.render(part);
+		if (!isCurrent(stamp)) {
+			return result;
+		}
+
+		if (entries.size() >= MAX_SIZE) {
+			entries.clear();
+		}
+
+		WebPartTemplate template = part.getTemplate();
+		entries.put(getKey(template, lang, cacheKey), new Entry(template, result, stamp));
+		return result;
+	}
+
+	/**
+	 * @methodtype command
+	 *
+	 * Drops all fragments that depend on the object. Moves its version first, so fragments rendered before cannot be
+	 * cached anymore.
+	 */
+	public void invalidate(String dependency) {
+		versions.incrementAndGet(getStripe(dependency));
+		for (Iterator<Entry> i = entries.values().iterator(); i.hasNext(); ) {
+			if (i.next().stamp.dependencies.contains(dependency)) {
+				i.remove();
+			}
+		}
+	}
+
+	/**
+	 * @methodtype boolean-query
+	 */
+	protected boolean isCurrent(Stamp stamp) {
+		for (int i = 0; i < stamp.versions.length; i++) {
+			if (versions.get(getStripe(stamp.dependencies.get(i))) != stamp.versions[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	protected int getStripe(String dependency) {
+		return (dependency.hashCode() & Integer.MAX_VALUE) % NO_VERSION_STRIPES;
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	public void clear() {
+		entries.clear();
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	protected String getKey(WebPartTemplate template, String lang, String cacheKey) {
+		return template.getName() + "#" + lang + "#" + cacheKey;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public int getSize() {
+		return entries.size();
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public long getHitCount() {
+		return hitCount.get();
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public long getMissCount() {
+		return missCount.get();
+	}
+
+	/**
+	 * The objects a fragment depends on with their versions before it was built
+	 */
+	public static class Stamp {
+
+		protected final List<String> dependencies;
+		protected final long[] versions;
+
+		protected Stamp(List<String> myDependencies, long[] myVersions) {
+			dependencies = myDependencies;
+			versions = myVersions;
+		}
+	}
+
+	/**
+	 * A rendered fragment with the template it was rendered from and the stamp of the objects it depends on
+	 */
+	protected static class Entry {
+
+		protected final WebPartTemplate template;
+		protected final RenderedFragment fragment;
+		protected final Stamp stamp;
+
+		protected Entry(WebPartTemplate myTemplate, RenderedFragment myFragment, Stamp myStamp) {
+			template = myTemplate;
+			fragment = myFragment;
+			stamp = myStamp;
+		}
+	}
+
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.wahlzeit.webparts;
+
+import com.google.common.base.Charsets;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+
+/**
+ * A RenderedFragment is a WebPart that has been written once, kept as UTF-8 bytes, so it can be written again as is.
+ */
+public class RenderedFragment implements Writable {
+
+	/**
+	 *
+	 */
+	protected final byte[] encoded;
+
+	/**
+	 *
+	 */
+	public RenderedFragment(byte[] myEncoded) {
+		encoded = myEncoded;
+	}
+
+	/**
+	 * @methodtype factory
+	 */
+	public static RenderedFragment render(Writable part) {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try {
+			part.writeOn(out);
+		} catch (IOException ioex) {
+			throw new IllegalStateException("writing to memory failed", ioex);
+		}
+		return new RenderedFragment(out.toByteArray());
+	}
+
+	/**
+	 *
+	 */
+	public void writeOn(Writer out) throws IOException {
+		out.write(new String(encoded, Charsets.UTF_8));
+	}
+
+	/**
+	 *
+	 */
+	public void writeOn(OutputStream out) throws IOException {
+		out.write(encoded);
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public int getLength() {
+		return encoded.length;
+	}
+
+}
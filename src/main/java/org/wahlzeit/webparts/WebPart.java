@@ -20,18 +20,20 @@
 
 package org.wahlzeit.webparts;
 
+import com.google.common.base.Charsets;
 import org.wahlzeit.utils.EnumValue;
 import org.wahlzeit.utils.HtmlUtil;
 
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.Writer;
-import java.util.HashMap;
 import java.util.Map;
 
 /**
  * A WebPart is a Writable formatted as HTML, working off a template.
  * A WebPart has its data set from a client using key/value pairs.
  * A WebPart has a recursive structure; it may contain further WebParts.
+ * Values are kept in the slots of the compiled template; values for keys the template does not contain are dropped.
  */
 public class WebPart implements Writable {
 
@@ -41,19 +43,28 @@ public class WebPart implements Writable {
 	protected WebPartTemplate template = null;
 
 	/**
-	 *
+	 * Values by slot index of the template
 	 */
-	protected Map<String, Object> parts = new HashMap<String, Object>();
+	protected Object[] parts;
 
 	/**
 	 *
 	 */
 	public WebPart(WebPartTemplate myTemplate) {
 		template = myTemplate;
+		parts = new Object[(template != null) ? template.getNoSlots() : 0];
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public WebPartTemplate getTemplate() {
+		return template;
 	}
 
 	public Object getValue(String key) {
-		return parts.get(key);
+		int slotIndex = getSlotIndex(key);
+		return (slotIndex != -1) ? parts[slotIndex] : null;
 	}
 
 	/**
@@ -170,41 +181,68 @@ public class WebPart implements Writable {
 	 */
 	protected void putValue(String key, Object value) {
 		if (value != null) {
-			parts.put(key, value);
+			int slotIndex = getSlotIndex(key);
+			if (slotIndex != -1) {
+				parts[slotIndex] = value;
+			}
 		}
 	}
 
+	/**
+	 * @methodtype get
+	 */
+	protected int getSlotIndex(String key) {
+		return (template != null) ? template.getSlotIndex(key) : -1;
+	}
+
 	/**
 	 *
 	 */
 	public void writeOn(Writer out) throws IOException {
-		String tmpl = template.asString();
-		String[] keys = template.getKeys();
-		int[] slots = template.getSlots();
-
-		int start = 0;
-		for (int i = 0; i < keys.length; i++) {
-			int index = slots[i];
-			out.write(tmpl, start, index - start);
-
-			String key = keys[i];
-			if (key != null) {
-				Object object = parts.get(key);
-				if (object != null) {
-					if (object instanceof Writable) {
-						Writable part = (Writable) object;
-						part.writeOn(out);
-					} else {
-						String value = object.toString();
-						out.write(value);
-					}
+		long startTime = System.nanoTime();
+		int noKeys = template.getNoKeys();
+		for (int i = 0; i < noKeys; i++) {
+			out.write(template.getChunk(i));
+
+			Object object = parts[template.getSlotIndex(i)];
+			if (object != null) {
+				if (object instanceof Writable) {
+					Writable part = (Writable) object;
+					part.writeOn(out);
+				} else {
+					String value = object.toString();
+					out.write(value);
 				}
 			}
+		}
 
-			start = index;
+		out.write(template.getChunk(noKeys));
+		template.addRenderTime(System.nanoTime() - startTime);
+	}
+
+	/**
+	 * Writes the UTF-8 encoded chunks of the template as they are; only the values are encoded.
+	 */
+	public void writeOn(OutputStream out) throws IOException {
+		long startTime = System.nanoTime();
+		int noKeys = template.getNoKeys();
+		for (int i = 0; i < noKeys; i++) {
+			out.write(template.getEncodedChunk(i));
+
+			Object object = parts[template.getSlotIndex(i)];
+			if (object != null) {
+				if (object instanceof Writable) {
+					Writable part = (Writable) object;
+					part.writeOn(out);
+				} else {
+					String value = object.toString();
+					out.write(value.getBytes(Charsets.UTF_8));
+				}
+			}
 		}
 
-		out.write(tmpl, start, tmpl.length() - start);
+		out.write(template.getEncodedChunk(noKeys));
+		template.addRenderTime(System.nanoTime() - startTime);
 	}
 
 }
@@ -18,14 +18,23 @@
  * <http://www.gnu.org/licenses/>.
  */
 
+
 package org.wahlzeit.webparts;
 
-import java.util.LinkedList;
+import com.google.common.base.Charsets;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * A WebPartTmpl is a template for a WebPart.
  * It gets initialized once and is read-only after that.
+ * Initializing compiles the template: each distinct key gets a slot index, so a WebPart keeps its values in an array,
+ * and the static text between the keys is kept as chunks, both as Strings and encoded as UTF-8.
  */
 public class WebPartTemplate {
 
@@ -45,6 +54,36 @@ public class WebPartTemplate {
 	protected String[] keys = null;
 	protected int[] slots = null;
 
+	/**
+	 * Static text before each key and after the last one; there is one chunk more than keys
+	 */
+	protected String[] chunks = null;
+	protected byte[][] encodedChunks = null;
+
+	/**
+	 * Slot index of each key in the order of the keys, and of each distinct key by name
+	 */
+	protected int[] slotIndices = null;
+	protected Map<String, Integer> slotIndicesByKey = null;
+
+	/**
+	 * The file the template was read from, its modification time then, and the time reading and compiling took in ms
+	 */
+	protected File file = null;
+	protected long lastModified = 0;
+	protected long loadTime = 0;
+
+	/**
+	 * Time in ms the file was last checked for changes, see WebPartTemplateService
+	 */
+	protected volatile long lastCheckTime = 0;
+
+	/**
+	 * Number of renderings of the template and their total time in ns, including nested parts
+	 */
+	protected final AtomicLong noRenders = new AtomicLong();
+	protected final AtomicLong renderTime = new AtomicLong();
+
 	/**
 	 *
 	 */
@@ -56,36 +95,51 @@ public class WebPartTemplate {
 	 * @methodtype initialization
 	 */
 	public void initialize(String source) {
-		List<String> keyList = new LinkedList<String>();
-		List<Integer> slotList = new LinkedList<Integer>();
-
-		StringBuffer buffer = new StringBuffer(source);
-
-		for (int index = 0; index != -1; ) {
-			int nextSlot = buffer.indexOf("{$", index);
-			if (nextSlot != -1) {
-				int endSlot = buffer.indexOf("}", nextSlot);
-				if (endSlot != -1) {
-					String key = buffer.substring(nextSlot + 2, endSlot);
-
-					keyList.add(key);
-					slotList.add(nextSlot);
-
-					buffer.replace(nextSlot, endSlot + 1, "");
-					index = nextSlot;
-				}
-				index = endSlot;
-			} else {
-				index = -1;
+		List<String> keyList = new ArrayList<String>();
+		List<String> chunkList = new ArrayList<String>();
+		StringBuilder buffer = new StringBuilder(source.length());
+
+		int start = 0;
+		for (int nextSlot = source.indexOf("{$"); nextSlot != -1; nextSlot = source.indexOf("{$", start)) {
+			int endSlot = source.indexOf("}", nextSlot);
+			if (endSlot == -1) {
+				break;
 			}
+
+			String chunk = source.substring(start, nextSlot);
+			chunkList.add(chunk);
+			buffer.append(chunk);
+			keyList.add(source.substring(nextSlot + 2, endSlot));
+			start = endSlot + 1;
 		}
 
+		String lastChunk = source.substring(start);
+		chunkList.add(lastChunk);
+		buffer.append(lastChunk);
+
 		int length = keyList.size();
-		keys = new String[length];
+		keys = keyList.toArray(new String[length]);
+		chunks = chunkList.toArray(new String[length + 1]);
+		encodedChunks = new byte[length + 1][];
 		slots = new int[length];
+		slotIndices = new int[length];
+		slotIndicesByKey = new HashMap<String, Integer>();
+
+		int slot = 0;
 		for (int i = 0; i < length; i++) {
-			keys[i] = keyList.get(i);
-			slots[i] = slotList.get(i);
+			slot += chunks[i].length();
+			slots[i] = slot;
+
+			Integer slotIndex = slotIndicesByKey.get(keys[i]);
+			if (slotIndex == null) {
+				slotIndex = slotIndicesByKey.size();
+				slotIndicesByKey.put(keys[i], slotIndex);
+			}
+			slotIndices[i] = slotIndex;
+		}
+
+		for (int i = 0; i <= length; i++) {
+			encodedChunks[i] = chunks[i].getBytes(Charsets.UTF_8);
 		}
 
 		template = buffer.toString();
@@ -119,4 +173,120 @@ public class WebPartTemplate {
 		return slots; // @FIXME needs cloning?
 	}
 
+	/**
+	 * @methodtype get
+	 */
+	public int getNoSlots() {
+		return slotIndicesByKey.size();
+	}
+
+	/**
+	 * @methodtype get
+	 *
+	 * Returns the slot index of the key, or -1 if the template does not contain it.
+	 */
+	public int getSlotIndex(String key) {
+		Integer result = slotIndicesByKey.get(key);
+		return (result != null) ? result : -1;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public int getSlotIndex(int keyNo) {
+		return slotIndices[keyNo];
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public int getNoKeys() {
+		return keys.length;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public String getChunk(int chunkNo) {
+		return chunks[chunkNo];
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public byte[] getEncodedChunk(int chunkNo) {
+		return encodedChunks[chunkNo];
+	}
+
+	/**
+	 * @methodtype set
+	 */
+	public void setFile(File myFile, long myLastModified, long myLoadTime) {
+		file = myFile;
+		lastModified = myLastModified;
+		loadTime = myLoadTime;
+		lastCheckTime = System.currentTimeMillis();
+	}
+
+	/**
+	 * @methodtype boolean-query
+	 *
+	 * Returns true if the last check for changes is at least interval ms ago, and then counts as a check.
+	 */
+	public boolean isCheckDue(long interval) {
+		long now = System.currentTimeMillis();
+		if ((now - lastCheckTime) < interval) {
+			return false;
+		}
+
+		lastCheckTime = now;
+		return true;
+	}
+
+	/**
+	 * @methodtype boolean-query
+	 */
+	public boolean isModified() {
+		return (file != null) && (file.lastModified() != lastModified);
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	public void addRenderTime(long time) {
+		noRenders.incrementAndGet();
+		renderTime.addAndGet(time);
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public long getLoadTime() {
+		return loadTime;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public long getNoRenders() {
+		return noRenders.get();
+	}
+
+	/**
+	 * @methodtype get
+	 *
+	 * Returns the average time of a rendering in microseconds.
+	 */
+	public long getAverageRenderTime() {
+		long renders = noRenders.get();
+		return (renders == 0) ? 0 : (renderTime.get() / renders / 1000);
+	}
+
+	/**
+	 * @methodtype conversion
+	 */
+	public String getTimesAsString() {
+		return "load " + getLoadTime() + " ms, " + getNoRenders() + " renders, avg " + getAverageRenderTime() + " us";
+	}
+
 }
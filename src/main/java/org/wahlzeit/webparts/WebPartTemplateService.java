@@ -18,6 +18,7 @@
  * <http://www.gnu.org/licenses/>.
  */
 
+
 package org.wahlzeit.webparts;
 
 import com.google.common.base.Charsets;
@@ -27,13 +28,18 @@ import org.wahlzeit.services.LogBuilder;
 
 import java.io.File;
 import java.io.IOException;
-import java.util.HashMap;
 import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
  * The WebPartTemplateService creates WebPartTemplates upon request by reading them from disk.
  * It requires configuration with a template directory and uses the following naming convention: tmplDir/language/part-type/part-name.html
+ * All templates are loaded by preloadTemplates() at startup; templates requested later are loaded on first use. In
+ * hot reload mode, meant for development, a template is read again when its file has changed.
  */
 public class WebPartTemplateService {
 
@@ -42,15 +48,36 @@ public class WebPartTemplateService {
 	 */
 	protected static final WebPartTemplateService instance = new WebPartTemplateService();
 	private static final Logger log = Logger.getLogger(WebPartTemplateService.class.getName());
+
+	/**
+	 * System property to switch on hot reload, see appengine-web.xml
+	 */
+	public static final String HOT_RELOAD_PROPERTY = "org.wahlzeit.webPartTemplateService.hotReload";
+
+	/**
+	 * Minimum time in ms between two checks of the same template file in hot reload mode
+	 */
+	public static final long HOT_RELOAD_CHECK_INTERVAL = 1000;
+
 	/**
 	 *
 	 */
-	protected Map<String, WebPartTemplate> templates = new HashMap<String, WebPartTemplate>();
+	protected static final String TEMPLATE_FILE_ENDING = ".html";
+
+	/**
+	 *
+	 */
+	protected ConcurrentMap<String, WebPartTemplate> templates = new ConcurrentHashMap<String, WebPartTemplate>();
 	/**
 	 *
 	 */
 	protected ConfigDir templatesDir = null;
 
+	/**
+	 *
+	 */
+	protected boolean isHotReload = Boolean.getBoolean(HOT_RELOAD_PROPERTY);
+
 	/**
 	 *
 	 */
@@ -73,13 +100,16 @@ public class WebPartTemplateService {
 		WebPartTemplate result = templates.get(shortName);
 
 		if (result == null) {
-			try {
-				loadTemplate(shortName);
-				result = templates.get(shortName);
-			} catch (IOException ioex) {
+			result = tryLoadTemplate(shortName);
+		} else if (isHotReload && result.isCheckDue(HOT_RELOAD_CHECK_INTERVAL) && result.isModified()) {
+			LogBuilder.createSystemMessage(log, Level.INFO).addParameter("reload changed template", shortName).log();
+			WebPartTemplate reloaded = tryLoadTemplate(shortName);
+			if (reloaded != null) {
+				result = reloaded;
+			} else {
+				// e.g. the file is being written; keep the previous template and try again with the next check
 				log.warning(LogBuilder.createSystemMessage().
-						addParameter("template name", shortName).
-						addException("Problem loading template", ioex).toString());
+						addParameter("keep previous template", shortName).toString());
 			}
 		}
 
@@ -87,32 +117,131 @@ public class WebPartTemplateService {
 	}
 
 	/**
-	 *
+	 * Loads the template, or returns null if it failed to load.
+	 */
+	protected WebPartTemplate tryLoadTemplate(String shortName) {
+		try {
+			return loadTemplate(shortName);
+		} catch (IOException ioex) {
+			log.warning(LogBuilder.createSystemMessage().
+					addParameter("template name", shortName).
+					addException("Problem loading template", ioex).toString());
+			return null;
+		}
+	}
+
+	/**
+	 * Reads the template and puts it into the templates; a template that failed to load is not put.
 	 */
-	protected void loadTemplate(String shortName) throws IOException {
+	protected WebPartTemplate loadTemplate(String shortName) throws IOException {
+		long startTime = System.currentTimeMillis();
 		WebPartTemplate template = new WebPartTemplate(shortName);
-		String fileName = getTemplatesDir().getAbsoluteConfigFileName(shortName + ".html");
-		log.config(LogBuilder.createSystemMessage().
+		String fileName = getTemplatesDir().getAbsoluteConfigFileName(shortName + TEMPLATE_FILE_ENDING);
+		LogBuilder.createSystemMessage(log, Level.CONFIG).
 				addAction("open html template file").
-				addParameter("file name", fileName).toString());
+				addParameter("file name", fileName).log();
 		File file = new File(fileName);
 
 		try {
+			long lastModified = file.lastModified();
 			String source = Files.toString(file, Charsets.UTF_8);
 			//String source = Resources.toString(Resources.getResource(fileName), Charsets.UTF_8);
 
 			if (source != null) {
 				template.initialize(source);
-				log.config(LogBuilder.createSystemMessage().addAction("Initialize template").toString());
+				LogBuilder.createSystemMessage(log, Level.CONFIG).addAction("Initialize template").log();
 			}
 
+			template.setFile(file, lastModified, System.currentTimeMillis() - startTime);
 			templates.put(shortName, template);
+			return template;
 		} catch (IOException e) {
 			log.warning(LogBuilder.createSystemMessage().
 					addException("I/O Error while reading Template file", e).toString());
+			return null;
+		}
+	}
+
+	/**
+	 * @methodtype command
+	 *
+	 * Loads all templates in the default and custom templates directories, so no request waits for a template file.
+	 */
+	public void preloadTemplates() {
+		long startTime = System.currentTimeMillis();
+		preloadTemplates(new File(getTemplatesDir().asString(), ConfigDir.DEFAULT_DIR_NAME));
+		preloadTemplates(new File(getTemplatesDir().asString(), ConfigDir.CUSTOM_DIR_NAME));
+
+		LogBuilder.createSystemMessage(log, Level.INFO).
+				addParameter("preloaded templates", templates.size()).
+				addParameter("time in ms", String.valueOf(System.currentTimeMillis() - startTime)).log();
+		LogBuilder.createSystemMessage(log, Level.CONFIG).addParameter("template times", getTimesAsString()).log();
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	protected void preloadTemplates(File dir) {
+		File[] langDirs = dir.listFiles();
+		if (langDirs == null) {
+			return;
+		}
+
+		for (File langDir : langDirs) {
+			if (langDir.isDirectory()) {
+				preloadTemplates(langDir, langDir.getName(), "");
+			}
+		}
+	}
+
+	/**
+	 * @methodtype command
+	 *
+	 * The short names are built like the ones in getTemplate(), with "/" in the part of the path after the language.
+	 */
+	protected void preloadTemplates(File dir, String lang, String path) {
+		File[] files = dir.listFiles();
+		if (files == null) {
+			return;
+		}
+
+		for (File file : files) {
+			String fileName = file.getName();
+			if (file.isDirectory()) {
+				preloadTemplates(file, lang, path + fileName + "/");
+			} else if (fileName.endsWith(TEMPLATE_FILE_ENDING)) {
+				String name = path + fileName.substring(0, fileName.length() - TEMPLATE_FILE_ENDING.length());
+				String shortName = lang + File.separator + name;
+				if (!templates.containsKey(shortName)) {
+					try {
+						loadTemplate(shortName);
+					} catch (IOException ioex) {
+						log.warning(LogBuilder.createSystemMessage().
+								addParameter("template name", shortName).
+								addException("Problem preloading template", ioex).toString());
+					}
+				}
+			}
 		}
 	}
 
+	/**
+	 * @methodtype conversion
+	 *
+	 * Returns the load and render times of all loaded templates, for logging.
+	 */
+	public String getTimesAsString() {
+		Map<String, WebPartTemplate> sortedTemplates = new TreeMap<String, WebPartTemplate>(templates);
+		StringBuilder result = new StringBuilder();
+		for (WebPartTemplate template : sortedTemplates.values()) {
+			if (result.length() > 0) {
+				result.append("; ");
+			}
+			result.append(template.getName()).append(": ").append(template.getTimesAsString());
+		}
+		return result.toString();
+	}
+
 	/**
 	 *
 	 */
@@ -127,4 +256,18 @@ public class WebPartTemplateService {
 		templatesDir = newTemplatesDir;
 	}
 
+	/**
+	 * @methodtype boolean-query
+	 */
+	public boolean isHotReload() {
+		return isHotReload;
+	}
+
+	/**
+	 * @methodtype set
+	 */
+	public void setHotReload(boolean hotReload) {
+		isHotReload = hotReload;
+	}
+
 }
@@ -21,10 +21,11 @@
 package org.wahlzeit.webparts;
 
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.Writer;
 
 /**
- * A Writable can write a representation of itself to a Writer.
+ * A Writable can write a representation of itself to a Writer, or UTF-8 encoded to an OutputStream.
  */
 public interface Writable {
 
@@ -33,4 +34,9 @@ public interface Writable {
 	 */
 	void writeOn(Writer writer) throws IOException;
 
+	/**
+	 *
+	 */
+	void writeOn(OutputStream out) throws IOException;
+
 }
@@ -0,0 +1,166 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.model;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Test cases for the GuestStore class.
+ */
+public class GuestStoreTest {
+
+	/**
+	 *
+	 */
+	@Test
+	public void testSizeBoundEvictsLeastRecentlyUsed() {
+		GuestStore store = new GuestStore(2, 60 * 1000);
+		Client first = new TestGuest("guest#1");
+		Client second = new TestGuest("guest#2");
+		Client third = new TestGuest("guest#3");
+
+		store.add(first);
+		store.add(second);
+		assertSame(first, store.get("guest#1"));
+		store.add(third);
+
+		assertEquals(2, store.getSize());
+		assertSame(first, store.get("guest#1"));
+		assertNull(store.get("guest#2"));
+		assertSame(third, store.get("guest#3"));
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testIdleGuestExpires() {
+		GuestStore store = new GuestStore(10, 60 * 1000);
+		Client idle = new TestGuest("guest#1");
+		Client active = new TestGuest("guest#2");
+		store.add(idle);
+		store.add(active);
+
+		makeIdle(store, "guest#1", 2 * 60 * 1000);
+		assertNull(store.get("guest#1"));
+		assertSame(active, store.get("guest#2"));
+
+		// an expired guest is replaced by a new one under its ID
+		store.add(idle);
+		makeIdle(store, "guest#1", 2 * 60 * 1000);
+		Client recreated = new TestGuest("guest#1");
+		assertSame(recreated, store.add(recreated));
+		assertSame(recreated, store.get("guest#1"));
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testExpiredGuestsAreDroppedOnAdd() {
+		GuestStore store = new GuestStore(10, 60 * 1000);
+		store.add(new TestGuest("guest#1"));
+		store.add(new TestGuest("guest#2"));
+		makeIdle(store, "guest#1", 2 * 60 * 1000);
+
+		store.add(new TestGuest("guest#3"));
+		assertEquals(2, store.getSize());
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testConcurrentAddReturnsExistingGuest() throws InterruptedException {
+		final GuestStore store = new GuestStore(10, 60 * 1000);
+		final CountDownLatch start = new CountDownLatch(1);
+		final List<Client> results = new ArrayList<Client>();
+		List<Thread> threads = new ArrayList<Thread>();
+		for (int i = 0; i < 8; i++) {
+			Thread thread = new Thread() {
+				@Override
+				public void run() {
+					try {
+						start.await();
+					} catch (InterruptedException e) {
+						return;
+					}
+					Client result = store.add(new TestGuest("guest#1"));
+					synchronized (results) {
+						results.add(result);
+					}
+				}
+			};
+			thread.start();
+			threads.add(thread);
+		}
+
+		start.countDown();
+		for (Thread thread : threads) {
+			thread.join();
+		}
+
+		assertEquals(8, results.size());
+		Client stored = store.get("guest#1");
+		for (Client result : results) {
+			assertSame(stored, result);
+		}
+		assertEquals(1, store.getSize());
+	}
+
+	/**
+	 * @methodtype command
+	 *
+	 * Moves the last access of the guest back in time, without accessing it, which would make it most recently used.
+	 */
+	protected void makeIdle(GuestStore store, String id, long idleTime) {
+		for (Map.Entry<String, GuestStore.Entry> entry : store.guests.entrySet()) {
+			if (entry.getKey().equals(id)) {
+				entry.getValue().lastAccessTime -= idleTime;
+			}
+		}
+	}
+
+	/**
+	 * A guest that is not added to the UserManager
+	 */
+	protected static class TestGuest extends Client {
+
+		protected TestGuest(String myId) {
+			id = myId;
+		}
+
+		@Override
+		public boolean isEphemeral() {
+			return true;
+		}
+	}
+
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.model;
+
+import com.google.appengine.api.images.Image;
+import com.google.appengine.api.images.ImagesServiceFactory;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Test cases for the ImageCache class.
+ */
+public class ImageCacheTest {
+
+	private ImageCache imageCache;
+
+	@Before
+	public void initImageCache() {
+		imageCache = new ImageCache(100);
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testPutAndGet() {
+		Image image = createImage(10);
+		imageCache.put(new PhotoId(1), PhotoSize.THUMB, image);
+
+		assertSame(image, imageCache.get(new PhotoId(1), PhotoSize.THUMB));
+		assertNull(imageCache.get(new PhotoId(1), PhotoSize.SMALL));
+		assertEquals(10, imageCache.getWeight());
+		assertEquals(1, imageCache.getHitCount());
+		assertEquals(1, imageCache.getMissCount());
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testEvictsLeastRecentlyUsed() {
+		imageCache.put(new PhotoId(1), PhotoSize.THUMB, createImage(40));
+		imageCache.put(new PhotoId(2), PhotoSize.THUMB, createImage(40));
+		imageCache.get(new PhotoId(1), PhotoSize.THUMB);
+		imageCache.put(new PhotoId(3), PhotoSize.THUMB, createImage(40));
+
+		assertNull(imageCache.get(new PhotoId(2), PhotoSize.THUMB));
+		assertEquals(2, imageCache.getSize());
+		assertEquals(80, imageCache.getWeight());
+		assertEquals(1, imageCache.getEvictionCount());
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testReplaceAndRemove() {
+		imageCache.put(new PhotoId(1), PhotoSize.THUMB, createImage(40));
+		imageCache.put(new PhotoId(1), PhotoSize.THUMB, createImage(30));
+		imageCache.put(new PhotoId(1), PhotoSize.SMALL, createImage(20));
+		assertEquals(50, imageCache.getWeight());
+
+		imageCache.remove(new PhotoId(1));
+		assertEquals(0, imageCache.getSize());
+		assertEquals(0, imageCache.getWeight());
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testDoesNotCacheOverweightImages() {
+		imageCache.put(new PhotoId(1), PhotoSize.THUMB, createImage(101));
+		assertEquals(0, imageCache.getSize());
+
+		imageCache.put(new PhotoId(1), PhotoSize.THUMB, createImage(60));
+		imageCache.setMaxWeight(50);
+		assertEquals(0, imageCache.getSize());
+		assertEquals(1, imageCache.getEvictionCount());
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testOverweightImageReplacesCachedImage() {
+		imageCache.put(new PhotoId(1), PhotoSize.THUMB, createImage(60));
+		imageCache.put(new PhotoId(1), PhotoSize.THUMB, createImage(101));
+
+		assertNull(imageCache.get(new PhotoId(1), PhotoSize.THUMB));
+		assertEquals(0, imageCache.getWeight());
+	}
+
+	/**
+	 *
+	 */
+	protected Image createImage(int noBytes) {
+		return ImagesServiceFactory.makeImage(new byte[noBytes]);
+	}
+
+}
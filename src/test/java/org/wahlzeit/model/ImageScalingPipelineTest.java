@@ -0,0 +1,87 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.wahlzeit.model;
+
+import com.google.appengine.api.images.Image;
+import com.google.appengine.api.images.ImagesServiceFactory;
+import org.junit.Test;
+import org.wahlzeit.model.processing.ImageIoProcessor;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test cases for the ImageScalingPipeline class, using the in-process ImageIoProcessor.
+ */
+public class ImageScalingPipelineTest {
+
+	/**
+	 *
+	 */
+	@Test
+	public void testScalesToAllFittingSizes() throws Exception {
+		int sourceWidth = 700;
+		int sourceHeight = 1000;
+		ImageScalingPipeline pipeline = new ImageScalingPipeline(new ImageIoProcessor(0.8f), 2);
+		Map<PhotoSize, Image> images = pipeline.scale(createJpegImage(sourceWidth, sourceHeight));
+
+		assertFalse(images.containsKey(PhotoSize.EXTRA_LARGE));
+		assertEquals(PhotoSize.values().length - 1, images.size());
+		for (Map.Entry<PhotoSize, Image> entry : images.entrySet()) {
+			PhotoSize size = entry.getKey();
+			Image image = entry.getValue();
+			assertEquals(size.calcAdjustedWidth(sourceWidth, sourceHeight), image.getWidth());
+			assertEquals(size.calcAdjustedHeight(sourceWidth, sourceHeight), image.getHeight());
+			assertEquals(Image.Format.JPEG, image.getFormat());
+		}
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testTooSmallSourceHasNoSizes() throws Exception {
+		ImageScalingPipeline pipeline = new ImageScalingPipeline(new ImageIoProcessor(), 2);
+		assertTrue(pipeline.scale(createJpegImage(50, 50)).isEmpty());
+	}
+
+	/**
+	 * @methodtype factory
+	 */
+	protected Image createJpegImage(int width, int height) throws Exception {
+		BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+		for (int x = 0; x < width; x++) {
+			image.setRGB(x, x * height / width, 0xffffff);
+		}
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		ImageIO.write(image, "jpeg", out);
+		return ImagesServiceFactory.makeImage(out.toByteArray());
+	}
+
+}
@@ -22,7 +22,14 @@ package org.wahlzeit.model;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.Arrays;
+
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 
@@ -84,4 +91,54 @@ public class PhotoFilterTest {
 		assertTrue(photoFilter.processedPhotoIds.isEmpty());
 	}
 
+	/**
+	 *
+	 */
+	@Test
+	public void testSkippedPhotoIsNoLongerDisplayable() {
+		photoFilter.setDisplayablePhotoIds(Arrays.asList(new PhotoId(1), new PhotoId(2), new PhotoId(3)));
+
+		photoFilter.addSkippedPhotoId(new PhotoId(1));
+		assertEquals(Arrays.asList(new PhotoId(3), new PhotoId(2)), photoFilter.getDisplayablePhotoIds());
+		assertTrue(photoFilter.getSkippedPhotoIds().contains(new PhotoId(1)));
+
+		photoFilter.addSkippedPhotoId(new PhotoId(2));
+		photoFilter.addSkippedPhotoId(new PhotoId(3));
+		assertTrue(photoFilter.getDisplayablePhotoIds().isEmpty());
+		assertFalse(photoFilter.isDisplayableValid);
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testSerializationKeepsFilterState() throws Exception {
+		if (PhotoId.getCurrentIdAsInt() < 1000) {
+			PhotoId.setCurrentIdFromInt(1000);
+		}
+
+		photoFilter.setUserName("han");
+		photoFilter.setTags(new Tags("falcon, wookie"));
+		photoFilter.setDisplayablePhotoIds(Arrays.asList(PhotoId.getIdFromInt(7), PhotoId.getIdFromInt(3),
+				PhotoId.getIdFromInt(500)));
+		for (int id = 10; id < 300; id++) {
+			photoFilter.processedPhotoIds.add(id);
+		}
+		photoFilter.addSkippedPhotoId(PhotoId.getIdFromInt(999));
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		ObjectOutputStream out = new ObjectOutputStream(bytes);
+		out.writeObject(photoFilter);
+		out.close();
+		ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+		PhotoFilter result = (PhotoFilter) in.readObject();
+
+		assertEquals("han", result.getUserName());
+		assertEquals(photoFilter.getTags(), result.getTags());
+		assertTrue(result.getDisplayablePhotoIds().isEmpty());
+		assertFalse(result.isDisplayableValid);
+		assertTrue(Arrays.equals(photoFilter.processedPhotoIds.asArray(), result.processedPhotoIds.asArray()));
+		assertTrue(result.getSkippedPhotoIds().contains(PhotoId.getIdFromInt(999)));
+	}
+
 }
@@ -0,0 +1,128 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.model;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test cases for the PhotoIdSet class.
+ */
+public class PhotoIdSetTest {
+
+	/**
+	 *
+	 */
+	@Test
+	public void testAddRemoveContains() {
+		PhotoIdSet photoIds = new PhotoIdSet();
+		assertTrue(photoIds.isEmpty());
+
+		assertTrue(photoIds.add(70000));
+		assertTrue(photoIds.add(new PhotoId(5)));
+		assertFalse(photoIds.add(5));
+		assertTrue(photoIds.contains(70000));
+		assertTrue(photoIds.contains(new PhotoId(5)));
+		assertFalse(photoIds.contains(6));
+		assertArrayEquals(new int[] {5, 70000}, photoIds.asArray());
+
+		assertTrue(photoIds.remove(70000));
+		assertFalse(photoIds.remove(70000));
+		assertEquals(1, photoIds.size());
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testDenseChunks() {
+		PhotoIdSet photoIds = new PhotoIdSet();
+		for (int i = 0; i < 10000; i++) {
+			photoIds.add(i * 2);
+		}
+		assertEquals(10000, photoIds.size());
+		assertTrue(photoIds.contains(19998));
+		assertFalse(photoIds.contains(19999));
+
+		for (int i = 0; i < 9000; i++) {
+			photoIds.remove(i * 2);
+		}
+		assertEquals(1000, photoIds.size());
+		assertTrue(photoIds.contains(18000));
+		assertFalse(photoIds.contains(17998));
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testAndNot() {
+		PhotoIdSet candidates = new PhotoIdSet();
+		PhotoIdSet processed = new PhotoIdSet();
+		for (int i = 0; i < 6000; i++) {
+			candidates.add(i);
+			if (i % 3 != 0) {
+				processed.add(i);
+			}
+		}
+		candidates.add(100000);
+		processed.add(100001);
+
+		PhotoIdSet result = candidates.andNot(processed);
+		assertEquals(2001, result.size());
+		assertTrue(result.contains(3));
+		assertFalse(result.contains(4));
+		assertTrue(result.contains(100000));
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testSerialization() throws Exception {
+		PhotoIdSet photoIds = new PhotoIdSet();
+		for (int i = 0; i < 5000; i++) {
+			photoIds.add(i);
+		}
+		photoIds.add(200000);
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		ObjectOutputStream out = new ObjectOutputStream(bytes);
+		out.writeObject(photoIds);
+		out.close();
+		ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+		PhotoIdSet result = (PhotoIdSet) in.readObject();
+
+		assertArrayEquals(photoIds.asArray(), result.asArray());
+		assertTrue(result.add(5000));
+		assertTrue(result.add(200001));
+	}
+
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.model;
+
+import com.google.appengine.api.images.Image;
+import com.google.appengine.api.images.ImagesServiceFactory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.wahlzeit.model.persistence.ImageStorage;
+
+import java.io.Serializable;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Test cases for loading images on demand in the PhotoManager class.
+ */
+public class PhotoManagerTest {
+
+	private static final PhotoId PHOTO_ID = new PhotoId(90001);
+
+	private PhotoManager photoManager;
+	private CountingImageStorage imageStorage;
+
+	@Before
+	public void setUp() {
+		photoManager = new PhotoManager();
+		imageStorage = new CountingImageStorage();
+		ImageStorage.setInstance(imageStorage);
+		ImageCache.getInstance().remove(PHOTO_ID);
+	}
+
+	@After
+	public void tearDown() {
+		ImageCache.getInstance().remove(PHOTO_ID);
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testImageIsLoadedOnDemandAndCached() {
+		Image image = ImagesServiceFactory.makeImage(new byte[16]);
+		imageStorage.images.put(PHOTO_ID.asString() + PhotoSize.THUMB.asInt(), image);
+		assertNull(ImageCache.getInstance().get(PHOTO_ID, PhotoSize.THUMB));
+
+		assertSame(image, photoManager.getImage(PHOTO_ID, PhotoSize.THUMB));
+		assertEquals(1, imageStorage.noReads);
+		assertSame(image, ImageCache.getInstance().get(PHOTO_ID, PhotoSize.THUMB));
+
+		assertSame(image, photoManager.getImage(PHOTO_ID, PhotoSize.THUMB));
+		assertEquals(1, imageStorage.noReads);
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testMissingImageIsAskedForAgainAfterTTL() {
+		assertNull(photoManager.getImage(PHOTO_ID, PhotoSize.SMALL));
+		assertNull(photoManager.getImage(PHOTO_ID, PhotoSize.SMALL));
+		assertEquals(1, imageStorage.noReads);
+
+		// written by another instance meanwhile
+		Image image = ImagesServiceFactory.makeImage(new byte[16]);
+		imageStorage.images.put(PHOTO_ID.asString() + PhotoSize.SMALL.asInt(), image);
+		assertNull(photoManager.getImage(PHOTO_ID, PhotoSize.SMALL));
+		assertEquals(1, imageStorage.noReads);
+
+		for (String key : photoManager.missingImageTimes.keySet()) {
+			photoManager.missingImageTimes.put(key, System.currentTimeMillis() - PhotoManager.MISSING_IMAGE_TTL);
+		}
+		assertSame(image, photoManager.getImage(PHOTO_ID, PhotoSize.SMALL));
+		assertEquals(2, imageStorage.noReads);
+		assertEquals(0, photoManager.missingImageTimes.size());
+	}
+
+	/**
+	 * An image storage in memory that counts the images read from it
+	 */
+	protected static class CountingImageStorage extends ImageStorage {
+
+		protected final Map<String, Image> images = new HashMap<String, Image>();
+		protected int noReads = 0;
+
+		@Override
+		protected void doWriteImage(Serializable image, String photoIdAsString, int size) {
+			images.put(photoIdAsString + size, (Image) image);
+		}
+
+		@Override
+		protected Serializable doReadImage(String photoIdAsString, int size) {
+			noReads++;
+			return images.get(photoIdAsString + size);
+		}
+
+		@Override
+		protected void doWriteStagedImage(Image image, String photoIdAsString) {
+		}
+
+		@Override
+		protected Image doReadStagedImage(String photoIdAsString) {
+			return null;
+		}
+
+		@Override
+		protected void doDeleteStagedImage(String photoIdAsString) {
+		}
+
+		@Override
+		protected boolean doDoesImageExist(String photoIdAsString, int size) {
+			return images.containsKey(photoIdAsString + size);
+		}
+	}
+
+}
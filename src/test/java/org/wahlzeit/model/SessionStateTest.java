@@ -0,0 +1,77 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.wahlzeit.model;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test cases for the SessionState class.
+ */
+public class SessionStateTest {
+
+	protected SessionState state;
+
+	/**
+	 *
+	 */
+	@Before
+	public void setUp() {
+		state = new SessionState("http://localhost/", new PhotoFilter());
+		state.setClientId("guest#1");
+		state.setSavedArg("key", "value");
+		state.setSaved();
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testUnchangedValuesKeepStateClean() {
+		state.setClientId("guest#1");
+		state.setSavedArg("key", "value");
+		state.setMessage(null);
+		state.clearPraisedPhotoIds();
+
+		assertFalse(state.isDirty());
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testChangesMakeStateDirty() {
+		state.setMessage("message");
+		assertTrue(state.isDirty());
+
+		state.setSaved();
+		state.getPhotoFilter().setUserName("han");
+		assertTrue(state.isDirty());
+
+		state.setSaved();
+		assertFalse(state.isDirty());
+	}
+
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.model;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Test cases for the TagIndex class.
+ */
+public class TagIndexTest {
+
+	private TagIndex tagIndex;
+
+	@Before
+	public void initTagIndex() {
+		tagIndex = new TagIndex();
+		tagIndex.update(new PhotoId(3), asSet("tg:puppy", "un:anna"));
+		tagIndex.update(new PhotoId(1), asSet("tg:puppy", "tg:dog"));
+		tagIndex.update(new PhotoId(2), asSet("tg:dog", "un:anna"));
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testGetPhotoIds() {
+		assertArrayEquals(new int[] {1, 3}, tagIndex.getPhotoIds("tg:puppy"));
+		assertArrayEquals(new int[0], tagIndex.getPhotoIds("tg:cat"));
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testUnionAndIntersection() {
+		assertArrayEquals(new int[] {1, 2, 3}, tagIndex.getPhotoIdsWithAnyTag(Arrays.asList("tg:puppy", "un:anna")));
+		assertArrayEquals(new int[] {3}, tagIndex.getPhotoIdsWithAllTags(Arrays.asList("tg:puppy", "un:anna")));
+		assertArrayEquals(new int[0], tagIndex.getPhotoIdsWithAllTags(Arrays.asList("tg:puppy", "tg:cat")));
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testUpdateReplacesTags() {
+		tagIndex.update(new PhotoId(1), asSet("tg:dog", "tg:cat"));
+		assertArrayEquals(new int[] {3}, tagIndex.getPhotoIds("tg:puppy"));
+		assertArrayEquals(new int[] {1}, tagIndex.getPhotoIds("tg:cat"));
+		assertEquals(asSet("tg:dog", "tg:cat"), tagIndex.getTags(new PhotoId(1)));
+
+		tagIndex.remove(new PhotoId(2));
+		tagIndex.remove(new PhotoId(3));
+		assertArrayEquals(new int[0], tagIndex.getPhotoIds("un:anna"));
+		assertEquals(2, tagIndex.getNoTags());
+	}
+
+	/**
+	 *
+	 */
+	protected Set<String> asSet(String... tags) {
+		return new HashSet<String>(Arrays.asList(tags));
+	}
+
+}
@@ -0,0 +1,218 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.wahlzeit.model;
+
+import com.google.appengine.api.images.Image;
+import com.google.appengine.api.images.ImagesServiceFactory;
+import com.googlecode.objectify.ObjectifyService;
+import com.googlecode.objectify.Work;
+import org.junit.Before;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.rules.RuleChain;
+import org.wahlzeit.model.persistence.DatastoreAdapter;
+import org.wahlzeit.model.persistence.ImageStorage;
+import org.wahlzeit.services.OfyService;
+import org.wahlzeit.testEnvironmentProvider.LocalDatastoreServiceTestConfigProvider;
+import org.wahlzeit.testEnvironmentProvider.RegisteredOfyEnvironmentProvider;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test cases for the UploadPipeline class. Each request of the application is run with its own Objectify session.
+ */
+public class UploadPipelineTest {
+
+	@ClassRule
+	public static RuleChain ruleChain = RuleChain.
+			outerRule(new LocalDatastoreServiceTestConfigProvider()).
+			around(new RegisteredOfyEnvironmentProvider());
+
+	protected UploadPipeline pipeline;
+	protected Image original;
+
+	/**
+	 *
+	 */
+	@Before
+	public void setUp() {
+		ImageStorage.setInstance(new DatastoreAdapter());
+		// scaling needs the images service; the stages around it are tested here
+		pipeline = new UploadPipeline(1) {
+			@Override
+			protected void scaleImages(Photo photo, Image original) {
+				// do nothing
+			}
+		};
+		original = ImagesServiceFactory.makeImage(new byte[] {1, 2, 3});
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testAcceptProcessAndPublish() throws Exception {
+		final Photo photo = createProcessingPhoto();
+		final String photoIdAsString = photo.getId().asString();
+
+		assertTrue(ObjectifyService.run(new Work<Boolean>() {
+			@Override
+			public Boolean run() {
+				return pipeline.accept(photo, original, 0);
+			}
+		}));
+		assertNotNull(ImageStorage.getInstance().readStagedImage(photoIdAsString));
+		assertTrue(loadStoredPhoto(photo.getId()).isProcessing());
+
+		assertTrue(ObjectifyService.run(new Work<Boolean>() {
+			@Override
+			public Boolean run() {
+				try {
+					return pipeline.process(photo.getId());
+				} catch (Exception e) {
+					throw new IllegalStateException(e);
+				}
+			}
+		}));
+		assertTrue(photo.isDisplayable());
+		assertFalse(loadStoredPhoto(photo.getId()).isProcessing());
+		assertNull(ImageStorage.getInstance().readStagedImage(photoIdAsString));
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testAcceptRefusesWhenFull() {
+		final Photo photo = createProcessingPhoto();
+		assertFalse(ObjectifyService.run(new Work<Boolean>() {
+			@Override
+			public Boolean run() {
+				return pipeline.accept(photo, original, 1);
+			}
+		}));
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testCachedPhotoTakesOverProcessingElsewhere() {
+		final Photo photo = createAndAcceptPhoto();
+		publishElsewhere(photo.getId());
+
+		Photo cachedPhoto = ObjectifyService.run(new Work<Photo>() {
+			@Override
+			public Photo run() {
+				return PhotoManager.getInstance().getPhoto(photo.getId());
+			}
+		});
+		assertSame(photo, cachedPhoto);
+		assertTrue(photo.isDisplayable());
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testStaleProcessingPhotoIsNotSavedOverProcessedOne() {
+		final Photo photo = createAndAcceptPhoto();
+		publishElsewhere(photo.getId());
+
+		ObjectifyService.run(new Work<Void>() {
+			@Override
+			public Void run() {
+				photo.setTags(new Tags("edited"));
+				PhotoManager.getInstance().savePhoto(photo);
+				return null;
+			}
+		});
+		assertFalse(photo.isProcessing());
+		assertFalse(loadStoredPhoto(photo.getId()).isProcessing());
+	}
+
+	/**
+	 *
+	 */
+	protected Photo createProcessingPhoto() {
+		return ObjectifyService.run(new Work<Photo>() {
+			@Override
+			public Photo run() {
+				Photo result = new Photo(PhotoId.getNextId());
+				result.setOwnerId("uploader");
+				result.setProcessing(true);
+				try {
+					PhotoManager.getInstance().addPhoto(result);
+				} catch (Exception e) {
+					throw new IllegalStateException(e);
+				}
+				return result;
+			}
+		});
+	}
+
+	/**
+	 *
+	 */
+	protected Photo createAndAcceptPhoto() {
+		final Photo result = createProcessingPhoto();
+		ObjectifyService.run(new Work<Boolean>() {
+			@Override
+			public Boolean run() {
+				return pipeline.accept(result, original, 0);
+			}
+		});
+		return result;
+	}
+
+	/**
+	 * Processes the stored photo as another instance would, without touching the cached photo
+	 */
+	protected void publishElsewhere(final PhotoId id) {
+		ObjectifyService.run(new Work<Void>() {
+			@Override
+			public Void run() {
+				Photo storedPhoto = PhotoFactory.getInstance().loadPhoto(id);
+				storedPhoto.setProcessed();
+				OfyService.ofy().save().entity(storedPhoto).now();
+				return null;
+			}
+		});
+	}
+
+	/**
+	 *
+	 */
+	protected Photo loadStoredPhoto(final PhotoId id) {
+		return ObjectifyService.run(new Work<Photo>() {
+			@Override
+			public Photo run() {
+				return PhotoFactory.getInstance().loadPhoto(id);
+			}
+		});
+	}
+
+}
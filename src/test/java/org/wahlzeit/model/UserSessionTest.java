@@ -0,0 +1,77 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.model;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.RuleChain;
+import org.junit.rules.TestRule;
+import org.wahlzeit.services.SessionManager;
+import org.wahlzeit.testEnvironmentProvider.LocalDatastoreServiceTestConfigProvider;
+import org.wahlzeit.testEnvironmentProvider.RegisteredOfyEnvironmentProvider;
+import org.wahlzeit.testEnvironmentProvider.UserSessionProvider;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test cases for the UserSession class.
+ */
+public class UserSessionTest {
+
+	@Rule
+	public TestRule chain = RuleChain.
+			outerRule(new LocalDatastoreServiceTestConfigProvider()).
+			around(new RegisteredOfyEnvironmentProvider()).
+			around(new UserSessionProvider());
+
+	private UserSession session;
+
+	@Before
+	public void setUp() {
+		session = (UserSession) SessionManager.getThreadLocalSession();
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testEvictedGuestIsCreatedAgain() {
+		String guestId = session.getClientId();
+		Client guest = session.getClient();
+		assertTrue(guest instanceof Guest);
+
+		GuestStore.getInstance().remove(guestId);
+		Client recreated = session.getClient();
+
+		assertNotNull(recreated);
+		assertNotSame(guest, recreated);
+		assertTrue(recreated instanceof Guest);
+		assertEquals(guestId, recreated.getId());
+		assertSame(recreated, session.getClient());
+		assertSame(recreated, UserManager.getInstance().getClientById(guestId));
+	}
+
+}
@@ -9,6 +9,7 @@ import org.junit.Test;
 import java.io.IOException;
 import java.io.Serializable;
 import java.nio.ByteBuffer;
+import java.util.Set;
 
 import static org.junit.Assert.fail;
 
@@ -128,4 +129,46 @@ public abstract class AbstractAdapterTest {
 		exists = imageStorage.doesImageExist("wrong file name", 1);
 		assert !exists;
 	}
+
+	@Test
+	public void testExistingImageSizes() {
+		assert imageStorage.getExistingImageSizes("sizes").isEmpty();
+
+		try {
+			imageStorage.writeImage(smallTestImage, "sizes", 1);
+			imageStorage.writeImage(smallTestImage, "sizes", 3);
+			imageStorage.writeImage(smallTestImage, "sizes1", 0);
+		} catch (IOException e) {
+			fail("IOException should not be thrown!");
+		}
+
+		Set<Integer> sizes = imageStorage.getExistingImageSizes("sizes");
+		assert sizes.size() == 2;
+		assert sizes.contains(1) && sizes.contains(3);
+		assert imageStorage.doesImageExist("sizes", 3);
+		assert !imageStorage.doesImageExist("sizes", 0);
+	}
+
+	@Test
+	public void testMissingImageIsAskedForAgainAfterTTL() {
+		assert !imageStorage.doesImageExist("elsewhere", 1);
+		assert imageStorage.getExistingImageSizes("elsewhere").isEmpty();
+
+		// written by another instance, i.e. without passing this storage's cache
+		try {
+			imageStorage.doWriteImage(smallTestImage, "elsewhere", 1);
+		} catch (IOException e) {
+			fail("IOException should not be thrown!");
+		}
+
+		assert !imageStorage.doesImageExist("elsewhere", 1);
+
+		for (String key : imageStorage.absenceCache.keySet()) {
+			imageStorage.absenceCache.put(key, System.currentTimeMillis() - 1);
+		}
+
+		assert imageStorage.doesImageExist("elsewhere", 1);
+		assert imageStorage.getExistingImageSizes("elsewhere").contains(1);
+		assert !imageStorage.doesImageExist("elsewhere", 2);
+	}
 }
@@ -12,9 +12,16 @@ import org.wahlzeit.testEnvironmentProvider.UserSessionProvider;
 
 import java.io.PrintWriter;
 import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.wahlzeit.services.LogBuilder.ACTION;
 import static org.wahlzeit.services.LogBuilder.CLIENT;
@@ -173,4 +180,55 @@ public class LogBuilderTest {
 		expectedLogMessage = expectedLogMessage + INFO_SEPARATOR + ACTION + NAME_VALUE_SEPARATOR + null;
 		assertEquals(expectedLogMessage, logMessage);
 	}
+
+	@Test
+	public void testLogDisabledLevel() {
+		Logger logger = createTestLogger(Level.WARNING);
+		List<String> messages = addTestHandler(logger);
+
+		LogBuilder logBuilder = LogBuilder.createSystemMessage(logger, Level.CONFIG).addParameter("Yoda", 1337);
+		assertSame(LogBuilder.DISABLED_BUILDER, logBuilder);
+		logBuilder.log();
+		assertTrue(messages.isEmpty());
+	}
+
+	@Test
+	public void testLogEnabledLevel() {
+		Logger logger = createTestLogger(Level.CONFIG);
+		List<String> messages = addTestHandler(logger);
+
+		LogBuilder.createSystemMessage(logger, Level.CONFIG).addParameter("Yoda", 1337).log();
+		LogBuilder.createSystemMessage(logger, Level.INFO).addMessage("Han Solo").log();
+
+		assertEquals(2, messages.size());
+		assertEquals(getExpectedSystemMessage() + INFO_SEPARATOR + "Yoda" + NAME_VALUE_SEPARATOR + "1337",
+				messages.get(0));
+		assertEquals(getExpectedSystemMessage() + INFO_SEPARATOR + "Han Solo", messages.get(1));
+	}
+
+	protected Logger createTestLogger(Level level) {
+		Logger result = Logger.getAnonymousLogger();
+		result.setUseParentHandlers(false);
+		result.setLevel(level);
+		return result;
+	}
+
+	protected List<String> addTestHandler(Logger logger) {
+		final List<String> result = new ArrayList<String>();
+		logger.addHandler(new Handler() {
+			@Override
+			public void publish(LogRecord record) {
+				result.add(record.getMessage());
+			}
+
+			@Override
+			public void flush() {
+			}
+
+			@Override
+			public void close() {
+			}
+		});
+		return result;
+	}
 }
@@ -0,0 +1,174 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.wahlzeit.services;
+
+import com.googlecode.objectify.Result;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Test cases for the WriteBehindQueue class.
+ */
+public class WriteBehindQueueTest {
+
+	protected TestObjectManager manager;
+	protected int noScheduledFlushes;
+
+	/**
+	 *
+	 */
+	@Before
+	public void setUp() {
+		manager = new TestObjectManager();
+		noScheduledFlushes = 0;
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testFlushAtMaxSize() {
+		WriteBehindQueue queue = createQueue(2, 60 * 1000);
+		queue.add(manager, new DataObject() { });
+		assertEquals(0, manager.written.size());
+		assertEquals(1, queue.getSize());
+
+		queue.add(manager, new DataObject() { });
+		assertEquals(2, manager.written.size());
+		assertEquals(0, queue.getSize());
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testFlushAfterMaxDelay() {
+		WriteBehindQueue queue = createQueue(100, 1000);
+		queue.add(manager, new DataObject() { });
+		queue.flushIfDue();
+		assertEquals(0, manager.written.size());
+
+		queue.firstAddTime.set(System.currentTimeMillis() - 1000);
+		queue.flushIfDue();
+		assertEquals(1, manager.written.size());
+		assertEquals(0, queue.getSize());
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testFirstAddSchedulesFlush() {
+		WriteBehindQueue queue = createQueue(100, 1000);
+		queue.add(manager, new DataObject() { });
+		queue.add(manager, new DataObject() { });
+		assertEquals(1, noScheduledFlushes);
+
+		queue.flush();
+		queue.add(manager, new DataObject() { });
+		assertEquals(2, noScheduledFlushes);
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testFailedWriteIsRequeued() {
+		WriteBehindQueue queue = createQueue(100, 1000);
+		TestObjectManager failingManager = new TestObjectManager();
+		failingManager.isFailing = true;
+		queue.add(failingManager, new DataObject() { });
+		queue.add(manager, new DataObject() { });
+
+		queue.flush();
+		assertEquals(1, manager.written.size());
+		assertEquals(1, queue.getSize());
+
+		failingManager.isFailing = false;
+		queue.flush();
+		assertEquals(1, failingManager.written.size());
+		assertEquals(0, queue.getSize());
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testFailedConfirmationIsRequeued() {
+		WriteBehindQueue queue = createQueue(100, 1000);
+		manager.isConfirmationFailing = true;
+		queue.add(manager, new DataObject() { });
+
+		queue.flush();
+		assertEquals(1, queue.getSize());
+		// the requeued object schedules the next flush
+		assertEquals(2, noScheduledFlushes);
+	}
+
+	/**
+	 *
+	 */
+	protected WriteBehindQueue createQueue(int maxSize, long maxDelay) {
+		return new WriteBehindQueue(maxSize, maxDelay) {
+			@Override
+			protected void scheduleFlush() {
+				noScheduledFlushes++;
+			}
+		};
+	}
+
+	/**
+	 * An object manager that only records the objects it is asked to write
+	 */
+	protected static class TestObjectManager extends ObjectManager {
+
+		protected final List<Persistent> written = new ArrayList<Persistent>();
+		protected boolean isFailing = false;
+		protected boolean isConfirmationFailing = false;
+
+		@Override
+		protected WriteResult updateObjectsAsync(Collection<? extends Persistent> collection) {
+			if (isFailing) {
+				throw new IllegalStateException("write failed");
+			}
+
+			written.addAll(collection);
+			WriteResult result = new WriteResult(new ArrayList<Persistent>(collection));
+			if (isConfirmationFailing) {
+				result.addChunkResult(new Result<Void>() {
+					@Override
+					public Void now() {
+						throw new IllegalStateException("write not confirmed");
+					}
+				});
+			}
+			return result;
+		}
+	}
+
+}
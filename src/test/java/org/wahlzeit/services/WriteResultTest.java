@@ -0,0 +1,137 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.wahlzeit.services;
+
+import com.googlecode.objectify.Result;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Test cases for the WriteResult class.
+ */
+public class WriteResultTest {
+
+	/**
+	 *
+	 */
+	@Test
+	public void testChangeDuringWriteKeepsObjectDirty() {
+		DataObject written = new DataObject() { };
+		DataObject changedDuringWrite = new DataObject() { };
+		written.incWriteCount();
+		changedDuringWrite.incWriteCount();
+
+		List<Persistent> objects = new ArrayList<Persistent>();
+		objects.add(written);
+		objects.add(changedDuringWrite);
+		WriteResult result = new WriteResult(objects);
+		changedDuringWrite.incWriteCount();
+		result.now();
+
+		assertFalse(written.isDirty());
+		assertTrue(changedDuringWrite.isDirty());
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testDependentsAreUpdatedOnceWritten() {
+		final List<String> events = new ArrayList<String>();
+		DataObject written = new DataObject() { };
+		written.incWriteCount();
+		List<Persistent> objects = new ArrayList<Persistent>();
+		objects.add(written);
+
+		WriteResult result = new WriteResult(objects);
+		result.addChunkResult(new Result<Void>() {
+			@Override
+			public Void now() {
+				events.add("written");
+				return null;
+			}
+		});
+		result.setDependentsManager(new ObjectManager() {
+			@Override
+			protected WriteResult updateDependentsAsync(Collection<? extends Persistent> objects) {
+				events.add("dependents issued");
+				WriteResult dependentsResult = new WriteResult(new ArrayList<Persistent>());
+				dependentsResult.addChunkResult(new Result<Void>() {
+					@Override
+					public Void now() {
+						events.add("dependents written");
+						return null;
+					}
+				});
+				return dependentsResult;
+			}
+		});
+		assertTrue(events.isEmpty());
+
+		result.now();
+		result.now();
+
+		assertEquals(3, events.size());
+		assertEquals("written", events.get(0));
+		assertEquals("dependents issued", events.get(1));
+		assertEquals("dependents written", events.get(2));
+		assertFalse(written.isDirty());
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testFailedDependentsKeepObjectDirty() {
+		DataObject written = new DataObject() { };
+		written.incWriteCount();
+		List<Persistent> objects = new ArrayList<Persistent>();
+		objects.add(written);
+
+		WriteResult result = new WriteResult(objects);
+		WriteResult dependentsResult = new WriteResult(new ArrayList<Persistent>());
+		dependentsResult.addChunkResult(new Result<Void>() {
+			@Override
+			public Void now() {
+				throw new IllegalStateException("dependents not written");
+			}
+		});
+		result.addDependentResult(dependentsResult);
+
+		try {
+			result.now();
+			fail("IllegalStateException should be thrown!");
+		} catch (IllegalStateException e) {
+			// expected
+		}
+		assertTrue(written.isDirty());
+	}
+
+}
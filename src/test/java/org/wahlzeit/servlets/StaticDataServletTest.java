@@ -0,0 +1,215 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.servlets;
+
+import com.google.appengine.api.images.Image;
+import org.junit.Before;
+import org.junit.Test;
+import org.wahlzeit.model.persistence.ImageStorage;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Serializable;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Test cases for the range and conditional request handling of the StaticDataServlet.
+ */
+public class StaticDataServletTest {
+
+	private static final String E_TAG = "\"x1a-2\"";
+	private static final long LAST_MODIFIED = 1400000000000L;
+
+	private StaticDataServlet servlet;
+	private HttpServletRequest request;
+
+	@Before
+	public void setUp() {
+		servlet = new StaticDataServlet();
+		request = mock(HttpServletRequest.class);
+		when(request.getDateHeader("If-Modified-Since")).thenReturn(-1L);
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testByteRange() {
+		assertArrayEquals(new long[] {0, 499}, servlet.getByteRange("bytes=0-499", 1000));
+		assertArrayEquals(new long[] {500, 999}, servlet.getByteRange("bytes=500-", 1000));
+		assertArrayEquals(new long[] {500, 999}, servlet.getByteRange("bytes=500-5000", 1000));
+		assertArrayEquals(new long[] {999, 999}, servlet.getByteRange("bytes=999-999", 1000));
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testSuffixByteRange() {
+		assertArrayEquals(new long[] {900, 999}, servlet.getByteRange("bytes=-100", 1000));
+		assertArrayEquals(new long[] {0, 999}, servlet.getByteRange("bytes=-5000", 1000));
+		assertEquals(0, servlet.getByteRange("bytes=-0", 1000).length);
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testUnsatisfiableByteRange() {
+		assertEquals(0, servlet.getByteRange("bytes=1000-", 1000).length);
+		assertEquals(0, servlet.getByteRange("bytes=1000-1999", 1000).length);
+		assertEquals(0, servlet.getByteRange("bytes=500-100", 1000).length);
+		assertEquals(0, servlet.getByteRange("bytes=0-", 0).length);
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testIgnoredByteRange() {
+		assertNull(servlet.getByteRange("bytes=0-99,200-299", 1000));
+		assertNull(servlet.getByteRange("items=0-99", 1000));
+		assertNull(servlet.getByteRange("bytes=100", 1000));
+		assertNull(servlet.getByteRange("bytes=a-b", 1000));
+		assertNull(servlet.getByteRange("bytes=-", 1000));
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testIfNoneMatch() {
+		when(request.getHeader("If-None-Match")).thenReturn("*");
+		assertTrue(servlet.isNotModified(request, E_TAG, LAST_MODIFIED));
+
+		when(request.getHeader("If-None-Match")).thenReturn("\"other\", " + E_TAG);
+		assertTrue(servlet.isNotModified(request, E_TAG, LAST_MODIFIED));
+
+		when(request.getHeader("If-None-Match")).thenReturn("\"other\"");
+		assertFalse(servlet.isNotModified(request, E_TAG, LAST_MODIFIED));
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testIfNoneMatchTakesPrecedence() {
+		when(request.getHeader("If-None-Match")).thenReturn("\"other\"");
+		when(request.getDateHeader("If-Modified-Since")).thenReturn(LAST_MODIFIED);
+		assertFalse(servlet.isNotModified(request, E_TAG, LAST_MODIFIED));
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testIfModifiedSince() {
+		assertFalse(servlet.isNotModified(request, E_TAG, LAST_MODIFIED));
+
+		// HTTP dates have seconds only
+		when(request.getDateHeader("If-Modified-Since")).thenReturn(LAST_MODIFIED - (LAST_MODIFIED % 1000));
+		assertTrue(servlet.isNotModified(request, E_TAG, LAST_MODIFIED + 999));
+
+		when(request.getDateHeader("If-Modified-Since")).thenReturn(LAST_MODIFIED - 1000);
+		assertFalse(servlet.isNotModified(request, E_TAG, LAST_MODIFIED));
+
+		when(request.getDateHeader("If-Modified-Since")).thenReturn(LAST_MODIFIED);
+		assertFalse(servlet.isNotModified(request, E_TAG, -1));
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testMalformedIfModifiedSince() {
+		when(request.getDateHeader("If-Modified-Since")).thenThrow(new IllegalArgumentException("no date"));
+		assertFalse(servlet.isNotModified(request, E_TAG, LAST_MODIFIED));
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testMissingStreamedImageIsNotCached() throws IOException {
+		HttpServletResponse response = mock(HttpServletResponse.class);
+		servlet.streamImage(response, new MissingImageStorage(), "x1a", 2, E_TAG, LAST_MODIFIED);
+
+		verify(response).setStatus(HttpServletResponse.SC_NOT_FOUND);
+		verify(response, never()).setStatus(HttpServletResponse.SC_OK);
+		verify(response, never()).setHeader("Cache-Control", StaticDataServlet.IMAGE_CACHE_CONTROL);
+		verify(response, never()).setHeader("ETag", E_TAG);
+	}
+
+	/**
+	 * An image storage that knows the length of an image that has gone missing when it is to be streamed
+	 */
+	protected static class MissingImageStorage extends ImageStorage {
+
+		@Override
+		public long getImageLength(String photoIdAsString, int size) {
+			return 10;
+		}
+
+		@Override
+		public boolean writeImageTo(String photoIdAsString, int size, OutputStream out) {
+			return false;
+		}
+
+		@Override
+		protected void doWriteImage(Serializable image, String photoIdAsString, int size) {
+		}
+
+		@Override
+		protected Serializable doReadImage(String filename, int size) {
+			return null;
+		}
+
+		@Override
+		protected void doWriteStagedImage(Image image, String photoIdAsString) {
+		}
+
+		@Override
+		protected Image doReadStagedImage(String photoIdAsString) {
+			return null;
+		}
+
+		@Override
+		protected void doDeleteStagedImage(String photoIdAsString) {
+		}
+
+		@Override
+		protected boolean doDoesImageExist(String photoIdAsString, int size) {
+			return false;
+		}
+	}
+
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.utils;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+/**
+ * Test cases for the BufferPool class.
+ */
+public class BufferPoolTest {
+
+	private BufferPool bufferPool;
+
+	@Before
+	public void setUp() {
+		bufferPool = new BufferPool(16, 4, 1);
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testReadFullyOverSeveralBuffers() throws IOException {
+		byte[] data = getData(50);
+		assertArrayEquals(data, bufferPool.readFully(new ByteArrayInputStream(data), 100));
+		assertArrayEquals(data, bufferPool.readFully(new ByteArrayInputStream(data), 50));
+		assertArrayEquals(new byte[0], bufferPool.readFully(new ByteArrayInputStream(new byte[0]), 50));
+		assertEquals(1, bufferPool.largeReads.availablePermits());
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testReadFullyStopsAtSizeLimit() throws IOException {
+		CountingInputStream in = new CountingInputStream(getData(1000));
+		assertNull(bufferPool.readFully(in, 40));
+		assertEquals(48, in.noBytesRead);
+		assertEquals(1, bufferPool.largeReads.availablePermits());
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testReadFullyWithKnownLength() throws IOException {
+		byte[] data = getData(50);
+		assertArrayEquals(data, bufferPool.readFully(new ByteArrayInputStream(data), 100, 50));
+
+		CountingInputStream in = new CountingInputStream(data);
+		assertNull(bufferPool.readFully(in, 40, 50));
+		assertEquals(0, in.noBytesRead);
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testReadFullyWithWrongLength() {
+		byte[] data = getData(50);
+		try {
+			bufferPool.readFully(new ByteArrayInputStream(data), 100, 60);
+			fail("IOException should be thrown for a short stream!");
+		} catch (IOException e) {
+			// expected
+		}
+
+		try {
+			bufferPool.readFully(new ByteArrayInputStream(data), 100, 40);
+			fail("IOException should be thrown for a long stream!");
+		} catch (IOException e) {
+			// expected
+		}
+	}
+
+	/**
+	 * @methodtype factory
+	 */
+	protected byte[] getData(int length) {
+		byte[] result = new byte[length];
+		for (int i = 0; i < length; i++) {
+			result[i] = (byte) i;
+		}
+		return result;
+	}
+
+	/**
+	 * An input stream that counts the bytes read from it
+	 */
+	protected static class CountingInputStream extends InputStream {
+
+		protected final InputStream in;
+		protected int noBytesRead = 0;
+
+		public CountingInputStream(byte[] data) {
+			in = new ByteArrayInputStream(data);
+		}
+
+		@Override
+		public int read() throws IOException {
+			int result = in.read();
+			if (result != -1) {
+				noBytesRead++;
+			}
+			return result;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			int result = in.read(b, off, len);
+			if (result != -1) {
+				noBytesRead += result;
+			}
+			return result;
+		}
+	}
+
+}
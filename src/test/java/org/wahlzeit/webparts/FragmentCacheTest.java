@@ -0,0 +1,88 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.wahlzeit.webparts;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Test cases for the FragmentCache class.
+ */
+public class FragmentCacheTest {
+
+	protected FragmentCache cache;
+	protected WebPartTemplate template;
+
+	/**
+	 *
+	 */
+	@Before
+	public void setUp() {
+		cache = new FragmentCache();
+		template = new WebPartTemplate("info");
+		template.initialize("<p>info</p>");
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testPutAndGet() {
+		cache.put(new WebPart(template), "en", "", cache.getStamp("photo:1"));
+		assertNotNull(cache.get(template, "en", ""));
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testInvalidateDropsFragment() {
+		cache.put(new WebPart(template), "en", "", cache.getStamp("photo:1"));
+		cache.invalidate("photo:1");
+		assertNull(cache.get(template, "en", ""));
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testFragmentRenderedBeforeInvalidateIsNotCached() {
+		FragmentCache.Stamp stamp = cache.getStamp("photo:1", "client:1");
+		cache.invalidate("client:1");
+		cache.put(new WebPart(template), "en", "", stamp);
+		assertNull(cache.get(template, "en", ""));
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testInvalidateOfOtherObjectKeepsFragment() {
+		cache.put(new WebPart(template), "en", "", cache.getStamp("photo:1"));
+		cache.invalidate("photo:2");
+		assertNotNull(cache.get(template, "en", ""));
+	}
+
+}